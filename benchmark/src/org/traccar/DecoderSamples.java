@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Sample messages recorded by running protocol decoder tests. Loading test classes also initializes context with
+ * stub identity manager from {@link org.traccar.BaseTest}.
+ */
+public final class DecoderSamples {
+
+    private static final String PACKAGE_PATH = "org/traccar/protocol/";
+    private static final String SUFFIX = "ProtocolDecoderTest";
+
+    private DecoderSamples() {
+    }
+
+    public static final class Sample {
+
+        private final BaseProtocolDecoder decoder;
+        private final Object message;
+        private final int readerIndex;
+
+        private Sample(BaseProtocolDecoder decoder, Object message) {
+            this.decoder = decoder;
+            this.message = message;
+            if (message instanceof HttpRequest) {
+                readerIndex = ((HttpRequest) message).getContent().readerIndex();
+            } else {
+                readerIndex = 0;
+            }
+        }
+
+        public Object decode() throws Exception {
+            Object object = message;
+            if (message instanceof ChannelBuffer) {
+                object = ((ChannelBuffer) message).duplicate();
+            } else if (message instanceof HttpRequest) {
+                ((HttpRequest) message).getContent().readerIndex(readerIndex);
+            }
+            return decoder.decode(null, null, object);
+        }
+
+    }
+
+    public static List<String> getDecoders() throws Exception {
+        TreeSet<String> names = new TreeSet<>();
+        File location = new File(new URI(
+                ProtocolTest.class.getProtectionDomain().getCodeSource().getLocation().toString()));
+        if (location.isDirectory()) {
+            String[] files = new File(location, PACKAGE_PATH).list();
+            if (files != null) {
+                for (String file : files) {
+                    addName(names, file);
+                }
+            }
+        } else {
+            try (JarFile jarFile = new JarFile(location)) {
+                Enumeration<JarEntry> entries = jarFile.entries();
+                while (entries.hasMoreElements()) {
+                    String entryName = entries.nextElement().getName();
+                    if (entryName.startsWith(PACKAGE_PATH)) {
+                        addName(names, entryName.substring(PACKAGE_PATH.length()));
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(names);
+    }
+
+    private static void addName(TreeSet<String> names, String file) {
+        if (file.endsWith(SUFFIX + ".class")) {
+            names.add(file.substring(0, file.length() - SUFFIX.length() - 6));
+        }
+    }
+
+    /**
+     * Runs decoder test for given prefix (e.g. "Gt06") and returns messages that are decoded without exceptions.
+     */
+    public static List<Sample> load(String decoder) throws Exception {
+        Class<?> testClass = Class.forName(PACKAGE_PATH.replace('/', '.') + decoder + SUFFIX);
+        Object test = testClass.newInstance();
+
+        List<Object[]> recorded = new ArrayList<>();
+        ProtocolTest.setSamples(recorded);
+        try {
+            for (Method method : testClass.getMethods()) {
+                if (method.isAnnotationPresent(Test.class)) {
+                    try {
+                        method.invoke(test);
+                    } catch (Exception error) {
+                        continue;
+                    }
+                }
+            }
+        } finally {
+            ProtocolTest.setSamples(null);
+        }
+
+        List<Sample> samples = new ArrayList<>();
+        for (Object[] item : recorded) {
+            Sample sample = new Sample((BaseProtocolDecoder) item[0], item[1]);
+            try {
+                sample.decode();
+                samples.add(sample);
+            } catch (Exception error) {
+                continue;
+            }
+        }
+        if (samples.isEmpty()) {
+            throw new IllegalArgumentException("No samples for " + decoder);
+        }
+        return samples;
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.traccar.DecoderSamples;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes sample messages from protocol tests one by one, so the score is messages per second and "gc.alloc.rate.norm"
+ * reported by gc profiler is allocation per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecoderBenchmark {
+
+    @Param("Gt06")
+    public String decoder;
+
+    private DecoderSamples.Sample[] samples;
+    private int index;
+
+    @Setup
+    public void setup() throws Exception {
+        List<DecoderSamples.Sample> list = DecoderSamples.load(decoder);
+        samples = list.toArray(new DecoderSamples.Sample[list.size()]);
+    }
+
+    @Benchmark
+    public Object decode() throws Exception {
+        DecoderSamples.Sample sample = samples[index];
+        index = index + 1 < samples.length ? index + 1 : 0;
+        return sample.decode();
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(commandLineOptions)
+                .include(DecoderBenchmark.class.getSimpleName());
+        if (!commandLineOptions.getParameter("decoder").hasValue()) {
+            List<String> decoders = DecoderSamples.getDecoders();
+            options.param("decoder", decoders.toArray(new String[decoders.size()]));
+        }
+        new Runner(options.build()).run();
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.traccar.geofence.GeofenceCircle;
+import org.traccar.geofence.GeofenceGeometry;
+import org.traccar.geofence.GeofenceIndex;
+import org.traccar.geofence.GeofencePolygon;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds geofences containing a position among geofences spread over a city sized area, all of them linked to the
+ * device. Compares scanning every geofence with index lookup followed by exact checks of candidates.
+ *
+ * java -cp benchmark/target/benchmarks.jar org.openjdk.jmh.Main GeofenceBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeofenceBenchmark {
+
+    private static final int POSITIONS = 1024;
+
+    @Param("10000")
+    public int count;
+
+    private Map<Long, GeofenceGeometry> geometries;
+    private Set<Long> deviceGeofences;
+    private GeofenceIndex index;
+    private double[] latitudes;
+    private double[] longitudes;
+    private int position;
+
+    @Setup
+    public void setup() throws Exception {
+        Random random = new Random(1);
+        geometries = new HashMap<>();
+        for (long id = 1; id <= count; id++) {
+            double latitude = 55.5 + random.nextDouble();
+            double longitude = 37.0 + random.nextDouble();
+            if (id % 2 == 0) {
+                geometries.put(id, new GeofenceCircle(latitude, longitude, 100 + random.nextDouble() * 1000));
+            } else {
+                double size = 0.001 + random.nextDouble() * 0.01;
+                geometries.put(id, new GeofencePolygon(String.format(Locale.US,
+                        "POLYGON ((%f %f, %f %f, %f %f, %f %f, %f %f))",
+                        latitude, longitude, latitude + size, longitude, latitude + size * 1.5, longitude + size,
+                        latitude + size, longitude + size * 2, latitude, longitude + size)));
+            }
+        }
+        deviceGeofences = new HashSet<>(geometries.keySet());
+        index = new GeofenceIndex(geometries);
+        latitudes = new double[POSITIONS];
+        longitudes = new double[POSITIONS];
+        for (int i = 0; i < POSITIONS; i++) {
+            latitudes[i] = 55.5 + random.nextDouble();
+            longitudes[i] = 37.0 + random.nextDouble();
+        }
+    }
+
+    @Benchmark
+    public List<Long> scan() {
+        int i = position++ & (POSITIONS - 1);
+        List<Long> result = new ArrayList<>();
+        for (long geofenceId : deviceGeofences) {
+            if (geometries.get(geofenceId).containsPoint(latitudes[i], longitudes[i])) {
+                result.add(geofenceId);
+            }
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<Long> index() {
+        int i = position++ & (POSITIONS - 1);
+        List<Long> result = new ArrayList<>();
+        for (long geofenceId : index.find(latitudes[i], longitudes[i])) {
+            if (deviceGeofences.contains(geofenceId)
+                    && geometries.get(geofenceId).containsPoint(latitudes[i], longitudes[i])) {
+                result.add(geofenceId);
+            }
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.traccar.geofence.GeofenceGeometry;
+import org.traccar.geofence.GeofencePolygon;
+import org.traccar.geofence.GeofencePolyline;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks points against a single large polygon and polyline. Half of the points are spread around the geometry
+ * bounding box and half are far away from it.
+ *
+ * java -cp benchmark/target/benchmarks.jar org.openjdk.jmh.Main GeometryBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeometryBenchmark {
+
+    private static final int POINTS = 1024;
+
+    @Param({"100", "1000", "10000"})
+    public int vertices;
+
+    private GeofenceGeometry polygon;
+    private GeofenceGeometry polyline;
+    private double[] latitudes;
+    private double[] longitudes;
+    private int point;
+
+    private static String coordinates(Random random, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            double angle = 2 * Math.PI * i / count;
+            double radius = 0.05 + random.nextDouble() * 0.05;
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(String.format(Locale.US, "%f %f",
+                    55.75 + radius * Math.sin(angle), 37.62 + radius * 2 * Math.cos(angle)));
+        }
+        return builder.toString();
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        Random random = new Random(1);
+        polygon = new GeofencePolygon("POLYGON ((" + coordinates(random, vertices) + "))");
+        polyline = new GeofencePolyline("LINESTRING (" + coordinates(random, vertices) + ")", 50);
+        latitudes = new double[POINTS];
+        longitudes = new double[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            double offset = i % 2 == 0 ? 0 : 1;
+            latitudes[i] = 55.6 + offset + random.nextDouble() * 0.3;
+            longitudes[i] = 37.3 + offset + random.nextDouble() * 0.6;
+        }
+    }
+
+    @Benchmark
+    public boolean polygon() {
+        int i = point++ & (POINTS - 1);
+        return polygon.containsPoint(latitudes[i], longitudes[i]);
+    }
+
+    @Benchmark
+    public boolean polyline() {
+        int i = point++ & (POINTS - 1);
+        return polyline.containsPoint(latitudes[i], longitudes[i]);
+    }
+
+}
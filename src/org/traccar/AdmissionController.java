@@ -0,0 +1,210 @@
+/*
+ * Copyright 2017 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.socket.DatagramChannel;
+import org.traccar.helper.Log;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits number of positions in flight, from the moment they are admitted to processing until they are stored.
+ * Every admitted position holds a permit. Permit is released when processing lane finishes with the position, unless
+ * a handler takes it over with {@link #takePermit()} to release it later, for example after write-behind storage.
+ */
+public class AdmissionController {
+
+    public static final class ProtocolState {
+
+        private final String protocol;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong throttleCount = new AtomicLong();
+        private final AtomicLong shedCount = new AtomicLong();
+        private final Set<Channel> pausedChannels =
+                Collections.newSetFromMap(new ConcurrentHashMap<Channel, Boolean>());
+        private volatile boolean throttled;
+
+        private ProtocolState(String protocol) {
+            this.protocol = protocol;
+        }
+
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        public long getThrottleCount() {
+            return throttleCount.get();
+        }
+
+        public long getShedCount() {
+            return shedCount.get();
+        }
+
+        public boolean isThrottled() {
+            return throttled;
+        }
+
+    }
+
+    public final class Permit {
+
+        private final ProtocolState state;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(ProtocolState state) {
+            this.state = state;
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                AdmissionController.this.release(state);
+            }
+        }
+
+    }
+
+    private static final ThreadLocal<Permit> CURRENT_PERMIT = new ThreadLocal<>();
+
+    private final int highWatermark;
+    private final int lowWatermark;
+    private final int protocolHighWatermark;
+    private final int protocolLowWatermark;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final ConcurrentMap<String, ProtocolState> states = new ConcurrentHashMap<>();
+    private final Set<ProtocolState> throttledStates =
+            Collections.newSetFromMap(new ConcurrentHashMap<ProtocolState, Boolean>());
+
+    public AdmissionController(
+            int highWatermark, int lowWatermark, int protocolHighWatermark, int protocolLowWatermark) {
+        this.highWatermark = highWatermark;
+        this.lowWatermark = lowWatermark;
+        this.protocolHighWatermark = protocolHighWatermark;
+        this.protocolLowWatermark = protocolLowWatermark;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public Map<String, ProtocolState> getStates() {
+        return Collections.unmodifiableMap(states);
+    }
+
+    private ProtocolState getState(String protocol) {
+        ProtocolState state = states.get(protocol);
+        if (state == null) {
+            state = new ProtocolState(protocol);
+            ProtocolState existing = states.putIfAbsent(protocol, state);
+            if (existing != null) {
+                state = existing;
+            }
+        }
+        return state;
+    }
+
+    private boolean isAboveHigh(int global, ProtocolState state) {
+        return highWatermark > 0 && global >= highWatermark
+                || protocolHighWatermark > 0 && state.inFlight.get() >= protocolHighWatermark;
+    }
+
+    private boolean isBelowLow(int global, ProtocolState state) {
+        return (highWatermark <= 0 || global <= lowWatermark)
+                && (protocolHighWatermark <= 0 || state.inFlight.get() <= protocolLowWatermark);
+    }
+
+    /**
+     * Returns null if message has to be dropped. Otherwise returned permit must be released after processing.
+     */
+    public Permit acquire(Channel channel, String protocol) {
+        ProtocolState state = getState(protocol);
+        if (!state.throttled && isAboveHigh(inFlight.get(), state)) {
+            state.throttled = true;
+            throttledStates.add(state);
+            state.throttleCount.incrementAndGet();
+            if (Context.getStatisticsManager() != null) {
+                Context.getStatisticsManager().registerThrottled(protocol);
+            }
+            Log.warning("Throttling " + protocol + " protocol, in-flight positions " + inFlight.get());
+        }
+        if (state.throttled) {
+            if (channel instanceof DatagramChannel) {
+                state.shedCount.incrementAndGet();
+                if (Context.getStatisticsManager() != null) {
+                    Context.getStatisticsManager().registerShed(protocol);
+                }
+                return null;
+            }
+            channel.setReadable(false);
+            state.pausedChannels.add(channel);
+            if (!state.throttled && state.pausedChannels.remove(channel)) {
+                channel.setReadable(true);
+            }
+        }
+        inFlight.incrementAndGet();
+        state.inFlight.incrementAndGet();
+        return new Permit(state);
+    }
+
+    /**
+     * Makes permit available to handlers called from the current thread through {@link #takePermit()}.
+     */
+    public static void setCurrentPermit(Permit permit) {
+        if (permit != null) {
+            CURRENT_PERMIT.set(permit);
+        } else {
+            CURRENT_PERMIT.remove();
+        }
+    }
+
+    /**
+     * Takes permit of the message processed by the current thread, if any. Caller becomes responsible for releasing
+     * it.
+     */
+    public static Permit takePermit() {
+        Permit permit = CURRENT_PERMIT.get();
+        CURRENT_PERMIT.remove();
+        return permit;
+    }
+
+    private void release(ProtocolState released) {
+        int global = inFlight.decrementAndGet();
+        released.inFlight.decrementAndGet();
+        if (!throttledStates.isEmpty()) {
+            for (ProtocolState state : throttledStates) {
+                if (isBelowLow(global, state) && throttledStates.remove(state)) {
+                    state.throttled = false;
+                    for (Channel channel : state.pausedChannels) {
+                        state.pausedChannels.remove(channel);
+                        if (channel.isOpen()) {
+                            channel.setReadable(true);
+                        }
+                    }
+                    Log.info("Resuming " + state.protocol + " protocol");
+                }
+            }
+        }
+    }
+
+}
@@ -125,7 +125,7 @@ public abstract class BasePipelineFactory implements ChannelPipelineFactory {
             coordinatesHandler = new CoordinatesHandler();
         }
 
-        if (Context.getGeocoder() != null) {
+        if (Context.getGeocoder() != null && Context.getAddressWriter() == null) {
             geocoderHandler = new GeocoderHandler(
                     Context.getGeocoder(),
                     Context.getConfig().getBoolean("geocoder.processInvalidPositions"));
@@ -188,6 +188,10 @@ public abstract class BasePipelineFactory implements ChannelPipelineFactory {
 
         addSpecificHandlers(pipeline);
 
+        if (Context.getProcessingHandler() != null) {
+            pipeline.addLast("processing", Context.getProcessingHandler());
+        }
+
         if (hemisphereHandler != null) {
             pipeline.addLast("hemisphere", hemisphereHandler);
         }
@@ -217,10 +221,18 @@ public abstract class BasePipelineFactory implements ChannelPipelineFactory {
             pipeline.addLast("copyAttributes", copyAttributesHandler);
         }
 
-        if (Context.getDataManager() != null) {
+        if (Context.getPositionWriter() != null) {
+            pipeline.addLast("dataHandler", new WriteBehindDataHandler(Context.getPositionWriter()));
+        } else if (Context.getDataManager() != null) {
             pipeline.addLast("dataHandler", new DefaultDataHandler());
         }
 
+        if (Context.getAddressWriter() != null) {
+            pipeline.addLast("deferredGeocoder", new DeferredGeocoderHandler(
+                    Context.getGeocoder(), Context.getAddressWriter(),
+                    Context.getConfig().getBoolean("geocoder.processInvalidPositions")));
+        }
+
         if (Context.getConfig().getBoolean("forward.enable")) {
             pipeline.addLast("webHandler", new WebDataHandler(Context.getConfig().getString("forward.url")));
         }
@@ -19,6 +19,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.ning.http.client.AsyncHttpClient;
 
+import java.io.IOException;
 import java.net.InetAddress;
 import java.util.Properties;
 
@@ -26,21 +27,30 @@ import org.apache.velocity.app.VelocityEngine;
 import org.eclipse.jetty.util.URIUtil;
 import org.traccar.database.AliasesManager;
 import org.traccar.database.CalendarManager;
+import org.traccar.database.AddressWriter;
+import org.traccar.database.ChangeSynchronizer;
 import org.traccar.database.ConnectionManager;
 import org.traccar.database.DataManager;
 import org.traccar.database.DeviceManager;
 import org.traccar.database.IdentityManager;
 import org.traccar.database.NotificationManager;
 import org.traccar.database.PermissionsManager;
+import org.traccar.database.PositionSpool;
+import org.traccar.database.PositionWriter;
 import org.traccar.database.GeofenceManager;
 import org.traccar.database.StatisticsManager;
+import org.traccar.geocoder.AddressCache;
 import org.traccar.geocoder.BingMapsGeocoder;
+import org.traccar.geocoder.DiskCacheGeocoder;
 import org.traccar.geocoder.FactualGeocoder;
 import org.traccar.geocoder.GeocodeFarmGeocoder;
+import org.traccar.geocoder.GeocoderLimiter;
 import org.traccar.geocoder.GisgraphyGeocoder;
 import org.traccar.geocoder.GoogleGeocoder;
+import org.traccar.geocoder.JsonGeocoder;
 import org.traccar.geocoder.MapQuestGeocoder;
 import org.traccar.geocoder.NominatimGeocoder;
+import org.traccar.geocoder.OfflineGeocoder;
 import org.traccar.geocoder.OpenCageGeocoder;
 import org.traccar.geocoder.Geocoder;
 import org.traccar.helper.Log;
@@ -86,6 +96,30 @@ public final class Context {
         return dataManager;
     }
 
+    private static PositionWriter positionWriter;
+
+    public static PositionWriter getPositionWriter() {
+        return positionWriter;
+    }
+
+    private static AddressWriter addressWriter;
+
+    public static AddressWriter getAddressWriter() {
+        return addressWriter;
+    }
+
+    private static ProcessingHandler processingHandler;
+
+    public static ProcessingHandler getProcessingHandler() {
+        return processingHandler;
+    }
+
+    private static PositionSpool positionSpool;
+
+    public static PositionSpool getPositionSpool() {
+        return positionSpool;
+    }
+
     private static DeviceManager deviceManager;
 
     public static DeviceManager getDeviceManager() {
@@ -106,6 +140,12 @@ public final class Context {
 
     private static Geocoder geocoder;
 
+    private static AddressCache addressCache;
+
+    public static AddressCache getAddressCache() {
+        return addressCache;
+    }
+
     public static Geocoder getGeocoder() {
         return geocoder;
     }
@@ -170,12 +210,116 @@ public final class Context {
         return aliasesManager;
     }
 
+    private static ChangeSynchronizer changeSynchronizer;
+
+    public static ChangeSynchronizer getChangeSynchronizer() {
+        return changeSynchronizer;
+    }
+
     private static StatisticsManager statisticsManager;
 
     public static StatisticsManager getStatisticsManager() {
         return statisticsManager;
     }
 
+    private static ProcessingHandler createProcessingHandler() {
+        AdmissionController admissionController = null;
+        if (config.hasKey("admission.highWatermark") || config.hasKey("admission.protocolHighWatermark")) {
+            int highWatermark = config.getInteger("admission.highWatermark");
+            int protocolHighWatermark = config.getInteger("admission.protocolHighWatermark");
+            admissionController = new AdmissionController(
+                    highWatermark, config.getInteger("admission.lowWatermark", highWatermark / 2),
+                    protocolHighWatermark,
+                    config.getInteger("admission.protocolLowWatermark", protocolHighWatermark / 2));
+        }
+        return new ProcessingHandler(config.getInteger("processing.threads"),
+                config.getInteger("processing.queueSize", ProcessingHandler.DEFAULT_QUEUE_SIZE),
+                admissionController);
+    }
+
+    private static Geocoder createGeocoder() throws IOException {
+        String type = config.getString("geocoder.type", "google");
+        String url = config.getString("geocoder.url");
+        String key = config.getString("geocoder.key");
+
+        int cacheSize = config.getInteger("geocoder.cacheSize");
+        String cachePath = config.getString("geocoder.cachePath");
+        AddressCache cache = null;
+        if (cachePath != null) {
+            cache = new AddressCache(cacheSize,
+                    config.getLong("geocoder.cacheTimeout", AddressCache.DEFAULT_TIMEOUT) * 1000,
+                    config.getInteger("geocoder.cachePrecision", AddressCache.DEFAULT_PRECISION));
+            cacheSize = 0;
+        }
+
+        Geocoder geocoder;
+        switch (type) {
+            case "nominatim":
+                if (key != null) {
+                    geocoder = new NominatimGeocoder(url, key, cacheSize);
+                } else {
+                    geocoder = new NominatimGeocoder(url, cacheSize);
+                }
+                break;
+            case "gisgraphy":
+                geocoder = new GisgraphyGeocoder(url, cacheSize);
+                break;
+            case "mapquest":
+                geocoder = new MapQuestGeocoder(url, key, cacheSize);
+                break;
+            case "opencage":
+                geocoder = new OpenCageGeocoder(url, key, cacheSize);
+                break;
+            case "bingmaps":
+                geocoder = new BingMapsGeocoder(url, key, cacheSize);
+                break;
+            case "factual":
+                geocoder = new FactualGeocoder(url, key, cacheSize);
+                break;
+            case "offline":
+                if (!config.hasKey("geocoder.file")) {
+                    throw new RuntimeException("Offline geocoder requires geocoder.file to be set");
+                }
+                geocoder = new OfflineGeocoder(config.getString("geocoder.file"));
+                break;
+            case "geocodefarm":
+                if (key != null) {
+                    geocoder = new GeocodeFarmGeocoder(key, cacheSize);
+                } else {
+                    geocoder = new GeocodeFarmGeocoder(cacheSize);
+                }
+            default:
+                if (key != null) {
+                    geocoder = new GoogleGeocoder(key, cacheSize);
+                } else {
+                    geocoder = new GoogleGeocoder(cacheSize);
+                }
+                break;
+        }
+
+        if (geocoder instanceof JsonGeocoder) {
+            double rateLimit = config.getDouble("geocoder.rateLimit");
+            ((JsonGeocoder) geocoder).setLimiter(new GeocoderLimiter(
+                    config.getInteger("geocoder.coalescePrecision",
+                            config.getInteger("geocoder.cachePrecision", AddressCache.DEFAULT_PRECISION)),
+                    rateLimit, config.getDouble("geocoder.rateBurst", rateLimit),
+                    config.getInteger("geocoder.queueSize", GeocoderLimiter.DEFAULT_QUEUE_SIZE),
+                    config.getLong("geocoder.queueTimeout", GeocoderLimiter.DEFAULT_QUEUE_TIMEOUT) * 1000));
+        }
+
+        if (cache != null) {
+            addressCache = cache;
+        } else if (geocoder instanceof JsonGeocoder) {
+            addressCache = ((JsonGeocoder) geocoder).getCache();
+        }
+
+        if (cachePath != null) {
+            geocoder = new DiskCacheGeocoder(geocoder, cache, cachePath,
+                    config.getInteger("geocoder.cachePathSize", DiskCacheGeocoder.DEFAULT_SIZE));
+        }
+        return geocoder;
+    }
+
     public static void init(String[] arguments) throws Exception {
 
         config = new Config();
@@ -200,52 +344,26 @@ public final class Context {
 
         if (dataManager != null) {
             deviceManager = new DeviceManager(dataManager);
+            if (config.getBoolean("database.writeBehind")) {
+                positionWriter = new PositionWriter(dataManager);
+            }
+            if (config.hasKey("database.spool.directory")) {
+                positionSpool = new PositionSpool(dataManager);
+            }
         }
 
         identityManager = deviceManager;
 
-        if (config.getBoolean("geocoder.enable")) {
-            String type = config.getString("geocoder.type", "google");
-            String url = config.getString("geocoder.url");
-            String key = config.getString("geocoder.key");
+        if (config.getInteger("processing.threads") > 0) {
+            processingHandler = createProcessingHandler();
+        } else if (config.hasKey("admission.highWatermark") || config.hasKey("admission.protocolHighWatermark")) {
+            Log.warning("Admission control requires processing.threads, admission settings are ignored");
+        }
 
-            int cacheSize = config.getInteger("geocoder.cacheSize");
-            switch (type) {
-                case "nominatim":
-                    if (key != null) {
-                        geocoder = new NominatimGeocoder(url, key, cacheSize);
-                    } else {
-                        geocoder = new NominatimGeocoder(url, cacheSize);
-                    }
-                    break;
-                case "gisgraphy":
-                    geocoder = new GisgraphyGeocoder(url, cacheSize);
-                    break;
-                case "mapquest":
-                    geocoder = new MapQuestGeocoder(url, key, cacheSize);
-                    break;
-                case "opencage":
-                    geocoder = new OpenCageGeocoder(url, key, cacheSize);
-                    break;
-                case "bingmaps":
-                    geocoder = new BingMapsGeocoder(url, key, cacheSize);
-                    break;
-                case "factual":
-                    geocoder = new FactualGeocoder(url, key, cacheSize);
-                    break;
-                case "geocodefarm":
-                    if (key != null) {
-                        geocoder = new GeocodeFarmGeocoder(key, cacheSize);
-                    } else {
-                        geocoder = new GeocodeFarmGeocoder(cacheSize);
-                    }
-                default:
-                    if (key != null) {
-                        geocoder = new GoogleGeocoder(key, cacheSize);
-                    } else {
-                        geocoder = new GoogleGeocoder(cacheSize);
-                    }
-                    break;
+        if (config.getBoolean("geocoder.enable")) {
+            geocoder = createGeocoder();
+            if (dataManager != null && config.getBoolean("geocoder.deferred")) {
+                addressWriter = new AddressWriter(dataManager);
             }
         }
 
@@ -309,6 +427,10 @@ public final class Context {
 
         aliasesManager = new AliasesManager(dataManager);
 
+        if (dataManager != null && dataManager.getSyncChanges()) {
+            changeSynchronizer = new ChangeSynchronizer(dataManager);
+        }
+
         statisticsManager = new StatisticsManager();
 
     }
@@ -15,6 +15,7 @@
  */
 package org.traccar;
 
+import org.traccar.database.PositionSpool;
 import org.traccar.helper.Log;
 import org.traccar.model.Position;
 
@@ -27,6 +28,9 @@ public class DefaultDataHandler extends BaseDataHandler {
             Context.getDataManager().addPosition(position);
         } catch (Exception error) {
             Log.warning(error);
+            if (Context.getPositionSpool() != null && PositionSpool.isTransient(error)) {
+                Context.getPositionSpool().addPosition(position);
+            }
         }
 
         return position;
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar;
+
+import org.traccar.database.AddressWriter;
+import org.traccar.geocoder.AddressFormat;
+import org.traccar.geocoder.Geocoder;
+import org.traccar.helper.Log;
+import org.traccar.model.Position;
+
+/**
+ * Geocodes positions after they are stored, without holding them in the pipeline. Position passed downstream is not
+ * modified. Resolved addresses are written back to the database in batches, and if the position is still the latest
+ * one, its cached copy is replaced with an updated one and sent to connected clients.
+ */
+public class DeferredGeocoderHandler extends BaseDataHandler {
+
+    private final Geocoder geocoder;
+    private final AddressWriter addressWriter;
+    private final boolean processInvalidPositions;
+    private final AddressFormat addressFormat;
+
+    public DeferredGeocoderHandler(Geocoder geocoder, AddressWriter addressWriter, boolean processInvalidPositions) {
+        this.geocoder = geocoder;
+        this.addressWriter = addressWriter;
+        this.processInvalidPositions = processInvalidPositions;
+
+        String formatString = Context.getConfig().getString("geocoder.format");
+        if (formatString != null) {
+            addressFormat = new AddressFormat(formatString);
+        } else {
+            addressFormat = new AddressFormat();
+        }
+    }
+
+    @Override
+    protected Position handlePosition(final Position position) {
+        if (position.getAddress() == null && (processInvalidPositions || position.getValid())) {
+            geocoder.getAddress(addressFormat, position.getLatitude(), position.getLongitude(),
+                    new Geocoder.ReverseGeocoderCallback() {
+                @Override
+                public void onSuccess(String address) {
+                    if (position.getId() != 0
+                            && !addressWriter.addAddress(position.getId(), position.getFixTime(), address)) {
+                        Log.warning("Address writer queue is full");
+                    }
+                    if (Context.getDeviceManager() != null) {
+                        Position lastPosition = Context.getDeviceManager().updateLatestAddress(position, address);
+                        if (lastPosition != null && Context.getConnectionManager() != null) {
+                            Context.getConnectionManager().updatePosition(lastPosition);
+                        }
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    Log.debug("Geocoding failed - " + Log.exceptionStack(e));
+                }
+            });
+        }
+        return position;
+    }
+
+}
@@ -44,7 +44,9 @@ public final class Main {
             @Override
             public void run() {
                 try {
+                    Context.getDataManager().createPositionsPartitions();
                     Context.getDataManager().clearPositionsHistory();
+                    Context.getDataManager().clearChangesHistory();
                 } catch (SQLException error) {
                     Log.warning(error);
                 }
@@ -60,6 +62,21 @@ public final class Main {
                     Context.getWebServer().stop();
                 }
                 Context.getServerManager().stop();
+                if (Context.getProcessingHandler() != null) {
+                    Context.getProcessingHandler().stop();
+                }
+                if (Context.getPositionWriter() != null) {
+                    Context.getPositionWriter().stop();
+                }
+                if (Context.getAddressWriter() != null) {
+                    Context.getAddressWriter().stop();
+                }
+                if (Context.getPositionSpool() != null) {
+                    Context.getPositionSpool().stop();
+                }
+                if (Context.getDeviceManager() != null) {
+                    Context.getDeviceManager().flushUpdates();
+                }
             }
         });
     }
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2017 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar;
+
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.channel.MessageEvent;
+import org.traccar.helper.Log;
+import org.traccar.model.Position;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Moves processing of decoded messages off I/O worker threads. Messages of the same device always use the same lane,
+ * so their order is preserved. Channel state events, like disconnect, are passed on only after all messages of the
+ * channel queued before them are processed, including messages that a handler took over with {@link #handOff()} to
+ * finish later. When a lane queue is full, the I/O thread waits for free space. Optional admission controller pauses
+ * reading or sheds datagrams while too many positions are in flight.
+ */
+public class ProcessingHandler implements ChannelUpstreamHandler {
+
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+    public static final long SHUTDOWN_TIMEOUT = 10;
+
+    private static final class ChannelLanes {
+
+        private final AtomicInteger pending = new AtomicInteger();
+        private final Set<ThreadPoolExecutor> lanes = new HashSet<>();
+        private int handoffs;
+        private final List<Runnable> waitingEvents = new ArrayList<>();
+
+    }
+
+    public static final class Handoff {
+
+        private final ChannelLanes channelLanes;
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        private Handoff(ChannelLanes channelLanes) {
+            this.channelLanes = channelLanes;
+        }
+
+        /**
+         * Marks message as processed and passes on state events of the channel that were waiting for it.
+         */
+        public void complete() {
+            if (completed.compareAndSet(false, true)) {
+                List<Runnable> events = null;
+                synchronized (channelLanes) {
+                    channelLanes.handoffs -= 1;
+                    if (channelLanes.handoffs == 0 && !channelLanes.waitingEvents.isEmpty()) {
+                        events = new ArrayList<>(channelLanes.waitingEvents);
+                        channelLanes.waitingEvents.clear();
+                    }
+                }
+                if (events != null) {
+                    for (Runnable event : events) {
+                        event.run();
+                    }
+                }
+            }
+        }
+
+    }
+
+    private static final ThreadLocal<ChannelLanes> CURRENT_LANES = new ThreadLocal<>();
+
+    private final ThreadPoolExecutor[] lanes;
+    private final AdmissionController admissionController;
+
+    public ProcessingHandler(int threads, int queueSize, AdmissionController admissionController) {
+        this.admissionController = admissionController;
+        lanes = new ThreadPoolExecutor[threads];
+        for (int i = 0; i < threads; i++) {
+            final String name = "processing-" + i;
+            lanes[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, name);
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    }, new RejectedExecutionHandler() {
+                        @Override
+                        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                            if (!executor.isShutdown()) {
+                                try {
+                                    executor.getQueue().put(runnable);
+                                } catch (InterruptedException error) {
+                                    Thread.currentThread().interrupt();
+                                }
+                            }
+                        }
+                    });
+        }
+    }
+
+    public int getQueueDepth() {
+        int depth = 0;
+        for (ThreadPoolExecutor lane : lanes) {
+            depth += lane.getQueue().size();
+        }
+        return depth;
+    }
+
+    private ThreadPoolExecutor getLane(MessageEvent event) {
+        long key;
+        if (event.getMessage() instanceof Position) {
+            key = ((Position) event.getMessage()).getDeviceId();
+        } else {
+            key = event.getChannel().getId();
+        }
+        return lanes[(int) ((key & Long.MAX_VALUE) % lanes.length)];
+    }
+
+    private static ChannelLanes getChannelLanes(ChannelHandlerContext ctx) {
+        synchronized (ctx) {
+            ChannelLanes channelLanes = (ChannelLanes) ctx.getAttachment();
+            if (channelLanes == null) {
+                channelLanes = new ChannelLanes();
+                ctx.setAttachment(channelLanes);
+            }
+            return channelLanes;
+        }
+    }
+
+    private static void execute(ThreadPoolExecutor lane, final ChannelLanes channelLanes, final Runnable task) {
+        synchronized (channelLanes) {
+            channelLanes.lanes.add(lane);
+            channelLanes.pending.incrementAndGet();
+        }
+        lane.execute(new Runnable() {
+            @Override
+            public void run() {
+                CURRENT_LANES.set(channelLanes);
+                try {
+                    task.run();
+                } finally {
+                    CURRENT_LANES.remove();
+                    channelLanes.pending.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * Takes over completion of the message processed by the current thread, for example when it is passed on after
+     * write-behind storage. State events of the channel wait until returned handoff is completed. Returns null outside
+     * of processing lanes.
+     */
+    public static Handoff handOff() {
+        ChannelLanes channelLanes = CURRENT_LANES.get();
+        if (channelLanes == null) {
+            return null;
+        }
+        synchronized (channelLanes) {
+            channelLanes.handoffs += 1;
+        }
+        return new Handoff(channelLanes);
+    }
+
+    private static Runnable createStateTask(final ChannelHandlerContext ctx, final ChannelEvent evt) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ctx.sendUpstream(evt);
+                } catch (RuntimeException error) {
+                    Log.warning(error);
+                }
+            }
+        };
+    }
+
+    private static void sendAfterHandoffs(ChannelLanes channelLanes, Runnable stateTask) {
+        synchronized (channelLanes) {
+            if (channelLanes.handoffs > 0) {
+                channelLanes.waitingEvents.add(stateTask);
+                return;
+            }
+        }
+        stateTask.run();
+    }
+
+    /**
+     * Passes state event on directly if the channel has nothing queued or handed off, otherwise after the last of the
+     * lanes used by the channel reaches it and all handed off messages are completed.
+     */
+    private void handleStateEvent(final ChannelHandlerContext ctx, final ChannelEvent evt) {
+        final ChannelLanes channelLanes = getChannelLanes(ctx);
+        final Runnable stateTask = createStateTask(ctx, evt);
+        List<ThreadPoolExecutor> usedLanes;
+        synchronized (channelLanes) {
+            if (channelLanes.pending.get() == 0) {
+                channelLanes.lanes.clear();
+                if (channelLanes.handoffs > 0) {
+                    channelLanes.waitingEvents.add(stateTask);
+                    return;
+                }
+                usedLanes = null;
+            } else {
+                usedLanes = new ArrayList<>(channelLanes.lanes);
+            }
+        }
+        if (usedLanes == null) {
+            ctx.sendUpstream(evt);
+            return;
+        }
+
+        final AtomicInteger remaining = new AtomicInteger(usedLanes.size());
+        for (ThreadPoolExecutor lane : usedLanes) {
+            execute(lane, channelLanes, new Runnable() {
+                @Override
+                public void run() {
+                    if (remaining.decrementAndGet() == 0) {
+                        sendAfterHandoffs(channelLanes, stateTask);
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    public void handleUpstream(final ChannelHandlerContext ctx, final ChannelEvent evt) throws Exception {
+        if (!(evt instanceof MessageEvent)) {
+            handleStateEvent(ctx, evt);
+            return;
+        }
+
+        final MessageEvent event = (MessageEvent) evt;
+        final AdmissionController.Permit permit;
+        if (admissionController != null && event.getMessage() instanceof Position
+                && ((Position) event.getMessage()).getProtocol() != null) {
+            permit = admissionController.acquire(event.getChannel(), ((Position) event.getMessage()).getProtocol());
+            if (permit == null) {
+                return;
+            }
+        } else {
+            permit = null;
+        }
+
+        execute(getLane(event), getChannelLanes(ctx), new Runnable() {
+            @Override
+            public void run() {
+                AdmissionController.setCurrentPermit(permit);
+                try {
+                    ctx.sendUpstream(evt);
+                } catch (RuntimeException error) {
+                    Log.warning(error);
+                } finally {
+                    AdmissionController.Permit remaining = AdmissionController.takePermit();
+                    if (remaining != null) {
+                        remaining.release();
+                    }
+                }
+            }
+        });
+    }
+
+    public void stop() {
+        for (ThreadPoolExecutor lane : lanes) {
+            lane.shutdown();
+        }
+        try {
+            for (ThreadPoolExecutor lane : lanes) {
+                lane.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException error) {
+            Log.warning(error);
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar;
+
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelUpstreamHandler;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
+import org.traccar.database.PositionSpool;
+import org.traccar.database.PositionWriter;
+import org.traccar.helper.Log;
+import org.traccar.model.Position;
+
+public class WriteBehindDataHandler implements ChannelUpstreamHandler {
+
+    private final PositionWriter positionWriter;
+
+    public WriteBehindDataHandler(PositionWriter positionWriter) {
+        this.positionWriter = positionWriter;
+    }
+
+    @Override
+    public void handleUpstream(final ChannelHandlerContext ctx, ChannelEvent evt) throws Exception {
+        if (!(evt instanceof MessageEvent)) {
+            ctx.sendUpstream(evt);
+            return;
+        }
+
+        final MessageEvent event = (MessageEvent) evt;
+        Object message = event.getMessage();
+        if (message instanceof Position) {
+            Position position = (Position) message;
+            final AdmissionController.Permit permit = AdmissionController.takePermit();
+            final ProcessingHandler.Handoff handoff = ProcessingHandler.handOff();
+            boolean queued = positionWriter.addPosition(position, new PositionWriter.PositionWriterCallback() {
+                @Override
+                public void onSuccess(Position position) {
+                    if (permit != null) {
+                        permit.release();
+                    }
+                    try {
+                        Channels.fireMessageReceived(ctx, position, event.getRemoteAddress());
+                    } finally {
+                        if (handoff != null) {
+                            handoff.complete();
+                        }
+                    }
+                }
+
+                @Override
+                public void onFailure(Position position, Throwable e) {
+                    if (permit != null) {
+                        permit.release();
+                    }
+                    Log.warning(e);
+                    if (Context.getPositionSpool() != null && PositionSpool.isTransient(e)) {
+                        Context.getPositionSpool().addPosition(position);
+                    }
+                    try {
+                        Channels.fireMessageReceived(ctx, position, event.getRemoteAddress());
+                    } finally {
+                        if (handoff != null) {
+                            handoff.complete();
+                        }
+                    }
+                }
+            });
+            if (!queued) {
+                // writer is full, store directly instead of blocking the pipeline thread
+                try {
+                    Context.getDataManager().addPosition(position);
+                } catch (Exception error) {
+                    Log.warning(error);
+                    if (Context.getPositionSpool() != null && PositionSpool.isTransient(error)) {
+                        Context.getPositionSpool().addPosition(position);
+                    }
+                }
+                if (permit != null) {
+                    permit.release();
+                }
+                try {
+                    Channels.fireMessageReceived(ctx, position, event.getRemoteAddress());
+                } finally {
+                    if (handoff != null) {
+                        handoff.complete();
+                    }
+                }
+            }
+        } else {
+            Channels.fireMessageReceived(ctx, message, event.getRemoteAddress());
+        }
+    }
+
+}
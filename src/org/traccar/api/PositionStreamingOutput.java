@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.api;
+
+import org.traccar.Context;
+import org.traccar.database.QueryBuilder;
+import org.traccar.model.Position;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Date;
+
+public abstract class PositionStreamingOutput implements StreamingOutput {
+
+    private final Collection<Long> deviceIds;
+    private final Date from;
+    private final Date to;
+
+    public PositionStreamingOutput(Collection<Long> deviceIds, Date from, Date to) {
+        this.deviceIds = deviceIds;
+        this.from = from;
+        this.to = to;
+    }
+
+    protected abstract void writeHeader(Writer writer) throws IOException;
+
+    protected abstract void writePosition(Writer writer, Position position) throws IOException;
+
+    protected abstract void writeFooter(Writer writer) throws IOException;
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        writeHeader(writer);
+        for (long deviceId : deviceIds) {
+            try {
+                Context.getDataManager().getPositions(deviceId, from, to, new QueryBuilder.ResultHandler<Position>() {
+                    @Override
+                    public void handleResult(Position position) throws SQLException {
+                        try {
+                            writePosition(writer, position);
+                        } catch (IOException error) {
+                            throw new SQLException(error);
+                        }
+                    }
+                });
+            } catch (SQLException error) {
+                if (error.getCause() instanceof IOException) {
+                    throw (IOException) error.getCause();
+                }
+                throw new WebApplicationException(error);
+            }
+        }
+        writeFooter(writer);
+        writer.flush();
+    }
+
+}
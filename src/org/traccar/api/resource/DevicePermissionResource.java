@@ -39,7 +39,7 @@ public class DevicePermissionResource extends BaseResource {
         Context.getPermissionsManager().checkUser(getUserId(), entity.getUserId());
         Context.getPermissionsManager().checkDevice(getUserId(), entity.getDeviceId());
         Context.getDataManager().linkDevice(entity.getUserId(), entity.getDeviceId());
-        Context.getPermissionsManager().refreshPermissions();
+        Context.getPermissionsManager().refreshPermissions(entity.getUserId());
         if (Context.getGeofenceManager() != null) {
             Context.getGeofenceManager().refresh();
         }
@@ -56,7 +56,7 @@ public class DevicePermissionResource extends BaseResource {
         }
         Context.getPermissionsManager().checkDevice(getUserId(), entity.getDeviceId());
         Context.getDataManager().unlinkDevice(entity.getUserId(), entity.getDeviceId());
-        Context.getPermissionsManager().refreshPermissions();
+        Context.getPermissionsManager().refreshPermissions(entity.getUserId());
         if (Context.getGeofenceManager() != null) {
             Context.getGeofenceManager().refresh();
         }
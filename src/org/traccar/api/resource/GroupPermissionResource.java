@@ -39,7 +39,7 @@ public class GroupPermissionResource extends BaseResource {
         Context.getPermissionsManager().checkUser(getUserId(), entity.getUserId());
         Context.getPermissionsManager().checkGroup(getUserId(), entity.getGroupId());
         Context.getDataManager().linkGroup(entity.getUserId(), entity.getGroupId());
-        Context.getPermissionsManager().refreshPermissions();
+        Context.getPermissionsManager().refreshPermissions(entity.getUserId());
         if (Context.getGeofenceManager() != null) {
             Context.getGeofenceManager().refresh();
         }
@@ -52,7 +52,7 @@ public class GroupPermissionResource extends BaseResource {
         Context.getPermissionsManager().checkUser(getUserId(), entity.getUserId());
         Context.getPermissionsManager().checkGroup(getUserId(), entity.getGroupId());
         Context.getDataManager().unlinkGroup(entity.getUserId(), entity.getGroupId());
-        Context.getPermissionsManager().refreshPermissions();
+        Context.getPermissionsManager().refreshPermissions(entity.getUserId());
         if (Context.getGeofenceManager() != null) {
             Context.getGeofenceManager().refresh();
         }
@@ -17,6 +17,7 @@ package org.traccar.api.resource;
 
 import org.traccar.Context;
 import org.traccar.api.BaseResource;
+import org.traccar.api.PositionStreamingOutput;
 import org.traccar.helper.DateUtil;
 import org.traccar.model.Position;
 import org.traccar.web.CsvBuilder;
@@ -30,10 +31,14 @@ import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 @Path("positions")
@@ -74,11 +79,27 @@ public class PositionResource extends BaseResource {
             @QueryParam("deviceId") long deviceId, @QueryParam("from") String from, @QueryParam("to") String to)
             throws SQLException {
         Context.getPermissionsManager().checkDevice(getUserId(), deviceId);
-        CsvBuilder csv = new CsvBuilder();
+        final CsvBuilder csv = new CsvBuilder();
         csv.addHeaderLine(new Position());
-        csv.addArray(Context.getDataManager().getPositions(
-                deviceId, DateUtil.parseDate(from), DateUtil.parseDate(to)));
-        return Response.ok(csv.build()).header(HttpHeaders.CONTENT_DISPOSITION, CONTENT_DISPOSITION_VALUE_CSV).build();
+        StreamingOutput stream = new PositionStreamingOutput(
+                Collections.singletonList(deviceId), DateUtil.parseDate(from), DateUtil.parseDate(to)) {
+            @Override
+            protected void writeHeader(Writer writer) throws IOException {
+                csv.write(writer);
+            }
+
+            @Override
+            protected void writePosition(Writer writer, Position position) throws IOException {
+                csv.addLine(position);
+                csv.write(writer);
+            }
+
+            @Override
+            protected void writeFooter(Writer writer) throws IOException {
+                writer.write(csv.build());
+            }
+        };
+        return Response.ok(stream).header(HttpHeaders.CONTENT_DISPOSITION, CONTENT_DISPOSITION_VALUE_CSV).build();
     }
 
     @GET
@@ -87,10 +108,26 @@ public class PositionResource extends BaseResource {
             @QueryParam("deviceId") long deviceId, @QueryParam("from") String from, @QueryParam("to") String to)
             throws SQLException {
         Context.getPermissionsManager().checkDevice(getUserId(), deviceId);
-        GpxBuilder gpx = new GpxBuilder(Context.getIdentityManager().getDeviceById(deviceId).getName());
-        gpx.addPositions(Context.getDataManager().getPositions(
-                deviceId, DateUtil.parseDate(from), DateUtil.parseDate(to)));
-        return Response.ok(gpx.build()).header(HttpHeaders.CONTENT_DISPOSITION, CONTENT_DISPOSITION_VALUE_GPX).build();
+        final GpxBuilder gpx = new GpxBuilder(Context.getIdentityManager().getDeviceById(deviceId).getName());
+        StreamingOutput stream = new PositionStreamingOutput(
+                Collections.singletonList(deviceId), DateUtil.parseDate(from), DateUtil.parseDate(to)) {
+            @Override
+            protected void writeHeader(Writer writer) throws IOException {
+                gpx.write(writer);
+            }
+
+            @Override
+            protected void writePosition(Writer writer, Position position) throws IOException {
+                gpx.addPosition(position);
+                gpx.write(writer);
+            }
+
+            @Override
+            protected void writeFooter(Writer writer) throws IOException {
+                writer.write(gpx.build());
+            }
+        };
+        return Response.ok(stream).header(HttpHeaders.CONTENT_DISPOSITION, CONTENT_DISPOSITION_VALUE_GPX).build();
     }
 
 }
@@ -2,6 +2,7 @@ package org.traccar.api.resource;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.Writer;
 import java.sql.SQLException;
 import java.util.Collection;
 import java.util.List;
@@ -14,8 +15,11 @@ import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
+import org.traccar.Context;
 import org.traccar.api.BaseResource;
+import org.traccar.api.PositionStreamingOutput;
 import org.traccar.helper.DateUtil;
 import org.traccar.model.Event;
 import org.traccar.model.Position;
@@ -36,11 +40,34 @@ public class ReportResource extends BaseResource {
 
     @Path("route")
     @GET
-    public Collection<Position> getRoute(
+    public Response getRoute(
             @QueryParam("deviceId") final List<Long> deviceIds, @QueryParam("groupId") final List<Long> groupIds,
             @QueryParam("from") String from, @QueryParam("to") String to) throws SQLException {
-        return Route.getObjects(getUserId(), deviceIds, groupIds,
-                DateUtil.parseDate(from), DateUtil.parseDate(to));
+        StreamingOutput stream = new PositionStreamingOutput(
+                Route.getDevices(getUserId(), deviceIds, groupIds),
+                DateUtil.parseDate(from), DateUtil.parseDate(to)) {
+            private boolean first = true;
+
+            @Override
+            protected void writeHeader(Writer writer) throws IOException {
+                writer.write('[');
+            }
+
+            @Override
+            protected void writePosition(Writer writer, Position position) throws IOException {
+                if (!first) {
+                    writer.write(',');
+                }
+                first = false;
+                writer.write(Context.getObjectMapper().writeValueAsString(position));
+            }
+
+            @Override
+            protected void writeFooter(Writer writer) throws IOException {
+                writer.write(']');
+            }
+        };
+        return Response.ok(stream).build();
     }
 
     @Path("route")
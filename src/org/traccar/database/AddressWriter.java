@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.database;
+
+import org.traccar.Context;
+import org.traccar.helper.Log;
+import org.traccar.model.Position;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes addresses resolved after positions were stored back to the positions table in batches. Only position id and
+ * address are queued, so positions already handed to other handlers are never modified. Fix time is kept as well to
+ * locate the row in a partitioned table.
+ */
+public class AddressWriter implements Runnable {
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+    public static final int DEFAULT_QUEUE_SIZE = 10000;
+
+    private final DataManager dataManager;
+    private final int batchSize;
+    private final long flushInterval;
+    private final BlockingQueue<Position> queue;
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    public AddressWriter(DataManager dataManager) {
+        this(dataManager,
+                Context.getConfig().getInteger("geocoder.deferred.batchSize", DEFAULT_BATCH_SIZE),
+                Context.getConfig().getLong("geocoder.deferred.flushInterval", DEFAULT_FLUSH_INTERVAL),
+                Context.getConfig().getInteger("geocoder.deferred.queueSize", DEFAULT_QUEUE_SIZE));
+    }
+
+    public AddressWriter(DataManager dataManager, int batchSize, long flushInterval, int queueSize) {
+        this.dataManager = dataManager;
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        queue = new ArrayBlockingQueue<>(queueSize);
+
+        thread = new Thread(this, "address-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public boolean addAddress(long positionId, Date fixTime, String address) {
+        if (positionId == 0) {
+            return false;
+        }
+        Position position = new Position();
+        position.setId(positionId);
+        position.setFixTime(fixTime);
+        position.setAddress(address);
+        return running && queue.offer(position);
+    }
+
+    public void stop() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException error) {
+            Log.warning(error);
+        }
+    }
+
+    @Override
+    public void run() {
+        List<Position> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.currentTimeMillis() + flushInterval;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long delay = deadline - System.currentTimeMillis();
+                    if (batch.size() >= batchSize || delay <= 0) {
+                        break;
+                    }
+                    Position position = queue.poll(delay, TimeUnit.MILLISECONDS);
+                    if (position == null) {
+                        break;
+                    }
+                    batch.add(position);
+                }
+            } catch (InterruptedException error) {
+                Log.debug("Address writer interrupted");
+            }
+            flush(batch);
+        }
+        while (queue.drainTo(batch, batchSize) > 0) {
+            flush(batch);
+        }
+    }
+
+    protected void writeAddresses(List<Position> batch) throws SQLException {
+        dataManager.updatePositionAddresses(batch);
+    }
+
+    private void flush(List<Position> batch) {
+        if (!batch.isEmpty()) {
+            try {
+                writeAddresses(batch);
+            } catch (SQLException | RuntimeException error) {
+                Log.warning(error);
+            }
+            batch.clear();
+        }
+    }
+
+}
@@ -18,6 +18,7 @@ package org.traccar.database;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Map;
@@ -44,10 +45,18 @@ public class CalendarManager {
     public final void refreshCalendars() {
         if (dataManager != null) {
             try {
-                calendars.clear();
+                Set<Long> databaseCalendarIds = new HashSet<>();
                 for (Calendar calendar : dataManager.getCalendars()) {
-                    calendars.put(calendar.getId(), calendar);
+                    databaseCalendarIds.add(calendar.getId());
+                    Calendar cachedCalendar = calendars.get(calendar.getId());
+                    if (cachedCalendar != null && Arrays.equals(cachedCalendar.getData(), calendar.getData())) {
+                        cachedCalendar.setName(calendar.getName());
+                        cachedCalendar.setAttributes(calendar.getAttributes());
+                    } else {
+                        calendars.put(calendar.getId(), calendar);
+                    }
                 }
+                calendars.keySet().retainAll(databaseCalendarIds);
             } catch (SQLException error) {
                 Log.warning(error);
             }
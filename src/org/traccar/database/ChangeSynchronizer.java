@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.database;
+
+import org.traccar.Config;
+import org.traccar.Context;
+import org.traccar.helper.Log;
+import org.traccar.model.Change;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeSet;
+
+/**
+ * Applies rows changed since the last seen change id to device, group, user and permission caches. Full reload is
+ * still done every "database.fullRefreshDelay" seconds and when part of the change history is missing.
+ * <p>
+ * Change ids are allocated before the transaction commits, so with concurrent writers a lower id can become visible
+ * after a higher one was already read. Each poll therefore re-reads the last "database.changesOverlap" ids and skips
+ * the ones that were already applied.
+ */
+public class ChangeSynchronizer {
+
+    public static final int DEFAULT_CHANGES_OVERLAP = 100;
+
+    private final DataManager dataManager;
+    private final long fullRefreshDelay;
+    private final long historyPeriod;
+    private final long changesOverlap;
+    private final NavigableSet<Long> appliedChanges = new TreeSet<>();
+
+    private long lastChangeId;
+    private long lastFullRefresh;
+    private long lastSynchronization;
+
+    public ChangeSynchronizer(DataManager dataManager) throws SQLException {
+        this.dataManager = dataManager;
+        Config config = Context.getConfig();
+        long refreshDelay = config.getLong("database.refreshDelay", DeviceManager.DEFAULT_REFRESH_DELAY) * 1000;
+        fullRefreshDelay = config.getLong(
+                "database.fullRefreshDelay", DeviceManager.DEFAULT_FULL_REFRESH_DELAY) * 1000;
+        historyPeriod = config.getLong(
+                "database.changesHistoryHours", DataManager.DEFAULT_CHANGES_HISTORY) * 3600 * 1000;
+        changesOverlap = config.getInteger("database.changesOverlap", DEFAULT_CHANGES_OVERLAP);
+        lastChangeId = dataManager.getLastChangeId();
+        lastFullRefresh = System.currentTimeMillis();
+        lastSynchronization = lastFullRefresh;
+
+        new Timer("change-sync", true).schedule(new TimerTask() {
+            @Override
+            public void run() {
+                synchronize();
+            }
+        }, refreshDelay, refreshDelay);
+    }
+
+    public synchronized void synchronize() {
+        try {
+            long currentTime = System.currentTimeMillis();
+            Collection<Change> changes = dataManager.getChanges(Math.max(0, lastChangeId - changesOverlap));
+            boolean fullRefresh = currentTime - lastFullRefresh > fullRefreshDelay
+                    || currentTime - lastSynchronization > historyPeriod;
+
+            Set<Long> devices = new LinkedHashSet<>();
+            Set<Long> groups = new LinkedHashSet<>();
+            Set<Long> users = new LinkedHashSet<>();
+            boolean usersChanged = false;
+            for (Change change : changes) {
+                if (!appliedChanges.add(change.getId())) {
+                    continue;
+                }
+                lastChangeId = Math.max(lastChangeId, change.getId());
+                switch (change.getEntity()) {
+                    case Change.DEVICE:
+                        devices.add(change.getEntityId());
+                        break;
+                    case Change.GROUP:
+                        groups.add(change.getEntityId());
+                        break;
+                    case Change.USER:
+                        usersChanged = true;
+                        users.add(change.getEntityId());
+                        break;
+                    default:
+                        users.add(change.getEntityId());
+                        break;
+                }
+            }
+            appliedChanges.headSet(lastChangeId - changesOverlap, true).clear();
+
+            DeviceManager deviceManager = Context.getDeviceManager();
+            PermissionsManager permissionsManager = Context.getPermissionsManager();
+            boolean structureChanged = false;
+            if (fullRefresh) {
+                deviceManager.refresh();
+            } else {
+                for (long groupId : groups) {
+                    structureChanged |= deviceManager.refreshGroup(groupId);
+                }
+                for (long deviceId : devices) {
+                    structureChanged |= deviceManager.refreshDevice(deviceId);
+                }
+            }
+
+            if (usersChanged || fullRefresh) {
+                permissionsManager.refreshUsers();
+                permissionsManager.refreshUserPermissions();
+            }
+            if (structureChanged || fullRefresh) {
+                permissionsManager.refreshPermissions();
+            } else {
+                for (long userId : users) {
+                    permissionsManager.refreshPermissions(userId);
+                }
+            }
+
+            if ((structureChanged || fullRefresh || !users.isEmpty()) && Context.getGeofenceManager() != null) {
+                Context.getGeofenceManager().refresh();
+            }
+
+            if (fullRefresh) {
+                lastFullRefresh = currentTime;
+            }
+            lastSynchronization = currentTime;
+        } catch (SQLException | RuntimeException error) {
+            // changes may already be marked as applied, so reload everything next time
+            lastFullRefresh = 0;
+            Log.warning(error);
+        }
+    }
+
+}
@@ -22,6 +22,7 @@ import java.net.URLClassLoader;
 import java.sql.SQLException;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 
 import javax.naming.InitialContext;
 import javax.sql.DataSource;
@@ -39,6 +40,7 @@ import org.traccar.helper.Log;
 import org.traccar.model.AttributeAlias;
 import org.traccar.model.Calendar;
 import org.traccar.model.CalendarPermission;
+import org.traccar.model.Change;
 import org.traccar.model.Device;
 import org.traccar.model.DevicePermission;
 import org.traccar.model.Event;
@@ -60,12 +62,20 @@ import com.zaxxer.hikari.HikariDataSource;
 
 public class DataManager {
 
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+    public static final int DEFAULT_PARTITIONS_AHEAD = 7;
+
+    public static final int DEFAULT_CHANGES_HISTORY = 24;
+
     private final Config config;
+    private final boolean syncChanges;
 
     private DataSource dataSource;
+    private volatile boolean batchKeys = true;
 
     public DataManager(Config config) throws Exception {
         this.config = config;
+        syncChanges = config.getBoolean("database.syncChanges");
 
         initDatabase();
         initDatabaseSchema();
@@ -142,7 +152,16 @@ public class DataManager {
 
             liquibase.clearCheckSums();
 
-            liquibase.update(new Contexts());
+            Contexts contexts = new Contexts("default");
+            if (config.hasKey("database.positionsPartition")) {
+                liquibase.setChangeLogParameter(
+                        "positionsPartition", config.getString("database.positionsPartition"));
+                liquibase.setChangeLogParameter(
+                        "positionsPartitionsAhead", getPartitionsAhead());
+                contexts = new Contexts("default", "partitioning");
+            }
+
+            liquibase.update(contexts);
         }
     }
 
@@ -166,6 +185,7 @@ public class DataManager {
         user.setId(QueryBuilder.create(dataSource, getQuery("database.insertUser"), true)
                 .setObject(user)
                 .executeUpdate());
+        addChange(Change.USER, user.getId());
     }
 
     public void updateUser(User user) throws SQLException {
@@ -177,12 +197,14 @@ public class DataManager {
                 .setObject(user)
                 .executeUpdate();
         }
+        addChange(Change.USER, user.getId());
     }
 
     public void removeUser(long userId) throws SQLException {
         QueryBuilder.create(dataSource, getQuery("database.deleteUser"))
                 .setLong("id", userId)
                 .executeUpdate();
+        addChange(Change.USER, userId);
     }
 
     public Collection<DevicePermission> getDevicePermissions() throws SQLException {
@@ -190,26 +212,52 @@ public class DataManager {
                 .executeQuery(DevicePermission.class);
     }
 
+    public Collection<DevicePermission> getDevicePermissions(long userId) throws SQLException {
+        return QueryBuilder.create(dataSource, getQuery("database.selectUserDevicePermissions"))
+                .setLong("userId", userId)
+                .executeQuery(DevicePermission.class);
+    }
+
     public Collection<GroupPermission> getGroupPermissions() throws SQLException {
         return QueryBuilder.create(dataSource, getQuery("database.selectGroupPermissions"))
                 .executeQuery(GroupPermission.class);
     }
 
+    public Collection<GroupPermission> getGroupPermissions(long userId) throws SQLException {
+        return QueryBuilder.create(dataSource, getQuery("database.selectUserGroupPermissions"))
+                .setLong("userId", userId)
+                .executeQuery(GroupPermission.class);
+    }
+
     public Collection<Device> getAllDevices() throws SQLException {
         return QueryBuilder.create(dataSource, getQuery("database.selectDevicesAll"))
                 .executeQuery(Device.class);
     }
 
+    public Device getDevice(long deviceId) throws SQLException {
+        return QueryBuilder.create(dataSource, getQuery("database.selectDevice"))
+                .setLong("id", deviceId)
+                .executeQuerySingle(Device.class);
+    }
+
+    public Device getDeviceByUniqueId(String uniqueId) throws SQLException {
+        return QueryBuilder.create(dataSource, getQuery("database.selectDeviceByUniqueId"))
+                .setString("uniqueId", uniqueId)
+                .executeQuerySingle(Device.class);
+    }
+
     public void addDevice(Device device) throws SQLException {
         device.setId(QueryBuilder.create(dataSource, getQuery("database.insertDevice"), true)
                 .setObject(device)
                 .executeUpdate());
+        addChange(Change.DEVICE, device.getId());
     }
 
     public void updateDevice(Device device) throws SQLException {
         QueryBuilder.create(dataSource, getQuery("database.updateDevice"))
                 .setObject(device)
                 .executeUpdate();
+        addChange(Change.DEVICE, device.getId());
     }
 
     public void updateDeviceStatus(Device device) throws SQLException {
@@ -218,10 +266,19 @@ public class DataManager {
                 .executeUpdate();
     }
 
+    public void updateDevicesStatus(Collection<Device> devices) throws SQLException {
+        QueryBuilder queryBuilder = QueryBuilder.create(dataSource, getQuery("database.updateDeviceStatus"));
+        for (Device device : devices) {
+            queryBuilder.setObject(device).addBatch();
+        }
+        queryBuilder.executeBatch();
+    }
+
     public void removeDevice(long deviceId) throws SQLException {
         QueryBuilder.create(dataSource, getQuery("database.deleteDevice"))
                 .setLong("id", deviceId)
                 .executeUpdate();
+        addChange(Change.DEVICE, deviceId);
     }
 
     public void linkDevice(long userId, long deviceId) throws SQLException {
@@ -229,6 +286,7 @@ public class DataManager {
                 .setLong("userId", userId)
                 .setLong("deviceId", deviceId)
                 .executeUpdate();
+        addChange(Change.PERMISSION, userId);
     }
 
     public void unlinkDevice(long userId, long deviceId) throws SQLException {
@@ -236,6 +294,7 @@ public class DataManager {
                 .setLong("userId", userId)
                 .setLong("deviceId", deviceId)
                 .executeUpdate();
+        addChange(Change.PERMISSION, userId);
     }
 
     public Collection<Group> getAllGroups() throws SQLException {
@@ -243,22 +302,31 @@ public class DataManager {
                 .executeQuery(Group.class);
     }
 
+    public Group getGroup(long groupId) throws SQLException {
+        return QueryBuilder.create(dataSource, getQuery("database.selectGroup"))
+                .setLong("id", groupId)
+                .executeQuerySingle(Group.class);
+    }
+
     public void addGroup(Group group) throws SQLException {
         group.setId(QueryBuilder.create(dataSource, getQuery("database.insertGroup"), true)
                 .setObject(group)
                 .executeUpdate());
+        addChange(Change.GROUP, group.getId());
     }
 
     public void updateGroup(Group group) throws SQLException {
         QueryBuilder.create(dataSource, getQuery("database.updateGroup"))
                 .setObject(group)
                 .executeUpdate();
+        addChange(Change.GROUP, group.getId());
     }
 
     public void removeGroup(long groupId) throws SQLException {
         QueryBuilder.create(dataSource, getQuery("database.deleteGroup"))
                 .setLong("id", groupId)
                 .executeUpdate();
+        addChange(Change.GROUP, groupId);
     }
 
     public void linkGroup(long userId, long groupId) throws SQLException {
@@ -266,6 +334,7 @@ public class DataManager {
                 .setLong("userId", userId)
                 .setLong("groupId", groupId)
                 .executeUpdate();
+        addChange(Change.PERMISSION, userId);
     }
 
     public void unlinkGroup(long userId, long groupId) throws SQLException {
@@ -273,6 +342,7 @@ public class DataManager {
                 .setLong("userId", userId)
                 .setLong("groupId", groupId)
                 .executeUpdate();
+        addChange(Change.PERMISSION, userId);
     }
 
     public Collection<Position> getPositions(long deviceId, Date from, Date to) throws SQLException {
@@ -283,6 +353,16 @@ public class DataManager {
                 .executeQuery(Position.class);
     }
 
+    public void getPositions(long deviceId, Date from, Date to, QueryBuilder.ResultHandler<Position> handler)
+            throws SQLException {
+        QueryBuilder.create(dataSource, getQuery("database.selectPositions"))
+                .setLong("deviceId", deviceId)
+                .setDate("from", from)
+                .setDate("to", to)
+                .setFetchSize(config.getInteger("database.fetchSize", DEFAULT_FETCH_SIZE))
+                .executeQuery(Position.class, handler);
+    }
+
     public Position getPosition(long positionId) throws SQLException {
         return QueryBuilder.create(dataSource, getQuery("database.selectPosition"))
                 .setLong("id", positionId)
@@ -296,6 +376,54 @@ public class DataManager {
                 .executeUpdate());
     }
 
+    public void addPositions(List<Position> positions) throws SQLException {
+        addPositions(positions, false);
+    }
+
+    /**
+     * Inserts positions in a single batch. If the driver doesn't return generated keys for batches, the batch is rolled
+     * back and positions are inserted one by one from then on, so that stored positions always get their ids.
+     */
+    public void addPositions(List<Position> positions, boolean keepServerTime) throws SQLException {
+        Date now = new Date();
+        if (batchKeys) {
+            QueryBuilder queryBuilder = QueryBuilder.create(dataSource, getQuery("database.insertPosition"), true);
+            for (Position position : positions) {
+                Date serverTime = keepServerTime && position.getServerTime() != null ? position.getServerTime() : now;
+                queryBuilder.setDate("now", serverTime).setObject(position).addBatch();
+            }
+            List<Long> ids = queryBuilder.executeBatch();
+            if (ids != null) {
+                for (int i = 0; i < ids.size(); i++) {
+                    positions.get(i).setId(ids.get(i));
+                }
+                return;
+            }
+            Log.warning("Generated keys are not returned for batch insert, falling back to single inserts");
+            batchKeys = false;
+        }
+        for (Position position : positions) {
+            Date serverTime = keepServerTime && position.getServerTime() != null ? position.getServerTime() : now;
+            position.setId(QueryBuilder.create(dataSource, getQuery("database.insertPosition"), true)
+                    .setDate("now", serverTime)
+                    .setObject(position)
+                    .executeUpdate());
+        }
+    }
+
+    /**
+     * With partitioned positions table, fix time is added to the condition, so that only one partition is updated.
+     */
+    public void updatePositionAddresses(Collection<Position> positions) throws SQLException {
+        String query = getQuery(config.hasKey("database.positionsPartition")
+                ? "database.updatePositionAddressPartitioned" : "database.updatePositionAddress");
+        QueryBuilder queryBuilder = QueryBuilder.create(dataSource, query);
+        for (Position position : positions) {
+            queryBuilder.setObject(position).addBatch();
+        }
+        queryBuilder.executeBatch();
+    }
+
     public void updateLatestPosition(Position position) throws SQLException {
         QueryBuilder.create(dataSource, getQuery("database.updateLatestPosition"))
                 .setDate("now", new Date())
@@ -303,16 +431,84 @@ public class DataManager {
                 .executeUpdate();
     }
 
+    public void updateLatestPositions(Collection<Position> positions) throws SQLException {
+        QueryBuilder queryBuilder = QueryBuilder.create(dataSource, getQuery("database.updateLatestPosition"));
+        Date now = new Date();
+        for (Position position : positions) {
+            queryBuilder.setDate("now", now).setObject(position).addBatch();
+        }
+        queryBuilder.executeBatch();
+    }
+
     public Collection<Position> getLatestPositions() throws SQLException {
         return QueryBuilder.create(dataSource, getQuery("database.selectLatestPositions"))
                 .executeQuery(Position.class);
     }
 
+    private int getPartitionsAhead() {
+        return config.getInteger("database.positionsPartitionsAhead", DEFAULT_PARTITIONS_AHEAD);
+    }
+
+    public void createPositionsPartitions() throws SQLException {
+        if (config.hasKey("database.positionsPartition")) {
+            long created = QueryBuilder.create(dataSource, getQuery("database.createPositionsPartitions"))
+                    .setString("period", config.getString("database.positionsPartition"))
+                    .setInteger("ahead", getPartitionsAhead())
+                    .executeQueryLong();
+            Log.debug("Created positions partitions: " + created);
+        }
+    }
+
     public void clearPositionsHistory() throws SQLException {
         long historyDays = config.getInteger("database.positionsHistoryDays");
         if (historyDays != 0) {
-            QueryBuilder.create(dataSource, getQuery("database.deletePositions"))
-                    .setDate("serverTime", new Date(System.currentTimeMillis() - historyDays * 24 * 3600 * 1000))
+            Date serverTime = new Date(System.currentTimeMillis() - historyDays * 24 * 3600 * 1000);
+            if (config.hasKey("database.positionsPartition")) {
+                long dropped = QueryBuilder.create(dataSource, getQuery("database.dropPositionsPartitions"))
+                        .setDate("serverTime", serverTime)
+                        .executeQueryLong();
+                Log.debug("Dropped positions partitions: " + dropped);
+            } else {
+                QueryBuilder.create(dataSource, getQuery("database.deletePositions"))
+                        .setDate("serverTime", serverTime)
+                        .executeUpdate();
+            }
+        }
+    }
+
+    public boolean getSyncChanges() {
+        return syncChanges;
+    }
+
+    private void addChange(String entity, long entityId) throws SQLException {
+        if (syncChanges) {
+            Change change = new Change();
+            change.setEntity(entity);
+            change.setEntityId(entityId);
+            change.setChangeTime(new Date());
+            QueryBuilder.create(dataSource, getQuery("database.insertChange"))
+                    .setObject(change)
+                    .executeUpdate();
+        }
+    }
+
+    public Collection<Change> getChanges(long changeId) throws SQLException {
+        return QueryBuilder.create(dataSource, getQuery("database.selectChanges"))
+                .setLong("id", changeId)
+                .executeQuery(Change.class);
+    }
+
+    public long getLastChangeId() throws SQLException {
+        Change change = QueryBuilder.create(dataSource, getQuery("database.selectLastChange"))
+                .executeQuerySingle(Change.class);
+        return change != null ? change.getId() : 0;
+    }
+
+    public void clearChangesHistory() throws SQLException {
+        if (syncChanges) {
+            long historyHours = config.getInteger("database.changesHistoryHours", DEFAULT_CHANGES_HISTORY);
+            QueryBuilder.create(dataSource, getQuery("database.deleteChanges"))
+                    .setDate("changeTime", new Date(System.currentTimeMillis() - historyHours * 3600 * 1000))
                     .executeUpdate();
         }
     }
@@ -539,6 +735,7 @@ public class DataManager {
                 .setLong("userId", userId)
                 .setLong("managedUserId", managedUserId)
                 .executeUpdate();
+        addChange(Change.USER, userId);
     }
 
     public void unlinkUser(long userId, long managedUserId) throws SQLException {
@@ -546,5 +743,6 @@ public class DataManager {
                 .setLong("userId", userId)
                 .setLong("managedUserId", managedUserId)
                 .executeUpdate();
+        addChange(Change.USER, userId);
     }
 }
@@ -22,8 +22,12 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.traccar.Config;
@@ -38,6 +42,10 @@ import org.traccar.model.Server;
 public class DeviceManager implements IdentityManager {
 
     public static final long DEFAULT_REFRESH_DELAY = 300;
+    public static final long DEFAULT_FULL_REFRESH_DELAY = 3600;
+    public static final long DEFAULT_FLUSH_INTERVAL = 0;
+    public static final long DEFAULT_UNKNOWN_TIMEOUT = 60;
+    public static final int MAX_UNKNOWN_DEVICES = 10000;
 
     private final Config config;
     private final DataManager dataManager;
@@ -48,16 +56,62 @@ public class DeviceManager implements IdentityManager {
     private Map<String, Device> devicesByUniqueId;
     private AtomicLong devicesLastUpdate = new AtomicLong();
 
+    private final long unknownTimeout;
+    private final ConcurrentMap<String, Long> unknownDevices = new ConcurrentHashMap<>();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong cacheReloads = new AtomicLong();
+
     private Map<Long, Group> groupsById;
     private AtomicLong groupsLastUpdate = new AtomicLong();
 
-    private final Map<Long, Position> positions = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, Position> positions = new ConcurrentHashMap<>();
+
+    private static final Object NULL_ATTRIBUTE = new Object();
+
+    private static final class CachedAttributes extends ConcurrentHashMap<String, Object> {
+
+        private final long groupsVersion;
+
+        private CachedAttributes(long groupsVersion) {
+            this.groupsVersion = groupsVersion;
+        }
+
+    }
+
+    private final ConcurrentMap<Long, CachedAttributes> serverAttributes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, CachedAttributes> configAttributes = new ConcurrentHashMap<>();
+    private final AtomicLong attributesVersion = new AtomicLong();
+    private final AtomicLong groupsVersion = new AtomicLong();
+    private volatile Server attributesServer;
+
+    private final long flushInterval;
+    private final ConcurrentMap<Long, Device> dirtyDevices = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, Position> dirtyPositions = new ConcurrentHashMap<>();
 
     public DeviceManager(DataManager dataManager) {
+        this(dataManager, Context.getConfig());
+    }
+
+    DeviceManager(DataManager dataManager, Config config) {
         this.dataManager = dataManager;
-        this.config = Context.getConfig();
-        dataRefreshDelay = config.getLong("database.refreshDelay", DEFAULT_REFRESH_DELAY) * 1000;
+        this.config = config;
+        if (config.getBoolean("database.syncChanges")) {
+            dataRefreshDelay = config.getLong("database.fullRefreshDelay", DEFAULT_FULL_REFRESH_DELAY) * 1000;
+        } else {
+            dataRefreshDelay = config.getLong("database.refreshDelay", DEFAULT_REFRESH_DELAY) * 1000;
+        }
         lookupGroupsAttribute = config.getBoolean("deviceManager.lookupGroupsAttribute");
+        flushInterval = config.getLong("database.updateFlushInterval", DEFAULT_FLUSH_INTERVAL);
+        unknownTimeout = config.getLong("database.unknownDeviceTimeout", DEFAULT_UNKNOWN_TIMEOUT) * 1000;
+        if (dataManager != null && flushInterval > 0) {
+            new Timer("device-updates", true).scheduleAtFixedRate(new TimerTask() {
+                @Override
+                public void run() {
+                    flushUpdates();
+                }
+            }, flushInterval, flushInterval);
+        }
         if (dataManager != null) {
             try {
                 updateGroupCache(true);
@@ -76,53 +130,66 @@ public class DeviceManager implements IdentityManager {
         long lastUpdate = devicesLastUpdate.get();
         if ((force || System.currentTimeMillis() - lastUpdate > dataRefreshDelay)
                 && devicesLastUpdate.compareAndSet(lastUpdate, System.currentTimeMillis())) {
-            GeofenceManager geofenceManager = Context.getGeofenceManager();
+            cacheReloads.incrementAndGet();
             Collection<Device> databaseDevices = dataManager.getAllDevices();
-            if (devicesById == null) {
-                devicesById = new ConcurrentHashMap<>(databaseDevices.size());
-            }
-            if (devicesByUniqueId == null) {
-                devicesByUniqueId = new ConcurrentHashMap<>(databaseDevices.size());
-            }
-            Set<Long> databaseDevicesIds = new HashSet<>();
-            Set<String> databaseDevicesUniqueIds = new HashSet<>();
-            for (Device device : databaseDevices) {
-                databaseDevicesIds.add(device.getId());
-                databaseDevicesUniqueIds.add(device.getUniqueId());
-                if (devicesById.containsKey(device.getId())) {
-                    Device cachedDevice = devicesById.get(device.getId());
-                    cachedDevice.setName(device.getName());
-                    cachedDevice.setGroupId(device.getGroupId());
-                    cachedDevice.setAttributes(device.getAttributes());
-                    if (!device.getUniqueId().equals(cachedDevice.getUniqueId())) {
-                        devicesByUniqueId.remove(cachedDevice.getUniqueId());
-                        devicesByUniqueId.put(device.getUniqueId(), cachedDevice);
+            synchronized (this) {
+                if (devicesById == null) {
+                    devicesById = new ConcurrentHashMap<>(databaseDevices.size());
+                }
+                if (devicesByUniqueId == null) {
+                    devicesByUniqueId = new ConcurrentHashMap<>(databaseDevices.size());
+                }
+                Set<Long> databaseDevicesIds = new HashSet<>();
+                Set<String> databaseDevicesUniqueIds = new HashSet<>();
+                for (Device device : databaseDevices) {
+                    databaseDevicesIds.add(device.getId());
+                    databaseDevicesUniqueIds.add(device.getUniqueId());
+                    updateCachedDevice(device);
+                }
+                for (Long cachedDeviceId : devicesById.keySet()) {
+                    if (!databaseDevicesIds.contains(cachedDeviceId)) {
+                        devicesById.remove(cachedDeviceId);
+                        invalidateDeviceAttributes(cachedDeviceId);
                     }
-                    cachedDevice.setUniqueId(device.getUniqueId());
-                } else {
-                    devicesById.put(device.getId(), device);
-                    devicesByUniqueId.put(device.getUniqueId(), device);
-                    if (geofenceManager != null) {
-                        Position lastPosition = getLastPosition(device.getId());
-                        if (lastPosition != null) {
-                            device.setGeofenceIds(geofenceManager.getCurrentDeviceGeofences(lastPosition));
-                        }
+                }
+                for (String cachedDeviceUniqId : devicesByUniqueId.keySet()) {
+                    if (!databaseDevicesUniqueIds.contains(cachedDeviceUniqId)) {
+                        devicesByUniqueId.remove(cachedDeviceUniqId);
                     }
-                    device.setStatus(Device.STATUS_OFFLINE);
                 }
             }
-            for (Long cachedDeviceId : devicesById.keySet()) {
-                if (!databaseDevicesIds.contains(cachedDeviceId)) {
-                    devicesById.remove(cachedDeviceId);
-                }
+        }
+    }
+
+    private Device updateCachedDevice(Device device) {
+        Device cachedDevice = devicesById.get(device.getId());
+        if (cachedDevice != null) {
+            boolean attributesChanged = cachedDevice.getGroupId() != device.getGroupId()
+                    || !Objects.equals(cachedDevice.getAttributes(), device.getAttributes());
+            cachedDevice.setName(device.getName());
+            cachedDevice.setGroupId(device.getGroupId());
+            cachedDevice.setAttributes(device.getAttributes());
+            if (!device.getUniqueId().equals(cachedDevice.getUniqueId())) {
+                devicesByUniqueId.remove(cachedDevice.getUniqueId());
+                devicesByUniqueId.put(device.getUniqueId(), cachedDevice);
+            }
+            cachedDevice.setUniqueId(device.getUniqueId());
+            if (attributesChanged) {
+                invalidateDeviceAttributes(device.getId());
             }
-            for (String cachedDeviceUniqId : devicesByUniqueId.keySet()) {
-                if (!databaseDevicesUniqueIds.contains(cachedDeviceUniqId)) {
-                    devicesByUniqueId.remove(cachedDeviceUniqId);
+            return cachedDevice;
+        } else {
+            devicesById.put(device.getId(), device);
+            devicesByUniqueId.put(device.getUniqueId(), device);
+            GeofenceManager geofenceManager = Context.getGeofenceManager();
+            if (geofenceManager != null) {
+                Position lastPosition = getLastPosition(device.getId());
+                if (lastPosition != null) {
+                    device.setGeofenceIds(geofenceManager.getCurrentDeviceGeofences(lastPosition));
                 }
             }
-            databaseDevicesIds.clear();
-            databaseDevicesUniqueIds.clear();
+            device.setStatus(Device.STATUS_OFFLINE);
+            return device;
         }
     }
 
@@ -133,11 +200,56 @@ public class DeviceManager implements IdentityManager {
 
     @Override
     public Device getDeviceByUniqueId(String uniqueId) throws SQLException {
-        boolean forceUpdate = !devicesByUniqueId.containsKey(uniqueId) && !config.getBoolean("database.ignoreUnknown");
 
-        updateDeviceCache(forceUpdate);
+        updateDeviceCache(false);
+
+        Device device = devicesByUniqueId.get(uniqueId);
+        if (device != null) {
+            cacheHits.incrementAndGet();
+            return device;
+        }
+        cacheMisses.incrementAndGet();
+        if (config.getBoolean("database.ignoreUnknown")) {
+            return null;
+        }
+
+        long currentTime = System.currentTimeMillis();
+        Long expiration = unknownDevices.get(uniqueId);
+        if (expiration != null && expiration > currentTime) {
+            return null;
+        }
+
+        device = dataManager.getDeviceByUniqueId(uniqueId);
+        if (device == null) {
+            if (unknownDevices.size() >= MAX_UNKNOWN_DEVICES) {
+                for (Map.Entry<String, Long> entry : unknownDevices.entrySet()) {
+                    if (entry.getValue() <= currentTime) {
+                        unknownDevices.remove(entry.getKey(), entry.getValue());
+                    }
+                }
+                if (unknownDevices.size() >= MAX_UNKNOWN_DEVICES) {
+                    unknownDevices.clear();
+                }
+            }
+            unknownDevices.put(uniqueId, currentTime + unknownTimeout);
+            return null;
+        }
+        unknownDevices.remove(uniqueId);
+        synchronized (this) {
+            return updateCachedDevice(device);
+        }
+    }
 
-        return devicesByUniqueId.get(uniqueId);
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    public long getCacheReloads() {
+        return cacheReloads.get();
     }
 
     public Collection<Device> getAllDevices() {
@@ -174,17 +286,34 @@ public class DeviceManager implements IdentityManager {
 
         devicesById.put(device.getId(), device);
         devicesByUniqueId.put(device.getUniqueId(), device);
+        unknownDevices.remove(device.getUniqueId());
+        invalidateDeviceAttributes(device.getId());
     }
 
     public void updateDevice(Device device) throws SQLException {
         dataManager.updateDevice(device);
 
-        devicesById.put(device.getId(), device);
+        Device cachedDevice = devicesById.put(device.getId(), device);
         devicesByUniqueId.put(device.getUniqueId(), device);
+        unknownDevices.remove(device.getUniqueId());
+        invalidateDeviceAttributes(device.getId());
+        if (cachedDevice == null || cachedDevice.getGroupId() != device.getGroupId()) {
+            refreshGroupPermissions();
+        }
+    }
+
+    private void refreshGroupPermissions() {
+        if (Context.getPermissionsManager() != null) {
+            Context.getPermissionsManager().refreshPermissions();
+        }
     }
 
     public void updateDeviceStatus(Device device) throws SQLException {
-        dataManager.updateDeviceStatus(device);
+        if (flushInterval > 0) {
+            dirtyDevices.put(device.getId(), device);
+        } else {
+            dataManager.updateDeviceStatus(device);
+        }
         if (devicesById.containsKey(device.getId())) {
             Device cachedDevice = devicesById.get(device.getId());
             cachedDevice.setStatus(device.getStatus());
@@ -193,13 +322,78 @@ public class DeviceManager implements IdentityManager {
 
     public void removeDevice(long deviceId) throws SQLException {
         dataManager.removeDevice(deviceId);
+        removeCachedDevice(deviceId);
+    }
 
+    private void removeCachedDevice(long deviceId) {
         if (devicesById.containsKey(deviceId)) {
             String deviceUniqueId = devicesById.get(deviceId).getUniqueId();
             devicesById.remove(deviceId);
             devicesByUniqueId.remove(deviceUniqueId);
         }
+        invalidateDeviceAttributes(deviceId);
         positions.remove(deviceId);
+        dirtyDevices.remove(deviceId);
+        dirtyPositions.remove(deviceId);
+    }
+
+    public void refresh() throws SQLException {
+        updateGroupCache(true);
+        updateDeviceCache(true);
+    }
+
+    /**
+     * Reloads single device from database. Returns true if device group membership has changed.
+     */
+    public boolean refreshDevice(long deviceId) throws SQLException {
+        Device device = dataManager.getDevice(deviceId);
+        Device cachedDevice = devicesById.get(deviceId);
+        if (device == null) {
+            removeCachedDevice(deviceId);
+            return cachedDevice != null;
+        }
+        unknownDevices.remove(device.getUniqueId());
+        long groupId = cachedDevice != null ? cachedDevice.getGroupId() : 0;
+        synchronized (this) {
+            updateCachedDevice(device);
+        }
+        return groupId != device.getGroupId();
+    }
+
+    private static <T> List<T> drain(Map<Long, T> dirty) {
+        List<T> result = new ArrayList<>();
+        for (Long key : dirty.keySet()) {
+            T value = dirty.remove(key);
+            if (value != null) {
+                result.add(value);
+            }
+        }
+        return result;
+    }
+
+    public void flushUpdates() {
+        List<Device> devices = drain(dirtyDevices);
+        if (!devices.isEmpty()) {
+            try {
+                dataManager.updateDevicesStatus(devices);
+            } catch (SQLException | RuntimeException error) {
+                for (Device device : devices) {
+                    dirtyDevices.putIfAbsent(device.getId(), device);
+                }
+                Log.warning(error);
+            }
+        }
+        List<Position> latestPositions = drain(dirtyPositions);
+        if (!latestPositions.isEmpty()) {
+            try {
+                dataManager.updateLatestPositions(latestPositions);
+            } catch (SQLException | RuntimeException error) {
+                for (Position position : latestPositions) {
+                    dirtyPositions.putIfAbsent(position.getDeviceId(), position);
+                }
+                Log.warning(error);
+            }
+        }
     }
 
     public boolean isLatestPosition(Position position) {
@@ -211,7 +405,11 @@ public class DeviceManager implements IdentityManager {
 
         if (isLatestPosition(position)) {
 
-            dataManager.updateLatestPosition(position);
+            if (flushInterval > 0) {
+                dirtyPositions.put(position.getDeviceId(), position);
+            } else {
+                dataManager.updateLatestPosition(position);
+            }
 
             if (devicesById.containsKey(position.getDeviceId())) {
                 devicesById.get(position.getDeviceId()).setPositionId(position.getId());
@@ -225,6 +423,22 @@ public class DeviceManager implements IdentityManager {
         }
     }
 
+    /**
+     * Replaces cached latest position with a copy that has the resolved address, so that position objects already
+     * handed to other threads are not modified. Returns the copy, or null if the position is no longer the latest.
+     */
+    public Position updateLatestAddress(Position position, String address) {
+        Position lastPosition = positions.get(position.getDeviceId());
+        if (lastPosition != null && lastPosition.getId() == position.getId() && position.getId() != 0) {
+            Position updatedPosition = Context.getObjectMapper().convertValue(lastPosition, Position.class);
+            updatedPosition.setAddress(address);
+            if (positions.replace(position.getDeviceId(), lastPosition, updatedPosition)) {
+                return updatedPosition;
+            }
+        }
+        return null;
+    }
+
     @Override
     public Position getLastPosition(long deviceId) {
         return positions.get(deviceId);
@@ -259,21 +473,52 @@ public class DeviceManager implements IdentityManager {
                 databaseGroupsIds.add(group.getId());
                 if (groupsById.containsKey(group.getId())) {
                     Group cachedGroup = groupsById.get(group.getId());
+                    boolean attributesChanged = cachedGroup.getGroupId() != group.getGroupId()
+                            || !Objects.equals(cachedGroup.getAttributes(), group.getAttributes());
                     cachedGroup.setName(group.getName());
                     cachedGroup.setGroupId(group.getGroupId());
+                    cachedGroup.setAttributes(group.getAttributes());
+                    if (attributesChanged) {
+                        invalidateGroupAttributes();
+                    }
                 } else {
                     groupsById.put(group.getId(), group);
                 }
             }
             for (Long cachedGroupId : groupsById.keySet()) {
                 if (!databaseGroupsIds.contains(cachedGroupId)) {
-                    devicesById.remove(cachedGroupId);
+                    groupsById.remove(cachedGroupId);
+                    invalidateGroupAttributes();
                 }
             }
             databaseGroupsIds.clear();
         }
     }
 
+    /**
+     * Reloads single group from database. Returns true if group hierarchy has changed.
+     */
+    public boolean refreshGroup(long groupId) throws SQLException {
+        Group group = dataManager.getGroup(groupId);
+        Group cachedGroup = groupsById.get(groupId);
+        if (group == null) {
+            boolean removed = groupsById.remove(groupId) != null;
+            invalidateGroupAttributes();
+            return removed;
+        }
+        if (cachedGroup == null) {
+            groupsById.put(groupId, group);
+            invalidateGroupAttributes();
+            return true;
+        }
+        cachedGroup.setName(group.getName());
+        cachedGroup.setAttributes(group.getAttributes());
+        boolean changed = cachedGroup.getGroupId() != group.getGroupId();
+        cachedGroup.setGroupId(group.getGroupId());
+        invalidateGroupAttributes();
+        return changed;
+    }
+
     public Group getGroupById(long id) {
         return groupsById.get(id);
     }
@@ -322,63 +567,157 @@ public class DeviceManager implements IdentityManager {
         checkGroupCycles(group);
         dataManager.addGroup(group);
         groupsById.put(group.getId(), group);
+        invalidateGroupAttributes();
     }
 
     public void updateGroup(Group group) throws SQLException {
         checkGroupCycles(group);
         dataManager.updateGroup(group);
-        groupsById.put(group.getId(), group);
+        Group cachedGroup = groupsById.put(group.getId(), group);
+        invalidateGroupAttributes();
+        if (cachedGroup == null || cachedGroup.getGroupId() != group.getGroupId()) {
+            refreshGroupPermissions();
+        }
     }
 
     public void removeGroup(long groupId) throws SQLException {
         dataManager.removeGroup(groupId);
         groupsById.remove(groupId);
+        invalidateGroupAttributes();
     }
 
     public boolean lookupAttributeBoolean(
             long deviceId, String attributeName, boolean defaultValue, boolean lookupConfig) {
-        String result = lookupAttribute(deviceId, attributeName, lookupConfig);
+        Object result = lookupResolvedAttribute(deviceId, attributeName, lookupConfig, Boolean.class);
         if (result != null) {
-            return Boolean.parseBoolean(result);
+            return (Boolean) result;
         }
         return defaultValue;
     }
 
     public String lookupAttributeString(
             long deviceId, String attributeName, String defaultValue, boolean lookupConfig) {
-        String result = lookupAttribute(deviceId, attributeName, lookupConfig);
+        Object result = lookupResolvedAttribute(deviceId, attributeName, lookupConfig, String.class);
         if (result != null) {
-            return result;
+            return (String) result;
         }
         return defaultValue;
     }
 
     public int lookupAttributeInteger(long deviceId, String attributeName, int defaultValue, boolean lookupConfig) {
-        String result = lookupAttribute(deviceId, attributeName, lookupConfig);
+        Object result = lookupResolvedAttribute(deviceId, attributeName, lookupConfig, Integer.class);
         if (result != null) {
-            return Integer.parseInt(result);
+            return (Integer) result;
         }
         return defaultValue;
     }
 
     public long lookupAttributeLong(
             long deviceId, String attributeName, long defaultValue, boolean lookupConfig) {
-        String result = lookupAttribute(deviceId, attributeName, lookupConfig);
+        Object result = lookupResolvedAttribute(deviceId, attributeName, lookupConfig, Long.class);
         if (result != null) {
-            return Long.parseLong(result);
+            return (Long) result;
         }
         return defaultValue;
     }
 
     public double lookupAttributeDouble(
             long deviceId, String attributeName, double defaultValue, boolean lookupConfig) {
-        String result = lookupAttribute(deviceId, attributeName, lookupConfig);
+        Object result = lookupResolvedAttribute(deviceId, attributeName, lookupConfig, Double.class);
         if (result != null) {
-            return Double.parseDouble(result);
+            return (Double) result;
         }
         return defaultValue;
     }
 
+    private static Object parseAttribute(String value, Class<?> type) {
+        if (type == Boolean.class) {
+            return Boolean.parseBoolean(value);
+        } else if (type == Integer.class) {
+            return Integer.parseInt(value);
+        } else if (type == Long.class) {
+            return Long.parseLong(value);
+        } else if (type == Double.class) {
+            return Double.parseDouble(value);
+        } else {
+            return value;
+        }
+    }
+
+    /**
+     * Must be called after cached device is changed, so that lookups started before the change can't cache old values
+     * under the new version.
+     */
+    private void invalidateDeviceAttributes(long deviceId) {
+        attributesVersion.incrementAndGet();
+        serverAttributes.remove(deviceId);
+        configAttributes.remove(deviceId);
+    }
+
+    /**
+     * Group changes are rare, so instead of finding devices of the group and its subgroups, all cached values are
+     * marked outdated at once and dropped on next lookup.
+     */
+    private void invalidateGroupAttributes() {
+        attributesVersion.incrementAndGet();
+        groupsVersion.incrementAndGet();
+    }
+
+    /**
+     * Returns attribute resolved through device, its groups and server or config, converted to requested type. Values
+     * are cached per device until the device, one of its groups or server attributes change.
+     */
+    private Object lookupResolvedAttribute(long deviceId, String attributeName, boolean lookupConfig, Class<?> type) {
+        ConcurrentMap<Long, CachedAttributes> cache = lookupConfig ? configAttributes : serverAttributes;
+        if (!lookupConfig) {
+            // PermissionsManager replaces server object on every update and reload, so reference comparison is enough
+            // to notice changed server attributes without PermissionsManager depending on this cache
+            Server server = getServer();
+            if (server != attributesServer) {
+                attributesVersion.incrementAndGet();
+                serverAttributes.clear();
+                attributesServer = server;
+            }
+        }
+
+        long currentGroupsVersion = groupsVersion.get();
+        CachedAttributes attributes = cache.get(deviceId);
+        if (attributes != null && attributes.groupsVersion != currentGroupsVersion) {
+            cache.remove(deviceId, attributes);
+            attributes = null;
+        }
+        if (attributes != null) {
+            Object value = attributes.get(attributeName);
+            if (value == NULL_ATTRIBUTE) {
+                return null;
+            } else if (type.isInstance(value)) {
+                return value;
+            }
+        }
+
+        long version = attributesVersion.get();
+        String result = lookupAttribute(deviceId, attributeName, lookupConfig);
+        Object value = result != null ? parseAttribute(result, type) : NULL_ATTRIBUTE;
+        if (getDeviceById(deviceId) != null) {
+            if (attributes == null) {
+                attributes = new CachedAttributes(currentGroupsVersion);
+                CachedAttributes existing = cache.putIfAbsent(deviceId, attributes);
+                if (existing != null) {
+                    attributes = existing;
+                }
+            }
+            attributes.put(attributeName, value);
+            if (version != attributesVersion.get()) {
+                cache.remove(deviceId, attributes);
+            }
+        }
+        return value != NULL_ATTRIBUTE ? value : null;
+    }
+
+    Server getServer() {
+        return Context.getPermissionsManager().getServer();
+    }
+
     private String lookupAttribute(long deviceId, String attributeName, boolean lookupConfig) {
         String result = null;
         Device device = getDeviceById(deviceId);
@@ -400,10 +739,9 @@ public class DeviceManager implements IdentityManager {
             }
             if (result == null) {
                 if (lookupConfig) {
-                    result = Context.getConfig().getString(attributeName);
+                    result = config.getString(attributeName);
                 } else {
-                    Server server = Context.getPermissionsManager().getServer();
-                    result = server.getString(attributeName);
+                    result = getServer().getString(attributeName);
                 }
             }
         }
@@ -18,34 +18,52 @@ package org.traccar.database;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.traccar.Context;
+import org.traccar.geofence.GeofenceGeometry;
+import org.traccar.geofence.GeofenceIndex;
 import org.traccar.helper.Log;
 import org.traccar.model.Device;
 import org.traccar.model.DeviceGeofence;
 import org.traccar.model.Geofence;
 import org.traccar.model.GeofencePermission;
+import org.traccar.model.Group;
 import org.traccar.model.GroupGeofence;
 import org.traccar.model.Position;
 
 public class GeofenceManager {
 
+    private static final int PARALLEL_THRESHOLD = 1000;
+    private static final long THREAD_KEEP_ALIVE = 60;
+
     private final DataManager dataManager;
+    private final ThreadPoolExecutor executor;
 
     private final Map<Long, Geofence> geofences = new HashMap<>();
+    private volatile GeofenceIndex geofenceIndex = new GeofenceIndex(Collections.<Long, GeofenceGeometry>emptyMap());
     private final Map<Long, Set<Long>> userGeofences = new HashMap<>();
-    private final Map<Long, Set<Long>> groupGeofences = new HashMap<>();
+    private Map<Long, Set<Long>> groupGeofences = new HashMap<>();
 
-    private final Map<Long, Set<Long>> deviceGeofencesWithGroups = new HashMap<>();
-    private final Map<Long, Set<Long>> deviceGeofences = new HashMap<>();
+    private Map<Long, Set<Long>> deviceGeofencesWithGroups = new HashMap<>();
+    private Map<Long, Set<Long>> deviceGeofences = new HashMap<>();
+    private final Set<Long> failedDevices = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
 
     private final ReadWriteLock deviceGeofencesLock = new ReentrantReadWriteLock();
     private final ReadWriteLock geofencesLock = new ReentrantReadWriteLock();
@@ -54,6 +72,17 @@ public class GeofenceManager {
 
     public GeofenceManager(DataManager dataManager) {
         this.dataManager = dataManager;
+        int threads = Runtime.getRuntime().availableProcessors();
+        executor = new ThreadPoolExecutor(threads, threads, THREAD_KEEP_ALIVE, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "geofence-refresh");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
         refreshGeofences();
     }
 
@@ -73,17 +102,10 @@ public class GeofenceManager {
         }
     }
 
-    private Set<Long> getGroupGeofences(long groupId) {
-        if (!groupGeofences.containsKey(groupId)) {
-            groupGeofences.put(groupId, new HashSet<Long>());
-        }
-        return groupGeofences.get(groupId);
-    }
-
     public Set<Long> getGroupGeofencesIds(long groupId) {
         groupGeofencesLock.readLock().lock();
         try {
-            return getGroupGeofences(groupId);
+            return findGeofences(groupGeofences, groupId);
         } finally {
             groupGeofencesLock.readLock().unlock();
         }
@@ -92,7 +114,7 @@ public class GeofenceManager {
     public Set<Long> getAllDeviceGeofences(long deviceId) {
         deviceGeofencesLock.readLock().lock();
         try {
-            return getDeviceGeofences(deviceGeofencesWithGroups, deviceId);
+            return findGeofences(deviceGeofencesWithGroups, deviceId);
         } finally {
             deviceGeofencesLock.readLock().unlock();
         }
@@ -101,28 +123,44 @@ public class GeofenceManager {
     public Set<Long> getDeviceGeofencesIds(long deviceId) {
         deviceGeofencesLock.readLock().lock();
         try {
-            return getDeviceGeofences(deviceGeofences, deviceId);
+            return findGeofences(deviceGeofences, deviceId);
         } finally {
             deviceGeofencesLock.readLock().unlock();
         }
     }
 
-    private Set<Long> getDeviceGeofences(Map<Long, Set<Long>> deviceGeofences, long deviceId) {
-        if (!deviceGeofences.containsKey(deviceId)) {
-            deviceGeofences.put(deviceId, new HashSet<Long>());
+    private static Set<Long> getGeofences(Map<Long, Set<Long>> geofences, long id) {
+        Set<Long> result = geofences.get(id);
+        if (result == null) {
+            result = new HashSet<>();
+            geofences.put(id, result);
         }
-        return deviceGeofences.get(deviceId);
+        return result;
+    }
+
+    private static Set<Long> findGeofences(Map<Long, Set<Long>> geofences, long id) {
+        Set<Long> result = geofences.get(id);
+        return result != null ? result : Collections.<Long>emptySet();
     }
 
     public final void refreshGeofences() {
+        Set<Long> changedGeofences = new HashSet<>();
         if (dataManager != null) {
             try {
+                Collection<Geofence> databaseGeofences = dataManager.getGeofences();
                 geofencesLock.writeLock().lock();
                 try {
-                    geofences.clear();
-                    for (Geofence geofence : dataManager.getGeofences()) {
-                        geofences.put(geofence.getId(), geofence);
+                    Set<Long> removedGeofences = new HashSet<>(geofences.keySet());
+                    for (Geofence geofence : databaseGeofences) {
+                        Geofence cachedGeofence = geofences.put(geofence.getId(), geofence);
+                        if (cachedGeofence == null || !Objects.equals(cachedGeofence.getArea(), geofence.getArea())) {
+                            changedGeofences.add(geofence.getId());
+                        }
+                        removedGeofences.remove(geofence.getId());
                     }
+                    geofences.keySet().removeAll(removedGeofences);
+                    changedGeofences.addAll(removedGeofences);
+                    updateGeofenceIndex();
                 } finally {
                     geofencesLock.writeLock().unlock();
                 }
@@ -131,7 +169,7 @@ public class GeofenceManager {
             }
         }
         refreshUserGeofences();
-        refresh();
+        refresh(changedGeofences);
     }
 
     public final void refreshUserGeofences() {
@@ -153,75 +191,185 @@ public class GeofenceManager {
     }
 
     public final void refresh() {
+        refresh(Collections.<Long>emptySet());
+    }
+
+    private synchronized void refresh(Set<Long> changedGeofences) {
         if (dataManager != null) {
             try {
 
-                Collection<GroupGeofence> databaseGroupGeofences = dataManager.getGroupGeofences();
-                groupGeofencesLock.writeLock().lock();
+                Map<Long, Set<Long>> newGroupGeofences = new HashMap<>();
+                for (GroupGeofence groupGeofence : dataManager.getGroupGeofences()) {
+                    getGeofences(newGroupGeofences, groupGeofence.getGroupId()).add(groupGeofence.getGeofenceId());
+                }
+
+                Map<Long, Set<Long>> newDeviceGeofences = new HashMap<>();
+                Map<Long, Set<Long>> newDeviceGeofencesWithGroups = new HashMap<>();
+                for (DeviceGeofence deviceGeofence : dataManager.getDeviceGeofences()) {
+                    getGeofences(newDeviceGeofences, deviceGeofence.getDeviceId())
+                            .add(deviceGeofence.getGeofenceId());
+                    getGeofences(newDeviceGeofencesWithGroups, deviceGeofence.getDeviceId())
+                            .add(deviceGeofence.getGeofenceId());
+                }
+
+                Map<Long, Set<Long>> oldDeviceGeofencesWithGroups;
+                deviceGeofencesLock.readLock().lock();
                 try {
-                    groupGeofences.clear();
-                    for (GroupGeofence groupGeofence : databaseGroupGeofences) {
-                        getGroupGeofences(groupGeofence.getGroupId()).add(groupGeofence.getGeofenceId());
-                    }
+                    oldDeviceGeofencesWithGroups = deviceGeofencesWithGroups;
                 } finally {
-                    groupGeofencesLock.writeLock().unlock();
+                    deviceGeofencesLock.readLock().unlock();
+                }
+
+                Map<Long, Group> groups = new HashMap<>();
+                for (Group group : Context.getDeviceManager().getAllGroups()) {
+                    groups.put(group.getId(), group);
                 }
 
-                Collection<DeviceGeofence> databaseDeviceGeofences = dataManager.getDeviceGeofences();
-                Collection<Device> allDevices = Context.getDeviceManager().getAllDevices();
+                List<Device> affectedDevices = getAffectedDevices(
+                        Context.getDeviceManager().getAllDevices(), groups, newGroupGeofences,
+                        newDeviceGeofencesWithGroups, oldDeviceGeofencesWithGroups, changedGeofences, failedDevices);
+
+                List<Position> lastPositions = new ArrayList<>(affectedDevices.size());
+                List<List<Long>> previousGeofences = new ArrayList<>(affectedDevices.size());
+                snapshotDevices(affectedDevices, lastPositions, previousGeofences);
+                List<List<Long>> currentGeofences = getCurrentGeofences(
+                        affectedDevices, lastPositions, newDeviceGeofencesWithGroups);
+                if (currentGeofences == null) {
+                    return;
+                }
 
-                groupGeofencesLock.readLock().lock();
+                groupGeofencesLock.writeLock().lock();
+                try {
+                    groupGeofences = newGroupGeofences;
+                } finally {
+                    groupGeofencesLock.writeLock().unlock();
+                }
                 deviceGeofencesLock.writeLock().lock();
                 try {
-                    deviceGeofences.clear();
-                    deviceGeofencesWithGroups.clear();
+                    deviceGeofences = newDeviceGeofences;
+                    deviceGeofencesWithGroups = newDeviceGeofencesWithGroups;
+                    setCurrentGeofences(affectedDevices, lastPositions, previousGeofences, currentGeofences);
+                } finally {
+                    deviceGeofencesLock.writeLock().unlock();
+                }
 
-                    for (DeviceGeofence deviceGeofence : databaseDeviceGeofences) {
-                        getDeviceGeofences(deviceGeofences, deviceGeofence.getDeviceId())
-                            .add(deviceGeofence.getGeofenceId());
-                        getDeviceGeofences(deviceGeofencesWithGroups, deviceGeofence.getDeviceId())
-                            .add(deviceGeofence.getGeofenceId());
-                    }
+            } catch (SQLException error) {
+                Log.warning(error);
+            }
+        }
+    }
+
+    /**
+     * Adds geofences inherited from groups to device geofences and returns devices that need their current geofences
+     * recomputed: devices without current geofences, devices with changed geofence links, devices linked to or inside
+     * a changed or removed geofence, and devices that failed in the previous recompute.
+     */
+    static List<Device> getAffectedDevices(
+            Collection<Device> devices, Map<Long, Group> groups, Map<Long, Set<Long>> groupGeofences,
+            Map<Long, Set<Long>> deviceGeofencesWithGroups, Map<Long, Set<Long>> oldDeviceGeofencesWithGroups,
+            Set<Long> changedGeofences, Set<Long> failedDevices) {
+        List<Device> affectedDevices = new ArrayList<>();
+        for (Device device : devices) {
+            long groupId = device.getGroupId();
+            while (groupId != 0) {
+                Set<Long> inheritedGeofences = groupGeofences.get(groupId);
+                if (inheritedGeofences != null) {
+                    getGeofences(deviceGeofencesWithGroups, device.getId()).addAll(inheritedGeofences);
+                }
+                Group group = groups.get(groupId);
+                groupId = group != null ? group.getGroupId() : 0;
+            }
+            Set<Long> geofenceIds = findGeofences(deviceGeofencesWithGroups, device.getId());
+            if (device.getGeofenceIds() == null
+                    || failedDevices.contains(device.getId())
+                    || !geofenceIds.equals(findGeofences(oldDeviceGeofencesWithGroups, device.getId()))
+                    || !Collections.disjoint(geofenceIds, changedGeofences)
+                    || !Collections.disjoint(device.getGeofenceIds(), changedGeofences)) {
+                affectedDevices.add(device);
+            }
+        }
+        return affectedDevices;
+    }
+
+    private static void snapshotDevices(
+            List<Device> devices, List<Position> lastPositions, List<List<Long>> previousGeofences) {
+        for (Device device : devices) {
+            previousGeofences.add(device.getGeofenceIds());
+            lastPositions.add(Context.getIdentityManager().getLastPosition(device.getId()));
+        }
+    }
 
-                    for (Device device : allDevices) {
-                        long groupId = device.getGroupId();
-                        while (groupId != 0) {
-                            getDeviceGeofences(deviceGeofencesWithGroups,
-                                    device.getId()).addAll(getGroupGeofences(groupId));
-                            if (Context.getDeviceManager().getGroupById(groupId) != null) {
-                                groupId = Context.getDeviceManager().getGroupById(groupId).getGroupId();
+    /**
+     * Must be called with device geofences write lock held. Devices that failed to compute keep their previous
+     * geofences, so that no false enter or exit events are generated, and are retried on the next refresh. Devices
+     * that received a new position or had their geofences set by event handler since the snapshot are skipped, because
+     * the computed result is already outdated.
+     */
+    private void setCurrentGeofences(List<Device> devices, List<Position> lastPositions,
+            List<List<Long>> previousGeofences, List<List<Long>> currentGeofences) {
+        for (int i = 0; i < devices.size(); i++) {
+            Device device = devices.get(i);
+            if (device.getGeofenceIds() != previousGeofences.get(i)
+                    || Context.getIdentityManager().getLastPosition(device.getId()) != lastPositions.get(i)) {
+                continue;
+            }
+            if (currentGeofences.get(i) != null) {
+                device.setGeofenceIds(currentGeofences.get(i));
+                failedDevices.remove(device.getId());
+            } else {
+                failedDevices.add(device.getId());
+            }
+        }
+    }
+
+    /**
+     * Devices that fail to compute get null result. Returns null if interrupted while waiting for parallel chunks.
+     */
+    private List<List<Long>> getCurrentGeofences(final List<Device> devices, final List<Position> lastPositions,
+            final Map<Long, Set<Long>> geofenceIds) {
+        final List<List<Long>> result = new ArrayList<>(Collections.<List<Long>>nCopies(devices.size(), null));
+        int threads = devices.size() < PARALLEL_THRESHOLD ? 1 : Runtime.getRuntime().availableProcessors();
+        int chunkSize = (devices.size() + threads - 1) / threads;
+        List<Future<?>> futures = new ArrayList<>();
+        for (int start = 0; start < devices.size(); start += chunkSize) {
+            final int from = start;
+            final int to = Math.min(start + chunkSize, devices.size());
+            Runnable task = new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = from; i < to; i++) {
+                        Device device = devices.get(i);
+                        Position lastPosition = lastPositions.get(i);
+                        try {
+                            if (lastPosition != null) {
+                                result.set(i, getCurrentGeofences(findGeofences(geofenceIds, device.getId()),
+                                        lastPosition.getLatitude(), lastPosition.getLongitude()));
                             } else {
-                                groupId = 0;
-                            }
-                        }
-                        List<Long> deviceGeofenceIds = device.getGeofenceIds();
-                        if (deviceGeofenceIds == null) {
-                            deviceGeofenceIds = new ArrayList<>();
-                        } else {
-                            deviceGeofenceIds.clear();
-                        }
-                        Position lastPosition = Context.getIdentityManager().getLastPosition(device.getId());
-                        if (lastPosition != null && deviceGeofencesWithGroups.containsKey(device.getId())) {
-                            for (long geofenceId : deviceGeofencesWithGroups.get(device.getId())) {
-                                Geofence geofence = getGeofence(geofenceId);
-                                if (geofence != null && geofence.getGeometry()
-                                        .containsPoint(lastPosition.getLatitude(), lastPosition.getLongitude())) {
-                                    deviceGeofenceIds.add(geofenceId);
-                                }
+                                result.set(i, new ArrayList<Long>());
                             }
+                        } catch (RuntimeException error) {
+                            Log.warning(error);
                         }
-                        device.setGeofenceIds(deviceGeofenceIds);
                     }
-
-                } finally {
-                    deviceGeofencesLock.writeLock().unlock();
-                    groupGeofencesLock.readLock().unlock();
                 }
-
-            } catch (SQLException error) {
+            };
+            if (to < devices.size()) {
+                futures.add(executor.submit(task));
+            } else {
+                task.run();
+            }
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException error) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException error) {
                 Log.warning(error);
             }
         }
+        return result;
     }
 
     public final Collection<Geofence> getAllGeofences() {
@@ -274,9 +422,11 @@ public class GeofenceManager {
     }
 
     public final void updateGeofence(Geofence geofence) {
+        Geofence cachedGeofence;
         geofencesLock.writeLock().lock();
         try {
-            geofences.put(geofence.getId(), geofence);
+            cachedGeofence = geofences.put(geofence.getId(), geofence);
+            updateGeofenceIndex();
         } finally {
             geofencesLock.writeLock().unlock();
         }
@@ -285,20 +435,86 @@ public class GeofenceManager {
         } catch (SQLException error) {
             Log.warning(error);
         }
+        if (cachedGeofence == null || !Objects.equals(cachedGeofence.getArea(), geofence.getArea())) {
+            updateDeviceGeofences(geofence.getId());
+        }
+    }
+
+    private synchronized void updateDeviceGeofences(long geofenceId) {
+        Map<Long, Set<Long>> geofenceIds;
+        deviceGeofencesLock.readLock().lock();
+        try {
+            geofenceIds = deviceGeofencesWithGroups;
+        } finally {
+            deviceGeofencesLock.readLock().unlock();
+        }
+        List<Device> affectedDevices = new ArrayList<>();
+        for (Map.Entry<Long, Set<Long>> entry : geofenceIds.entrySet()) {
+            if (entry.getValue().contains(geofenceId)) {
+                Device device = Context.getIdentityManager().getDeviceById(entry.getKey());
+                if (device != null) {
+                    affectedDevices.add(device);
+                }
+            }
+        }
+        List<Position> lastPositions = new ArrayList<>(affectedDevices.size());
+        List<List<Long>> previousGeofences = new ArrayList<>(affectedDevices.size());
+        snapshotDevices(affectedDevices, lastPositions, previousGeofences);
+        List<List<Long>> currentGeofences = getCurrentGeofences(affectedDevices, lastPositions, geofenceIds);
+        if (currentGeofences == null) {
+            return;
+        }
+        deviceGeofencesLock.writeLock().lock();
+        try {
+            setCurrentGeofences(affectedDevices, lastPositions, previousGeofences, currentGeofences);
+        } finally {
+            deviceGeofencesLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Sets geofences of device computed from a new position. Read lock is enough to exclude publishing of refresh
+     * results, while not serializing event handlers of different devices.
+     */
+    public void setCurrentDeviceGeofences(Device device, List<Long> geofenceIds) {
+        deviceGeofencesLock.readLock().lock();
+        try {
+            device.setGeofenceIds(geofenceIds);
+        } finally {
+            deviceGeofencesLock.readLock().unlock();
+        }
     }
 
     public boolean checkGeofence(long userId, long geofenceId) {
         return getUserGeofencesIds(userId).contains(geofenceId);
     }
 
-    public List<Long> getCurrentDeviceGeofences(Position position) {
+    private void updateGeofenceIndex() {
+        Map<Long, GeofenceGeometry> geometries = new HashMap<>();
+        for (Geofence geofence : geofences.values()) {
+            geometries.put(geofence.getId(), geofence.getGeometry());
+        }
+        geofenceIndex = new GeofenceIndex(geometries);
+    }
+
+    private List<Long> getCurrentGeofences(Set<Long> geofenceIds, double latitude, double longitude) {
         List<Long> result = new ArrayList<>();
-        for (long geofenceId : getAllDeviceGeofences(position.getDeviceId())) {
-            if (getGeofence(geofenceId).getGeometry().containsPoint(position.getLatitude(), position.getLongitude())) {
-                result.add(geofenceId);
+        if (!geofenceIds.isEmpty()) {
+            for (long geofenceId : geofenceIndex.find(latitude, longitude)) {
+                if (geofenceIds.contains(geofenceId)) {
+                    Geofence geofence = getGeofence(geofenceId);
+                    if (geofence != null && geofence.getGeometry().containsPoint(latitude, longitude)) {
+                        result.add(geofenceId);
+                    }
+                }
             }
         }
         return result;
     }
 
+    public List<Long> getCurrentDeviceGeofences(Position position) {
+        return getCurrentGeofences(
+                getAllDeviceGeofences(position.getDeviceId()), position.getLatitude(), position.getLongitude());
+    }
+
 }
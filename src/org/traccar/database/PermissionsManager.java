@@ -17,6 +17,7 @@ package org.traccar.database;
 
 import org.traccar.Context;
 import org.traccar.helper.Log;
+import org.traccar.helper.LongSet;
 import org.traccar.model.Device;
 import org.traccar.model.DevicePermission;
 import org.traccar.model.Group;
@@ -25,94 +26,174 @@ import org.traccar.model.Server;
 import org.traccar.model.User;
 import org.traccar.model.UserPermission;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.bind.DatatypeConverter;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class PermissionsManager {
 
+    public static final long DEFAULT_LOGIN_CACHE_TIMEOUT = 60;
+    public static final int MAX_LOGIN_CACHE = 10000;
+
     private final DataManager dataManager;
 
     private volatile Server server;
 
     private final Map<Long, User> users = new ConcurrentHashMap<>();
-    private final Map<String, Long> usersTokens = new HashMap<>();
+    private final Map<String, Long> usersTokens = new ConcurrentHashMap<>();
 
-    private final Map<Long, Set<Long>> groupPermissions = new HashMap<>();
-    private final Map<Long, Set<Long>> devicePermissions = new HashMap<>();
-    private final Map<Long, Set<Long>> deviceUsers = new HashMap<>();
-    private final Map<Long, Set<Long>> groupDevices = new HashMap<>();
+    /**
+     * Immutable permissions state. Refresh builds a new snapshot and publishes it, so readers never see partially
+     * updated maps.
+     */
+    private static final class Permissions {
 
-    private final Map<Long, Set<Long>> userPermissions = new HashMap<>();
+        private final Map<Long, LongSet> groupPermissions;
+        private final Map<Long, LongSet> devicePermissions;
+        private final Map<Long, LongSet> deviceUsers;
+        private final Map<Long, LongSet> groupDevices;
+        private final Map<Long, LongSet> userPermissions;
 
-    public Set<Long> getGroupPermissions(long userId) {
-        if (!groupPermissions.containsKey(userId)) {
-            groupPermissions.put(userId, new HashSet<Long>());
+        private Permissions(
+                Map<Long, LongSet> groupPermissions, Map<Long, LongSet> devicePermissions,
+                Map<Long, LongSet> deviceUsers, Map<Long, LongSet> groupDevices,
+                Map<Long, LongSet> userPermissions) {
+            this.groupPermissions = groupPermissions;
+            this.devicePermissions = devicePermissions;
+            this.deviceUsers = deviceUsers;
+            this.groupDevices = groupDevices;
+            this.userPermissions = userPermissions;
         }
-        return groupPermissions.get(userId);
+
     }
 
-    public Set<Long> getDevicePermissions(long userId) {
-        if (!devicePermissions.containsKey(userId)) {
-            devicePermissions.put(userId, new HashSet<Long>());
+    private final AtomicReference<Permissions> permissions = new AtomicReference<>(new Permissions(
+            Collections.<Long, LongSet>emptyMap(), Collections.<Long, LongSet>emptyMap(),
+            Collections.<Long, LongSet>emptyMap(), Collections.<Long, LongSet>emptyMap(),
+            Collections.<Long, LongSet>emptyMap()));
+
+    private volatile GroupTree groupTree;
+
+    private static final class CachedLogin {
+
+        private final long userId;
+        private final long expirationTime;
+
+        private CachedLogin(long userId, long expirationTime) {
+            this.userId = userId;
+            this.expirationTime = expirationTime;
         }
-        return devicePermissions.get(userId);
+
     }
 
-    public Set<Long> getDeviceUsers(long deviceId) {
-        if (!deviceUsers.containsKey(deviceId)) {
-            deviceUsers.put(deviceId, new HashSet<Long>());
-        }
-        return deviceUsers.get(deviceId);
+    private final long loginCacheTimeout;
+    private final SecretKeySpec loginCacheSecret;
+    private final ConcurrentMap<String, CachedLogin> loginCache = new ConcurrentHashMap<>();
+    private final AtomicLong loginCacheVersion = new AtomicLong();
+
+    private static LongSet get(Map<Long, LongSet> map, long key) {
+        LongSet result = map.get(key);
+        return result != null ? result : LongSet.EMPTY;
     }
 
-    public Set<Long> getGroupDevices(long groupId) {
-        if (!groupDevices.containsKey(groupId)) {
-            groupDevices.put(groupId, new HashSet<Long>());
+    private static Map<Long, LongSet> toLongSets(Map<Long, Set<Long>> map) {
+        Map<Long, LongSet> result = new HashMap<>(map.size() * 4 / 3 + 1);
+        for (Map.Entry<Long, Set<Long>> entry : map.entrySet()) {
+            result.put(entry.getKey(), LongSet.of(entry.getValue()));
         }
-        return groupDevices.get(groupId);
+        return result;
     }
 
-    public Set<Long> getUserPermissions(long userId) {
-        if (!userPermissions.containsKey(userId)) {
-            userPermissions.put(userId, new HashSet<Long>());
+    private static void add(Map<Long, Set<Long>> map, long key, long value) {
+        Set<Long> values = map.get(key);
+        if (values == null) {
+            values = new HashSet<>();
+            map.put(key, values);
         }
-        return userPermissions.get(userId);
+        values.add(value);
+    }
+
+    public LongSet getGroupPermissions(long userId) {
+        return get(permissions.get().groupPermissions, userId);
+    }
+
+    public LongSet getDevicePermissions(long userId) {
+        return get(permissions.get().devicePermissions, userId);
+    }
+
+    public LongSet getDeviceUsers(long deviceId) {
+        return get(permissions.get().deviceUsers, deviceId);
+    }
+
+    public LongSet getGroupDevices(long groupId) {
+        return get(permissions.get().groupDevices, groupId);
+    }
+
+    public LongSet getUserPermissions(long userId) {
+        return get(permissions.get().userPermissions, userId);
     }
 
     public PermissionsManager(DataManager dataManager) {
         this.dataManager = dataManager;
+        loginCacheTimeout = Context.getConfig().getLong(
+                "web.loginCacheTimeout", DEFAULT_LOGIN_CACHE_TIMEOUT) * 1000;
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        loginCacheSecret = new SecretKeySpec(secret, "HmacSHA256");
         refreshUsers();
         refreshPermissions();
         refreshUserPermissions();
     }
 
     public final void refreshUsers() {
-        users.clear();
-        usersTokens.clear();
         try {
             server = dataManager.getServer();
+            Set<Long> databaseUsers = new HashSet<>();
+            Set<String> databaseTokens = new HashSet<>();
             for (User user : dataManager.getUsers()) {
+                databaseUsers.add(user.getId());
                 users.put(user.getId(), user);
                 if (user.getToken() != null) {
+                    databaseTokens.add(user.getToken());
                     usersTokens.put(user.getToken(), user.getId());
                 }
             }
+            users.keySet().retainAll(databaseUsers);
+            usersTokens.keySet().retainAll(databaseTokens);
+            loginCacheVersion.incrementAndGet();
+            loginCache.clear();
         } catch (SQLException error) {
             Log.warning(error);
         }
     }
 
     public final void refreshUserPermissions() {
-        userPermissions.clear();
         try {
+            Map<Long, Set<Long>> userPermissions = new HashMap<>();
             for (UserPermission permission : dataManager.getUserPermissions()) {
-                getUserPermissions(permission.getUserId()).add(permission.getManagedUserId());
+                add(userPermissions, permission.getUserId(), permission.getManagedUserId());
+            }
+            Map<Long, LongSet> result = toLongSets(userPermissions);
+            synchronized (this) {
+                Permissions current = permissions.get();
+                permissions.set(new Permissions(
+                        current.groupPermissions, current.devicePermissions,
+                        current.deviceUsers, current.groupDevices, result));
             }
         } catch (SQLException error) {
             Log.warning(error);
@@ -120,42 +201,102 @@ public class PermissionsManager {
     }
 
     public final void refreshPermissions() {
-        groupPermissions.clear();
-        devicePermissions.clear();
         try {
-            GroupTree groupTree = new GroupTree(Context.getDeviceManager().getAllGroups(),
+            GroupTree tree = new GroupTree(Context.getDeviceManager().getAllGroups(),
                     Context.getDeviceManager().getAllDevices());
+            Map<Long, Set<Long>> groupPermissions = new HashMap<>();
+            Map<Long, Set<Long>> devicePermissions = new HashMap<>();
             for (GroupPermission permission : dataManager.getGroupPermissions()) {
-                Set<Long> userGroupPermissions = getGroupPermissions(permission.getUserId());
-                Set<Long> userDevicePermissions = getDevicePermissions(permission.getUserId());
-                userGroupPermissions.add(permission.getGroupId());
-                for (Group group : groupTree.getGroups(permission.getGroupId())) {
-                    userGroupPermissions.add(group.getId());
+                add(groupPermissions, permission.getUserId(), permission.getGroupId());
+                for (Group group : tree.getGroups(permission.getGroupId())) {
+                    add(groupPermissions, permission.getUserId(), group.getId());
                 }
-                for (Device device : groupTree.getDevices(permission.getGroupId())) {
-                    userDevicePermissions.add(device.getId());
+                for (Device device : tree.getDevices(permission.getGroupId())) {
+                    add(devicePermissions, permission.getUserId(), device.getId());
                 }
             }
             for (DevicePermission permission : dataManager.getDevicePermissions()) {
-                getDevicePermissions(permission.getUserId()).add(permission.getDeviceId());
+                add(devicePermissions, permission.getUserId(), permission.getDeviceId());
             }
 
-            groupDevices.clear();
+            Map<Long, Set<Long>> groupDevices = new HashMap<>();
             for (Group group : Context.getDeviceManager().getAllGroups()) {
-                for (Device device : groupTree.getDevices(group.getId())) {
-                    getGroupDevices(group.getId()).add(device.getId());
+                for (Device device : tree.getDevices(group.getId())) {
+                    add(groupDevices, group.getId(), device.getId());
                 }
             }
 
+            Map<Long, Set<Long>> deviceUsers = new HashMap<>();
+            for (Map.Entry<Long, Set<Long>> entry : devicePermissions.entrySet()) {
+                for (long deviceId : entry.getValue()) {
+                    add(deviceUsers, deviceId, entry.getKey());
+                }
+            }
+
+            Map<Long, LongSet> groupPermissionsResult = toLongSets(groupPermissions);
+            Map<Long, LongSet> devicePermissionsResult = toLongSets(devicePermissions);
+            Map<Long, LongSet> deviceUsersResult = toLongSets(deviceUsers);
+            Map<Long, LongSet> groupDevicesResult = toLongSets(groupDevices);
+            synchronized (this) {
+                groupTree = tree;
+                permissions.set(new Permissions(
+                        groupPermissionsResult, devicePermissionsResult, deviceUsersResult, groupDevicesResult,
+                        permissions.get().userPermissions));
+            }
         } catch (SQLException error) {
             Log.warning(error);
         }
+    }
 
-        deviceUsers.clear();
-        for (Map.Entry<Long, Set<Long>> entry : devicePermissions.entrySet()) {
-            for (long deviceId : entry.getValue()) {
-                getDeviceUsers(deviceId).add(entry.getKey());
+    /**
+     * Recalculates permissions of a single user using cached group tree. The tree is rebuilt by full refresh
+     * whenever device or group membership changes.
+     */
+    public void refreshPermissions(long userId) {
+        GroupTree tree = groupTree;
+        if (tree == null) {
+            refreshPermissions();
+            return;
+        }
+        try {
+            Set<Long> userGroupPermissions = new HashSet<>();
+            Set<Long> userDevicePermissions = new HashSet<>();
+            for (GroupPermission permission : dataManager.getGroupPermissions(userId)) {
+                userGroupPermissions.add(permission.getGroupId());
+                for (Group group : tree.getGroups(permission.getGroupId())) {
+                    userGroupPermissions.add(group.getId());
+                }
+                for (Device device : tree.getDevices(permission.getGroupId())) {
+                    userDevicePermissions.add(device.getId());
+                }
+            }
+            for (DevicePermission permission : dataManager.getDevicePermissions(userId)) {
+                userDevicePermissions.add(permission.getDeviceId());
+            }
+            LongSet groupResult = LongSet.of(userGroupPermissions);
+            LongSet deviceResult = LongSet.of(userDevicePermissions);
+
+            synchronized (this) {
+                Permissions current = permissions.get();
+                Map<Long, LongSet> groupPermissions = new HashMap<>(current.groupPermissions);
+                Map<Long, LongSet> devicePermissions = new HashMap<>(current.devicePermissions);
+                Map<Long, LongSet> deviceUsers = new HashMap<>(current.deviceUsers);
+                for (long deviceId : get(current.devicePermissions, userId)) {
+                    if (!deviceResult.contains(deviceId)) {
+                        deviceUsers.put(deviceId, get(deviceUsers, deviceId).without(userId));
+                    }
+                }
+                for (long deviceId : deviceResult) {
+                    deviceUsers.put(deviceId, get(deviceUsers, deviceId).with(userId));
+                }
+                groupPermissions.put(userId, groupResult);
+                devicePermissions.put(userId, deviceResult);
+                permissions.set(new Permissions(
+                        groupPermissions, devicePermissions, deviceUsers,
+                        current.groupDevices, current.userPermissions));
             }
+        } catch (SQLException error) {
+            Log.warning(error);
         }
     }
 
@@ -181,14 +322,14 @@ public class PermissionsManager {
 
     public void checkManager(long userId, long managedUserId) throws SecurityException {
         checkManager(userId);
-        if (!userPermissions.get(userId).contains(managedUserId)) {
+        if (!getUserPermissions(userId).contains(managedUserId)) {
             throw new SecurityException("User access denied");
         }
     }
 
     public void checkUserLimit(long userId) throws SecurityException {
         int userLimit = users.get(userId).getUserLimit();
-        if (userLimit != -1 && userPermissions.get(userId).size() >= userLimit) {
+        if (userLimit != -1 && getUserPermissions(userId).size() >= userLimit) {
             throw new SecurityException("Manager user limit reached");
         }
     }
@@ -358,7 +499,7 @@ public class PermissionsManager {
         if (user.getToken() != null) {
             usersTokens.put(user.getToken(), user.getId());
         }
-        refreshPermissions();
+        refreshPermissions(user.getId());
     }
 
     public void updateUser(User user) throws SQLException {
@@ -371,21 +512,83 @@ public class PermissionsManager {
         if (old.getToken() != null && !old.getToken().equals(user.getToken())) {
             usersTokens.remove(old.getToken());
         }
-        refreshPermissions();
+        invalidateLogins(user.getId());
+        refreshPermissions(user.getId());
     }
 
     public void removeUser(long userId) throws SQLException {
         dataManager.removeUser(userId);
         usersTokens.remove(users.get(userId).getToken());
         users.remove(userId);
+        invalidateLogins(userId);
         refreshPermissions();
         refreshUserPermissions();
     }
 
+    private String getLoginCacheKey(String email, String password) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(loginCacheSecret);
+            mac.update(email.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return DatatypeConverter.printBase64Binary(mac.doFinal(password.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new SecurityException(e);
+        }
+    }
+
+    private void invalidateLogins(long userId) {
+        loginCacheVersion.incrementAndGet();
+        for (Map.Entry<String, CachedLogin> entry : loginCache.entrySet()) {
+            if (entry.getValue().userId == userId) {
+                loginCache.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void cacheLogin(String key, long userId, long version) {
+        long currentTime = System.currentTimeMillis();
+        if (loginCache.size() >= MAX_LOGIN_CACHE) {
+            for (Map.Entry<String, CachedLogin> entry : loginCache.entrySet()) {
+                if (entry.getValue().expirationTime <= currentTime) {
+                    loginCache.remove(entry.getKey(), entry.getValue());
+                }
+            }
+            if (loginCache.size() >= MAX_LOGIN_CACHE) {
+                loginCache.clear();
+            }
+        }
+        CachedLogin cachedLogin = new CachedLogin(userId, currentTime + loginCacheTimeout);
+        loginCache.put(key, cachedLogin);
+        if (version != loginCacheVersion.get()) {
+            loginCache.remove(key, cachedLogin);
+        }
+    }
+
+    /**
+     * Verifies user credentials. Successful logins are remembered for "web.loginCacheTimeout" seconds under a keyed
+     * hash of email and password, so repeated requests skip database query and password hashing.
+     */
     public User login(String email, String password) throws SQLException {
+        String key = null;
+        long version = loginCacheVersion.get();
+        if (loginCacheTimeout > 0 && email != null && password != null) {
+            key = getLoginCacheKey(email, password);
+            CachedLogin cachedLogin = loginCache.get(key);
+            if (cachedLogin != null && cachedLogin.expirationTime > System.currentTimeMillis()) {
+                User user = users.get(cachedLogin.userId);
+                if (user != null) {
+                    checkUserEnabled(user.getId());
+                    return user;
+                }
+            }
+        }
         User user = dataManager.login(email, password);
         if (user != null) {
             checkUserEnabled(user.getId());
+            if (key != null) {
+                cacheLogin(key, user.getId(), version);
+            }
             return users.get(user.getId());
         }
         return null;
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2017 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.database;
+
+import org.traccar.Config;
+import org.traccar.Context;
+import org.traccar.helper.Log;
+import org.traccar.model.Position;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLSyntaxErrorException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of positions that could not be stored in the database because it was unavailable. Each record
+ * is length, CRC32 checksum and JSON payload; a truncated record or invalid checksum marks the end of valid data in a
+ * segment. Replay progress is kept in a checkpoint file together with the range of the batch being inserted, so that
+ * the batch can be deduplicated against the database after a crash. Records that the database keeps rejecting are
+ * moved to a quarantine file, so they don't block replay of the following ones.
+ */
+public class PositionSpool implements Runnable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    public static final long DEFAULT_REPLAY_INTERVAL = 10000;
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final long DEFAULT_SYNC_INTERVAL = 1000;
+
+    private static final String SEGMENT_PREFIX = "spool-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final String QUARANTINE_FILE = "quarantine.json";
+    private static final int HEADER_SIZE = 4 + 8;
+
+    private final DataManager dataManager;
+    private final File directory;
+    private final int segmentSize;
+    private final long replayInterval;
+    private final int batchSize;
+    private final long syncInterval;
+    private final Thread thread;
+
+    private long activeSequence;
+    private FileChannel activeChannel;
+    private long lastSync;
+    private volatile boolean running = true;
+
+    public PositionSpool(DataManager dataManager) throws IOException {
+        this(dataManager, Context.getConfig());
+        thread.start();
+    }
+
+    PositionSpool(DataManager dataManager, Config config) throws IOException {
+        this.dataManager = dataManager;
+        directory = new File(config.getString("database.spool.directory"));
+        segmentSize = config.getInteger("database.spool.segmentSize", DEFAULT_SEGMENT_SIZE);
+        replayInterval = config.getLong("database.spool.replayInterval", DEFAULT_REPLAY_INTERVAL);
+        batchSize = config.getInteger("database.spool.batchSize", DEFAULT_BATCH_SIZE);
+        syncInterval = config.getLong("database.spool.syncInterval", DEFAULT_SYNC_INTERVAL);
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create spool directory " + directory);
+        }
+        TreeMap<Long, File> segments = getSegments();
+        activeSequence = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+
+        thread = new Thread(this, "position-spool");
+        thread.setDaemon(true);
+    }
+
+    private TreeMap<Long, File> getSegments() {
+        TreeMap<Long, File> segments = new TreeMap<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    segments.put(Long.parseLong(
+                            name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), file);
+                }
+            }
+        }
+        return segments;
+    }
+
+    private File getSegmentFile(long sequence) {
+        return new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Returns true if error means that database is unavailable, as opposed to rejecting the data itself.
+     */
+    public static boolean isTransient(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                if (cause instanceof SQLDataException || cause instanceof SQLIntegrityConstraintViolationException
+                        || cause instanceof SQLSyntaxErrorException) {
+                    return false;
+                }
+                String state = ((SQLException) cause).getSQLState();
+                return state == null || !(state.startsWith("22") || state.startsWith("23") || state.startsWith("42"));
+            }
+        }
+        return false;
+    }
+
+    private static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    public synchronized boolean addPosition(Position position) {
+        if (!running) {
+            return false;
+        }
+        try {
+            if (position.getServerTime() == null) {
+                position.setServerTime(new Date());
+            }
+            byte[] data = Context.getObjectMapper().writeValueAsBytes(position);
+            if (HEADER_SIZE + data.length > segmentSize) {
+                Log.warning("Position is too large for spool segment");
+                return false;
+            }
+            if (activeChannel != null && activeChannel.size() + HEADER_SIZE + data.length > segmentSize) {
+                closeSegment();
+            }
+            if (activeChannel == null) {
+                activeChannel = FileChannel.open(getSegmentFile(activeSequence).toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + data.length);
+            buffer.putInt(data.length);
+            buffer.putLong(checksum(data));
+            buffer.put(data);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                activeChannel.write(buffer);
+            }
+            long currentTime = System.currentTimeMillis();
+            if (currentTime - lastSync >= syncInterval) {
+                activeChannel.force(false);
+                lastSync = currentTime;
+            }
+            return true;
+        } catch (IOException error) {
+            Log.warning(error);
+            return false;
+        }
+    }
+
+    private synchronized void closeSegment() {
+        if (activeChannel != null) {
+            try {
+                activeChannel.force(false);
+                activeChannel.close();
+            } catch (IOException error) {
+                Log.warning(error);
+            }
+            activeChannel = null;
+            activeSequence += 1;
+        }
+    }
+
+    private synchronized void syncSegment() {
+        if (activeChannel != null) {
+            try {
+                activeChannel.force(false);
+                lastSync = System.currentTimeMillis();
+            } catch (IOException error) {
+                Log.warning(error);
+            }
+        }
+    }
+
+    /**
+     * Closes active segment if it has data and there are no other segments waiting for replay. During database outage
+     * this happens only once, so new segments are not created on every replay attempt.
+     */
+    private synchronized TreeMap<Long, File> getReplaySegments() throws IOException {
+        TreeMap<Long, File> segments = getSegments();
+        segments.remove(activeSequence);
+        if (segments.isEmpty() && activeChannel != null && activeChannel.size() > 0) {
+            long sequence = activeSequence;
+            closeSegment();
+            segments.put(sequence, getSegmentFile(sequence));
+        }
+        return segments;
+    }
+
+    private static final class SegmentReader implements Closeable {
+
+        private final FileChannel channel;
+        private final DataInputStream input;
+        private final int segmentSize;
+        private long offset;
+        private boolean end;
+
+        private SegmentReader(File file, long offset, int segmentSize) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            channel.position(offset);
+            input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            this.segmentSize = segmentSize;
+            this.offset = offset;
+        }
+
+        private List<Position> read(int limit) throws IOException {
+            List<Position> positions = new ArrayList<>();
+            while (!end && positions.size() < limit) {
+                byte[] data;
+                long checksum;
+                try {
+                    int length = input.readInt();
+                    checksum = input.readLong();
+                    if (length <= 0 || length > segmentSize) {
+                        end = true;
+                        break;
+                    }
+                    data = new byte[length];
+                    input.readFully(data);
+                } catch (EOFException error) {
+                    end = true;
+                    break;
+                }
+                if (checksum(data) != checksum) {
+                    Log.warning("Spool record checksum mismatch, discarding remaining segment data");
+                    end = true;
+                    break;
+                }
+                positions.add(Context.getObjectMapper().readValue(data, Position.class));
+                offset += HEADER_SIZE + data.length;
+            }
+            return positions;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+    }
+
+    private long[] readCheckpoint() throws IOException {
+        File file = new File(directory, CHECKPOINT_FILE);
+        if (file.exists()) {
+            String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII);
+            String[] values = content.trim().split(" ");
+            if (values.length == 3) {
+                return new long[] {Long.parseLong(values[0]), Long.parseLong(values[1]), Long.parseLong(values[2])};
+            }
+        }
+        return new long[] {0, 0, 0};
+    }
+
+    private void writeCheckpoint(long sequence, long offset, long pendingOffset) throws IOException {
+        File temporary = new File(directory, CHECKPOINT_FILE + ".tmp");
+        try (RandomAccessFile file = new RandomAccessFile(temporary, "rw")) {
+            file.setLength(0);
+            file.write((sequence + " " + offset + " " + pendingOffset).getBytes(StandardCharsets.US_ASCII));
+            file.getFD().sync();
+        }
+        Files.move(temporary.toPath(), new File(directory, CHECKPOINT_FILE).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Times are compared with second precision, because some databases don't keep milliseconds.
+     */
+    private boolean isStored(Position position) throws SQLException {
+        long fixTime = position.getFixTime().getTime() / 1000;
+        Collection<Position> stored = dataManager.getPositions(
+                position.getDeviceId(), new Date(fixTime * 1000), new Date(fixTime * 1000 + 999));
+        for (Position storedPosition : stored) {
+            if (storedPosition.getFixTime().getTime() / 1000 == fixTime
+                    && storedPosition.getLatitude() == position.getLatitude()
+                    && storedPosition.getLongitude() == position.getLongitude()
+                    && storedPosition.getServerTime().getTime() / 1000 == position.getServerTime().getTime() / 1000) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void quarantine(Position position, SQLException error) throws IOException {
+        Log.warning("Spooled position rejected by database, moving to quarantine", error);
+        byte[] data = Context.getObjectMapper().writeValueAsBytes(position);
+        try (FileChannel channel = FileChannel.open(new File(directory, QUARANTINE_FILE).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.allocate(data.length + 1);
+            buffer.put(data).put((byte) '\n').flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Inserts batch at once and falls back to single rows if the database rejects it. Rows that fail on their own
+     * are quarantined. Failure caused by database outage is passed to the caller, so the batch is replayed later.
+     */
+    private void insert(List<Position> positions) throws IOException, SQLException {
+        try {
+            dataManager.addPositions(positions, true);
+        } catch (SQLException error) {
+            if (isTransient(error)) {
+                throw error;
+            }
+            for (Position position : positions) {
+                try {
+                    if (!isStored(position)) {
+                        dataManager.addPositions(Collections.singletonList(position), true);
+                    }
+                } catch (SQLException positionError) {
+                    if (isTransient(positionError)) {
+                        throw positionError;
+                    }
+                    quarantine(position, positionError);
+                }
+            }
+        }
+    }
+
+    void replay() throws IOException, SQLException {
+        TreeMap<Long, File> segments = getReplaySegments();
+        long[] checkpoint = readCheckpoint();
+        for (Long sequence : segments.keySet()) {
+            File segment = segments.get(sequence);
+            long offset = sequence == checkpoint[0] ? checkpoint[1] : 0;
+            try (SegmentReader reader = new SegmentReader(segment, offset, segmentSize)) {
+                while (running) {
+                    List<Position> positions = reader.read(batchSize);
+                    if (positions.isEmpty()) {
+                        break;
+                    }
+                    long nextOffset = reader.offset;
+                    if (sequence == checkpoint[0] && offset == checkpoint[1] && checkpoint[2] != 0) {
+                        Iterator<Position> iterator = positions.iterator();
+                        while (iterator.hasNext()) {
+                            if (isStored(iterator.next())) {
+                                iterator.remove();
+                            }
+                        }
+                    }
+                    writeCheckpoint(sequence, offset, nextOffset);
+                    if (!positions.isEmpty()) {
+                        insert(positions);
+                    }
+                    writeCheckpoint(sequence, nextOffset, 0);
+                    checkpoint = new long[] {sequence, nextOffset, 0};
+                    offset = nextOffset;
+                }
+            }
+            if (!running) {
+                return;
+            }
+            Files.delete(segment.toPath());
+            Log.info("Replayed spool segment " + segment.getName());
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            syncSegment();
+            try {
+                replay();
+            } catch (IOException | SQLException error) {
+                Log.warning(error);
+            }
+            try {
+                Thread.sleep(replayInterval);
+            } catch (InterruptedException error) {
+                Log.debug("Position spool interrupted");
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException error) {
+            Log.warning(error);
+        }
+        closeSegment();
+    }
+
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2017 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.database;
+
+import org.traccar.Config;
+import org.traccar.Context;
+import org.traccar.helper.Log;
+import org.traccar.model.Position;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores positions in batches on a background thread. Callbacks of stored positions are run on a set of threads
+ * selected by device id, so positions of one device are handed downstream in the order they were received, while
+ * different devices are processed in parallel.
+ */
+public class PositionWriter implements Runnable {
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+    public static final int DEFAULT_QUEUE_SIZE = 10000;
+    public static final int DEFAULT_CALLBACK_QUEUE_SIZE = 100;
+
+    public interface PositionWriterCallback {
+
+        void onSuccess(Position position);
+
+        void onFailure(Position position, Throwable e);
+
+    }
+
+    private static final class Entry {
+
+        private final Position position;
+        private final PositionWriterCallback callback;
+
+        private Entry(Position position, PositionWriterCallback callback) {
+            this.position = position;
+            this.callback = callback;
+        }
+
+    }
+
+    private final DataManager dataManager;
+    private final int batchSize;
+    private final long flushInterval;
+    private final BlockingQueue<Entry> queue;
+    private final ThreadPoolExecutor[] callbackExecutors;
+    private final Thread thread;
+
+    private volatile boolean running = true;
+
+    public PositionWriter(DataManager dataManager) {
+        this.dataManager = dataManager;
+        Config config = Context.getConfig();
+        batchSize = config.getInteger("database.writeBehind.batchSize", DEFAULT_BATCH_SIZE);
+        flushInterval = config.getLong("database.writeBehind.flushInterval", DEFAULT_FLUSH_INTERVAL);
+        queue = new ArrayBlockingQueue<>(config.getInteger("database.writeBehind.queueSize", DEFAULT_QUEUE_SIZE));
+
+        ThreadFactory threadFactory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "position-writer-callback");
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        // full callback queue blocks the writer thread, so that the write queue fills up instead
+        RejectedExecutionHandler rejectedExecutionHandler = new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+                if (!executor.isShutdown()) {
+                    try {
+                        executor.getQueue().put(runnable);
+                    } catch (InterruptedException error) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+        int callbackQueueSize = config.getInteger(
+                "database.writeBehind.callbackQueueSize", DEFAULT_CALLBACK_QUEUE_SIZE);
+        callbackExecutors = new ThreadPoolExecutor[Math.max(1, config.getInteger(
+                "database.writeBehind.callbackThreads", Runtime.getRuntime().availableProcessors()))];
+        for (int i = 0; i < callbackExecutors.length; i++) {
+            callbackExecutors[i] = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(callbackQueueSize), threadFactory, rejectedExecutionHandler);
+        }
+
+        thread = new Thread(this, "position-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Queues position for storage without waiting. It returns false when the queue is full or the writer is stopped;
+     * the caller then stores the position directly, which can hand it downstream before earlier positions of the same
+     * device that are still queued.
+     */
+    public boolean addPosition(Position position, PositionWriterCallback callback) {
+        return running && queue.offer(new Entry(position, callback));
+    }
+
+    public void stop() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException error) {
+            Log.warning(error);
+        }
+        for (ThreadPoolExecutor callbackExecutor : callbackExecutors) {
+            callbackExecutor.shutdown();
+        }
+    }
+
+    @Override
+    public void run() {
+        List<Entry> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.currentTimeMillis() + flushInterval;
+                while (batch.size() < batchSize) {
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long delay = deadline - System.currentTimeMillis();
+                    if (batch.size() >= batchSize || delay <= 0) {
+                        break;
+                    }
+                    Entry entry = queue.poll(delay, TimeUnit.MILLISECONDS);
+                    if (entry == null) {
+                        break;
+                    }
+                    batch.add(entry);
+                }
+            } catch (InterruptedException error) {
+                Log.debug("Position writer interrupted");
+            }
+            flush(batch);
+        }
+        while (queue.drainTo(batch, batchSize) > 0) {
+            flush(batch);
+        }
+    }
+
+    private void flush(List<Entry> batch) {
+        if (!batch.isEmpty()) {
+            writeBatch(new ArrayList<>(batch));
+            batch.clear();
+        }
+    }
+
+    private void writeBatch(final List<Entry> batch) {
+        List<Position> positions = new ArrayList<>(batch.size());
+        for (Entry entry : batch) {
+            positions.add(entry.position);
+        }
+
+        Throwable failure = null;
+        long startTime = System.currentTimeMillis();
+        try {
+            dataManager.addPositions(positions);
+        } catch (SQLException error) {
+            failure = error;
+        }
+
+        if (Context.getStatisticsManager() != null) {
+            Context.getStatisticsManager().registerBatchStored(
+                    System.currentTimeMillis() - startTime, queue.size());
+        }
+
+        List<List<Entry>> stripes = new ArrayList<>(callbackExecutors.length);
+        for (int i = 0; i < callbackExecutors.length; i++) {
+            stripes.add(null);
+        }
+        for (Entry entry : batch) {
+            int index = (int) ((entry.position.getDeviceId() & Long.MAX_VALUE) % callbackExecutors.length);
+            if (stripes.get(index) == null) {
+                stripes.set(index, new ArrayList<Entry>());
+            }
+            stripes.get(index).add(entry);
+        }
+
+        final Throwable error = failure;
+        for (int i = 0; i < callbackExecutors.length; i++) {
+            final List<Entry> entries = stripes.get(i);
+            if (entries != null) {
+                callbackExecutors[i].execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (Entry entry : entries) {
+                            if (error == null) {
+                                entry.callback.onSuccess(entry.position);
+                            } else {
+                                entry.callback.onFailure(entry.position, error);
+                            }
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+}
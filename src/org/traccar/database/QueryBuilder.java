@@ -32,38 +32,98 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.sql.Types;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public final class QueryBuilder {
 
-    private final Map<String, List<Integer>> indexMap = new HashMap<>();
+    private static final int[] NO_INDEXES = new int[0];
+
+    private static final Map<String, QueryPlan> QUERY_PLANS = new ConcurrentHashMap<>();
+
+    private static final class QueryPlan {
+
+        private final String parsedQuery;
+        private final Map<String, int[]> indexMap;
+        private final Map<Class<?>, List<ObjectBinder>> binders = new ConcurrentHashMap<>();
+        private final Map<Class<?>, List<ResultSetProcessor<?>>> processors = new ConcurrentHashMap<>();
+
+        private QueryPlan(String parsedQuery, Map<String, int[]> indexMap) {
+            this.parsedQuery = parsedQuery;
+            this.indexMap = indexMap;
+        }
+
+    }
+
+    private static final class ObjectBinder {
+
+        private final Method method;
+        private final Class<?> type;
+        private final int[] indexes;
+        private final boolean nullIfZero;
+
+        private ObjectBinder(Method method, int[] indexes) {
+            this.method = method;
+            this.type = method.getReturnType();
+            this.indexes = indexes;
+            this.nullIfZero = method.getName().endsWith("Id");
+        }
+
+    }
+
+    private final QueryPlan plan;
     private Connection connection;
     private PreparedStatement statement;
     private final String query;
     private final boolean returnGeneratedKeys;
+    private int fetchSize;
+    private int batchCount;
 
     private QueryBuilder(DataSource dataSource, String query, boolean returnGeneratedKeys) throws SQLException {
         this.query = query;
         this.returnGeneratedKeys = returnGeneratedKeys;
         if (query != null) {
+            plan = getPlan(query);
             connection = dataSource.getConnection();
-            String parsedQuery = parse(query.trim(), indexMap);
             try {
                 if (returnGeneratedKeys) {
-                    statement = connection.prepareStatement(parsedQuery, Statement.RETURN_GENERATED_KEYS);
+                    statement = connection.prepareStatement(plan.parsedQuery, Statement.RETURN_GENERATED_KEYS);
                 } else {
-                    statement = connection.prepareStatement(parsedQuery);
+                    statement = connection.prepareStatement(plan.parsedQuery);
                 }
             } catch (SQLException error) {
                 connection.close();
                 throw error;
             }
+        } else {
+            plan = null;
+        }
+    }
+
+    private static QueryPlan getPlan(String query) {
+        QueryPlan plan = QUERY_PLANS.get(query);
+        if (plan == null) {
+            Map<String, List<Integer>> paramMap = new HashMap<>();
+            String parsedQuery = parse(query.trim(), paramMap);
+            Map<String, int[]> indexMap = new HashMap<>();
+            for (Map.Entry<String, List<Integer>> entry : paramMap.entrySet()) {
+                int[] indexes = new int[entry.getValue().size()];
+                int i = 0;
+                for (int index : entry.getValue()) {
+                    indexes[i++] = index;
+                }
+                indexMap.put(entry.getKey(), indexes);
+            }
+            plan = new QueryPlan(parsedQuery, indexMap);
+            QUERY_PLANS.put(query, plan);
         }
+        return plan;
     }
 
     private static String parse(String query, Map<String, List<Integer>> paramMap) {
@@ -135,17 +195,23 @@ public final class QueryBuilder {
         return new QueryBuilder(dataSource, query, returnGeneratedKeys);
     }
 
-    private List<Integer> indexes(String name) {
-        name = name.toLowerCase();
-        List<Integer> result = indexMap.get(name);
+    private int[] indexes(String name) {
+        int[] result = null;
+        if (plan != null) {
+            result = plan.indexMap.get(name.toLowerCase());
+        }
         if (result == null) {
-            result = new LinkedList<>();
+            result = NO_INDEXES;
         }
         return result;
     }
 
     public QueryBuilder setBoolean(String name, boolean value) throws SQLException {
-        for (int i : indexes(name)) {
+        return setBoolean(indexes(name), value);
+    }
+
+    private QueryBuilder setBoolean(int[] indexes, boolean value) throws SQLException {
+        for (int i : indexes) {
             try {
                 statement.setBoolean(i, value);
             } catch (SQLException error) {
@@ -158,7 +224,11 @@ public final class QueryBuilder {
     }
 
     public QueryBuilder setInteger(String name, int value) throws SQLException {
-        for (int i : indexes(name)) {
+        return setInteger(indexes(name), value);
+    }
+
+    private QueryBuilder setInteger(int[] indexes, int value) throws SQLException {
+        for (int i : indexes) {
             try {
                 statement.setInt(i, value);
             } catch (SQLException error) {
@@ -175,7 +245,11 @@ public final class QueryBuilder {
     }
 
     public QueryBuilder setLong(String name, long value, boolean nullIfZero) throws SQLException {
-        for (int i : indexes(name)) {
+        return setLong(indexes(name), value, nullIfZero);
+    }
+
+    private QueryBuilder setLong(int[] indexes, long value, boolean nullIfZero) throws SQLException {
+        for (int i : indexes) {
             try {
                 if (value == 0 && nullIfZero) {
                     statement.setNull(i, Types.INTEGER);
@@ -192,7 +266,11 @@ public final class QueryBuilder {
     }
 
     public QueryBuilder setDouble(String name, double value) throws SQLException {
-        for (int i : indexes(name)) {
+        return setDouble(indexes(name), value);
+    }
+
+    private QueryBuilder setDouble(int[] indexes, double value) throws SQLException {
+        for (int i : indexes) {
             try {
                 statement.setDouble(i, value);
             } catch (SQLException error) {
@@ -205,7 +283,11 @@ public final class QueryBuilder {
     }
 
     public QueryBuilder setString(String name, String value) throws SQLException {
-        for (int i : indexes(name)) {
+        return setString(indexes(name), value);
+    }
+
+    private QueryBuilder setString(int[] indexes, String value) throws SQLException {
+        for (int i : indexes) {
             try {
                 if (value == null) {
                     statement.setNull(i, Types.VARCHAR);
@@ -222,7 +304,11 @@ public final class QueryBuilder {
     }
 
     public QueryBuilder setDate(String name, Date value) throws SQLException {
-        for (int i : indexes(name)) {
+        return setDate(indexes(name), value);
+    }
+
+    private QueryBuilder setDate(int[] indexes, Date value) throws SQLException {
+        for (int i : indexes) {
             try {
                 if (value == null) {
                     statement.setNull(i, Types.TIMESTAMP);
@@ -239,7 +325,11 @@ public final class QueryBuilder {
     }
 
     public QueryBuilder setBlob(String name, byte[] value) throws SQLException {
-        for (int i : indexes(name)) {
+        return setBlob(indexes(name), value);
+    }
+
+    private QueryBuilder setBlob(int[] indexes, byte[] value) throws SQLException {
+        for (int i : indexes) {
             try {
                 if (value == null) {
                     statement.setNull(i, Types.BLOB);
@@ -255,39 +345,57 @@ public final class QueryBuilder {
         return this;
     }
 
+    private List<ObjectBinder> getBinders(Class<?> clazz) {
+        List<ObjectBinder> binders = plan.binders.get(clazz);
+        if (binders == null) {
+            binders = new ArrayList<>();
+            for (Method method : clazz.getMethods()) {
+                if (method.getName().startsWith("get") && method.getParameterTypes().length == 0) {
+                    int[] indexes = indexes(method.getName().substring(3));
+                    if (indexes.length > 0) {
+                        binders.add(new ObjectBinder(method, indexes));
+                    }
+                }
+            }
+            plan.binders.put(clazz, binders);
+        }
+        return binders;
+    }
+
     public QueryBuilder setObject(Object object) throws SQLException {
 
-        Method[] methods = object.getClass().getMethods();
+        if (plan == null) {
+            return this;
+        }
 
-        for (Method method : methods) {
-            if (method.getName().startsWith("get") && method.getParameterTypes().length == 0) {
-                String name = method.getName().substring(3);
-                try {
-                    if (method.getReturnType().equals(boolean.class)) {
-                        setBoolean(name, (Boolean) method.invoke(object));
-                    } else if (method.getReturnType().equals(int.class)) {
-                        setInteger(name, (Integer) method.invoke(object));
-                    } else if (method.getReturnType().equals(long.class)) {
-                        setLong(name, (Long) method.invoke(object), name.endsWith("Id"));
-                    } else if (method.getReturnType().equals(double.class)) {
-                        setDouble(name, (Double) method.invoke(object));
-                    } else if (method.getReturnType().equals(String.class)) {
-                        setString(name, (String) method.invoke(object));
-                    } else if (method.getReturnType().equals(Date.class)) {
-                        setDate(name, (Date) method.invoke(object));
-                    } else if (method.getReturnType().equals(byte[].class)) {
-                        setBlob(name, (byte[]) method.invoke(object));
+        for (ObjectBinder binder : getBinders(object.getClass())) {
+            Method method = binder.method;
+            int[] indexes = binder.indexes;
+            try {
+                if (binder.type.equals(boolean.class)) {
+                    setBoolean(indexes, (Boolean) method.invoke(object));
+                } else if (binder.type.equals(int.class)) {
+                    setInteger(indexes, (Integer) method.invoke(object));
+                } else if (binder.type.equals(long.class)) {
+                    setLong(indexes, (Long) method.invoke(object), binder.nullIfZero);
+                } else if (binder.type.equals(double.class)) {
+                    setDouble(indexes, (Double) method.invoke(object));
+                } else if (binder.type.equals(String.class)) {
+                    setString(indexes, (String) method.invoke(object));
+                } else if (binder.type.equals(Date.class)) {
+                    setDate(indexes, (Date) method.invoke(object));
+                } else if (binder.type.equals(byte[].class)) {
+                    setBlob(indexes, (byte[]) method.invoke(object));
+                } else {
+                    if (binder.type.equals(Map.class)
+                            && Context.getConfig().getBoolean("database.xml")) {
+                        setString(indexes, MiscFormatter.toXmlString((Map) method.invoke(object)));
                     } else {
-                        if (method.getReturnType().equals(Map.class)
-                                && Context.getConfig().getBoolean("database.xml")) {
-                            setString(name, MiscFormatter.toXmlString((Map) method.invoke(object)));
-                        } else {
-                            setString(name, Context.getObjectMapper().writeValueAsString(method.invoke(object)));
-                        }
+                        setString(indexes, Context.getObjectMapper().writeValueAsString(method.invoke(object)));
                     }
-                } catch (IllegalAccessException | InvocationTargetException | JsonProcessingException error) {
-                    Log.warning(error);
                 }
+            } catch (IllegalAccessException | InvocationTargetException | JsonProcessingException error) {
+                Log.warning(error);
             }
         }
 
@@ -309,14 +417,14 @@ public final class QueryBuilder {
 
     private <T> void addProcessors(
             List<ResultSetProcessor<T>> processors,
-            final Class<?> parameterType, final Method method, final String name) {
+            final Class<?> parameterType, final Method method, final int column) {
 
         if (parameterType.equals(boolean.class)) {
             processors.add(new ResultSetProcessor<T>() {
                 @Override
                 public void process(T object, ResultSet resultSet) throws SQLException {
                     try {
-                        method.invoke(object, resultSet.getBoolean(name));
+                        method.invoke(object, resultSet.getBoolean(column));
                     } catch (IllegalAccessException | InvocationTargetException error) {
                         Log.warning(error);
                     }
@@ -327,7 +435,7 @@ public final class QueryBuilder {
                 @Override
                 public void process(T object, ResultSet resultSet) throws SQLException {
                     try {
-                        method.invoke(object, resultSet.getInt(name));
+                        method.invoke(object, resultSet.getInt(column));
                     } catch (IllegalAccessException | InvocationTargetException error) {
                         Log.warning(error);
                     }
@@ -338,7 +446,7 @@ public final class QueryBuilder {
                 @Override
                 public void process(T object, ResultSet resultSet) throws SQLException {
                     try {
-                        method.invoke(object, resultSet.getLong(name));
+                        method.invoke(object, resultSet.getLong(column));
                     } catch (IllegalAccessException | InvocationTargetException error) {
                         Log.warning(error);
                     }
@@ -349,7 +457,7 @@ public final class QueryBuilder {
                 @Override
                 public void process(T object, ResultSet resultSet) throws SQLException {
                     try {
-                        method.invoke(object, resultSet.getDouble(name));
+                        method.invoke(object, resultSet.getDouble(column));
                     } catch (IllegalAccessException | InvocationTargetException error) {
                         Log.warning(error);
                     }
@@ -360,7 +468,7 @@ public final class QueryBuilder {
                 @Override
                 public void process(T object, ResultSet resultSet) throws SQLException {
                     try {
-                        method.invoke(object, resultSet.getString(name));
+                        method.invoke(object, resultSet.getString(column));
                     } catch (IllegalAccessException | InvocationTargetException error) {
                         Log.warning(error);
                     }
@@ -371,7 +479,7 @@ public final class QueryBuilder {
                 @Override
                 public void process(T object, ResultSet resultSet) throws SQLException {
                     try {
-                        Timestamp timestamp = resultSet.getTimestamp(name);
+                        Timestamp timestamp = resultSet.getTimestamp(column);
                         if (timestamp != null) {
                             method.invoke(object, new Date(timestamp.getTime()));
                         }
@@ -385,7 +493,7 @@ public final class QueryBuilder {
                 @Override
                 public void process(T object, ResultSet resultSet) throws SQLException {
                     try {
-                        method.invoke(object, resultSet.getBytes(name));
+                        method.invoke(object, resultSet.getBytes(column));
                     } catch (IllegalAccessException | InvocationTargetException error) {
                         Log.warning(error);
                     }
@@ -395,7 +503,7 @@ public final class QueryBuilder {
             processors.add(new ResultSetProcessor<T>() {
                 @Override
                 public void process(T object, ResultSet resultSet) throws SQLException {
-                    String value = resultSet.getString(name);
+                    String value = resultSet.getString(column);
                     if (value != null && !value.isEmpty()) {
                         try {
                             method.invoke(object, Context.getObjectMapper().readValue(value, parameterType));
@@ -408,62 +516,110 @@ public final class QueryBuilder {
         }
     }
 
-    public <T> Collection<T> executeQuery(Class<T> clazz) throws SQLException {
-        List<T> result = new LinkedList<>();
+    @SuppressWarnings("unchecked")
+    private <T> List<ResultSetProcessor<T>> getProcessors(
+            Class<T> clazz, ResultSetMetaData resultMetaData) throws SQLException {
 
-        if (query != null) {
+        List<ResultSetProcessor<?>> cachedProcessors = plan.processors.get(clazz);
+        if (cachedProcessors != null) {
+            return (List<ResultSetProcessor<T>>) (List<?>) cachedProcessors;
+        }
 
-            try {
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = resultMetaData.getColumnCount(); i >= 1; i--) {
+            columns.put(resultMetaData.getColumnLabel(i).toLowerCase(), i);
+        }
 
-                try (ResultSet resultSet = statement.executeQuery()) {
+        List<ResultSetProcessor<T>> processors = new ArrayList<>();
+        for (final Method method : clazz.getMethods()) {
+            if (method.getName().startsWith("set") && method.getParameterTypes().length == 1) {
+                Integer column = columns.get(method.getName().substring(3).toLowerCase());
+                if (column != null) {
+                    addProcessors(processors, method.getParameterTypes()[0], method, column);
+                }
+            }
+        }
+
+        plan.processors.put(clazz, (List<ResultSetProcessor<?>>) (List<?>) processors);
+        return processors;
+    }
+
+    public QueryBuilder setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+        return this;
+    }
 
-                    ResultSetMetaData resultMetaData = resultSet.getMetaData();
+    public interface ResultHandler<T> {
+        void handleResult(T object) throws SQLException;
+    }
 
-                    List<ResultSetProcessor<T>> processors = new LinkedList<>();
+    public <T> Collection<T> executeQuery(Class<T> clazz) throws SQLException {
+        final List<T> result = new ArrayList<>();
+        executeQuery(clazz, new ResultHandler<T>() {
+            @Override
+            public void handleResult(T object) {
+                result.add(object);
+            }
+        });
+        return result;
+    }
 
-                    Method[] methods = clazz.getMethods();
+    public <T> void executeQuery(Class<T> clazz, ResultHandler<T> handler) throws SQLException {
 
-                    for (final Method method : methods) {
-                        if (method.getName().startsWith("set") && method.getParameterTypes().length == 1) {
+        if (query != null) {
 
-                            final String name = method.getName().substring(3);
+            try {
 
-                            // Check if column exists
-                            boolean column = false;
-                            for (int i = 1; i <= resultMetaData.getColumnCount(); i++) {
-                                if (name.equalsIgnoreCase(resultMetaData.getColumnLabel(i))) {
-                                    column = true;
-                                    break;
-                                }
-                            }
-                            if (!column) {
-                                continue;
-                            }
+                if (fetchSize != 0) {
+                    connection.setAutoCommit(false); // required for cursor based fetching
+                    statement.setFetchSize(fetchSize);
+                }
 
-                            addProcessors(processors, method.getParameterTypes()[0], method, name);
-                        }
-                    }
+                try (ResultSet resultSet = statement.executeQuery()) {
+
+                    List<ResultSetProcessor<T>> processors = getProcessors(clazz, resultSet.getMetaData());
 
                     while (resultSet.next()) {
+                        T object;
                         try {
-                            T object = clazz.newInstance();
+                            object = clazz.newInstance();
                             for (ResultSetProcessor<T> processor : processors) {
                                 processor.process(object, resultSet);
                             }
-                            result.add(object);
                         } catch (InstantiationException | IllegalAccessException e) {
                             throw new IllegalArgumentException();
                         }
+                        handler.handleResult(object);
                     }
                 }
 
+            } finally {
+                try {
+                    if (fetchSize != 0) {
+                        connection.rollback();
+                        connection.setAutoCommit(true);
+                    }
+                } finally {
+                    statement.close();
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    public long executeQueryLong() throws SQLException {
+
+        if (query != null) {
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    return resultSet.getLong(1);
+                }
             } finally {
                 statement.close();
                 connection.close();
             }
         }
-
-        return result;
+        return 0;
     }
 
     public long executeUpdate() throws SQLException {
@@ -485,4 +641,61 @@ public final class QueryBuilder {
         return 0;
     }
 
+    public QueryBuilder addBatch() throws SQLException {
+        if (query != null) {
+            try {
+                statement.addBatch();
+                batchCount += 1;
+            } catch (SQLException error) {
+                statement.close();
+                connection.close();
+                throw error;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Executes batch and returns generated keys if requested. With generated keys, the batch runs in a transaction
+     * that is rolled back if the driver doesn't return a key for every row, and null is returned in that case.
+     */
+    public List<Long> executeBatch() throws SQLException {
+        List<Long> result = new ArrayList<>();
+        if (query != null) {
+            boolean committed = true;
+            try {
+                if (returnGeneratedKeys) {
+                    connection.setAutoCommit(false);
+                    committed = false;
+                }
+                statement.executeBatch();
+                if (returnGeneratedKeys) {
+                    try (ResultSet resultSet = statement.getGeneratedKeys()) {
+                        while (resultSet.next()) {
+                            result.add(resultSet.getLong(1));
+                        }
+                    }
+                    if (result.size() != batchCount) {
+                        return null;
+                    }
+                    connection.commit();
+                    committed = true;
+                }
+            } finally {
+                try {
+                    if (returnGeneratedKeys) {
+                        if (!committed) {
+                            connection.rollback();
+                        }
+                        connection.setAutoCommit(true);
+                    }
+                } finally {
+                    statement.close();
+                    connection.close();
+                }
+            }
+        }
+        return result;
+    }
+
 }
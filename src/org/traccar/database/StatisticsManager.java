@@ -16,13 +16,16 @@
 package org.traccar.database;
 
 import org.traccar.Context;
+import org.traccar.geocoder.AddressCache;
 import org.traccar.helper.Log;
 import org.traccar.model.Statistics;
 
 import java.sql.SQLException;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 public class StatisticsManager {
@@ -38,6 +41,17 @@ public class StatisticsManager {
     private int messagesReceived;
     private int messagesStored;
 
+    private int batchesStored;
+    private long batchesLatency;
+    private int maxQueueDepth;
+
+    private long geocoderCacheHits;
+    private long geocoderCacheMisses;
+    private long geocoderCacheEvictions;
+
+    private Map<String, Integer> throttled = new HashMap<>();
+    private Map<String, Integer> shed = new HashMap<>();
+
     private void checkSplit() {
         int currentUpdate = Calendar.getInstance().get(SPLIT_MODE);
         if (lastUpdate != currentUpdate) {
@@ -48,6 +62,26 @@ public class StatisticsManager {
             statistics.setRequests(requests);
             statistics.setMessagesReceived(messagesReceived);
             statistics.setMessagesStored(messagesStored);
+            if (batchesStored > 0) {
+                statistics.set("batchesStored", batchesStored);
+                statistics.set("batchLatency", batchesLatency / batchesStored);
+                statistics.set("maxQueueDepth", maxQueueDepth);
+            }
+            AddressCache addressCache = Context.getAddressCache();
+            if (addressCache != null) {
+                statistics.set("geocoderCacheHits", addressCache.getHits() - geocoderCacheHits);
+                statistics.set("geocoderCacheMisses", addressCache.getMisses() - geocoderCacheMisses);
+                statistics.set("geocoderCacheEvictions", addressCache.getEvictions() - geocoderCacheEvictions);
+                geocoderCacheHits = addressCache.getHits();
+                geocoderCacheMisses = addressCache.getMisses();
+                geocoderCacheEvictions = addressCache.getEvictions();
+            }
+            for (Map.Entry<String, Integer> entry : throttled.entrySet()) {
+                statistics.set("throttled." + entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<String, Integer> entry : shed.entrySet()) {
+                statistics.set("shed." + entry.getKey(), entry.getValue());
+            }
 
             try {
                 Context.getDataManager().addStatistics(statistics);
@@ -60,6 +94,11 @@ public class StatisticsManager {
             requests = 0;
             messagesReceived = 0;
             messagesStored = 0;
+            batchesStored = 0;
+            batchesLatency = 0;
+            maxQueueDepth = 0;
+            throttled.clear();
+            shed.clear();
             lastUpdate = currentUpdate;
         }
     }
@@ -85,4 +124,26 @@ public class StatisticsManager {
         }
     }
 
+    public synchronized void registerBatchStored(long latency, int queueDepth) {
+        checkSplit();
+        batchesStored += 1;
+        batchesLatency += latency;
+        maxQueueDepth = Math.max(maxQueueDepth, queueDepth);
+    }
+
+    private static void increment(Map<String, Integer> counters, String key) {
+        Integer value = counters.get(key);
+        counters.put(key, value != null ? value + 1 : 1);
+    }
+
+    public synchronized void registerThrottled(String protocol) {
+        checkSplit();
+        increment(throttled, protocol);
+    }
+
+    public synchronized void registerShed(String protocol) {
+        checkSplit();
+        increment(shed, protocol);
+    }
+
 }
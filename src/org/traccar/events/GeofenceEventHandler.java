@@ -53,7 +53,7 @@ public class GeofenceEventHandler extends BaseEventHandler {
         newGeofences.removeAll(oldGeofences);
         oldGeofences.removeAll(currentGeofences);
 
-        device.setGeofenceIds(currentGeofences);
+        geofenceManager.setCurrentDeviceGeofences(device, currentGeofences);
 
         Collection<Event> events = new ArrayList<>();
         for (long geofenceId : newGeofences) {
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2017 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.geocoder;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Address cache keyed by grid cell of fixed decimal precision. Default precision of seven decimal places (about a
+ * centimeter) only merges coordinates that are equal in practice; lower "geocoder.cachePrecision" lets nearby
+ * coordinates share the same entry. Entries are split between independently locked LRU segments and expire after
+ * the timeout.
+ */
+public class AddressCache {
+
+    public static final long DEFAULT_TIMEOUT = 24 * 60 * 60;
+    public static final int MAX_PRECISION = 7;
+    public static final int DEFAULT_PRECISION = MAX_PRECISION;
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private static final class Entry {
+
+        private final String address;
+        private final long expirationTime;
+
+        private Entry(String address, long expirationTime) {
+            this.address = address;
+            this.expirationTime = expirationTime;
+        }
+
+    }
+
+    private final List<Map<Long, Entry>> segments;
+    private final long timeout;
+    private final double scale;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public AddressCache(int size) {
+        this(size, DEFAULT_TIMEOUT * 1000, DEFAULT_PRECISION);
+    }
+
+    public AddressCache(int size, long timeout, int precision) {
+        this.timeout = timeout;
+        this.scale = getScale(precision);
+        int segmentCount = Math.max(1, Math.min(size, MAX_SEGMENTS));
+        segments = new ArrayList<>(segmentCount);
+        final int segmentSize = Math.max(1, size / segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            segments.add(new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                    if (size() > segmentSize) {
+                        evictions.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            });
+        }
+    }
+
+    static double getScale(int precision) {
+        return Math.pow(10, Math.max(0, Math.min(precision, MAX_PRECISION)));
+    }
+
+    static long getKey(double latitude, double longitude, double scale) {
+        long latitudeIndex = Math.round(latitude * scale);
+        long longitudeIndex = Math.round(longitude * scale);
+        return latitudeIndex << 32 | longitudeIndex & 0xffffffffL;
+    }
+
+    public long getKey(double latitude, double longitude) {
+        return getKey(latitude, longitude, scale);
+    }
+
+    private Map<Long, Entry> getSegment(long key) {
+        long hash = key * 0x9e3779b97f4a7c15L;
+        return segments.get((int) ((hash >>> 32) % segments.size()));
+    }
+
+    public String get(double latitude, double longitude) {
+        long key = getKey(latitude, longitude);
+        Map<Long, Entry> segment = getSegment(key);
+        synchronized (segment) {
+            Entry entry = segment.get(key);
+            if (entry != null) {
+                if (timeout <= 0 || System.currentTimeMillis() < entry.expirationTime) {
+                    hits.incrementAndGet();
+                    return entry.address;
+                }
+                segment.remove(key);
+                evictions.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(double latitude, double longitude, String address) {
+        long key = getKey(latitude, longitude);
+        Map<Long, Entry> segment = getSegment(key);
+        synchronized (segment) {
+            segment.put(key, new Entry(address, System.currentTimeMillis() + timeout));
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Map<Long, Entry> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2017 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.geocoder;
+
+import org.traccar.helper.Log;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps geocoded addresses in an embedded H2 database file in front of another geocoder. The file is opened on first
+ * request and can be shared by several servers. Lookups run on a small pool of reader threads with their own
+ * connections, so the calling thread never waits for the disk. New and reused addresses are written in batches by a
+ * background thread, which also removes least recently used rows when the file grows over the size limit.
+ */
+public class DiskCacheGeocoder implements Geocoder, Runnable {
+
+    public static final int DEFAULT_SIZE = 1000000;
+    public static final int DEFAULT_READERS = 2;
+    public static final int BATCH_SIZE = 100;
+    public static final int QUEUE_SIZE = 10000;
+    public static final int COMPACT_BATCH_SIZE = 1000;
+
+    private static final class Entry {
+
+        private final long key;
+        private final String address;
+
+        private Entry(long key, String address) {
+            this.key = key;
+            this.address = address;
+        }
+
+    }
+
+    private final Geocoder geocoder;
+    private final AddressCache cache;
+    private final String url;
+    private final int size;
+    private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final ExecutorService readExecutor;
+    private final ThreadLocal<Connection> readConnection = new ThreadLocal<>();
+
+    private Connection writeConnection;
+    private int written;
+
+    public DiskCacheGeocoder(Geocoder geocoder, AddressCache cache, String path, int size) {
+        this(geocoder, cache, path, size, DEFAULT_READERS);
+    }
+
+    public DiskCacheGeocoder(Geocoder geocoder, AddressCache cache, String path, int size, int readers) {
+        this.geocoder = geocoder;
+        this.cache = cache;
+        this.url = "jdbc:h2:" + path + ";AUTO_SERVER=TRUE";
+        this.size = size;
+        readExecutor = new ThreadPoolExecutor(readers, readers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "geocoder-cache-reader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private synchronized void initialize() throws SQLException {
+        if (writeConnection == null) {
+            Connection connection = DriverManager.getConnection(url);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE IF NOT EXISTS address_cache ("
+                        + "cell BIGINT PRIMARY KEY, address VARCHAR NOT NULL, time BIGINT NOT NULL)");
+                statement.execute("CREATE INDEX IF NOT EXISTS address_cache_time ON address_cache (time)");
+            }
+            writeConnection = connection;
+            Thread thread = new Thread(this, "geocoder-cache");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private String findAddress(long key) throws SQLException {
+        Connection connection = readConnection.get();
+        if (connection == null) {
+            initialize();
+            connection = DriverManager.getConnection(url);
+            readConnection.set(connection);
+        }
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT address FROM address_cache WHERE cell = ?")) {
+            statement.setLong(1, key);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() ? resultSet.getString(1) : null;
+            }
+        }
+    }
+
+    private void writeAddresses(List<Entry> entries) throws SQLException {
+        try (PreparedStatement statement = writeConnection.prepareStatement(
+                "MERGE INTO address_cache (cell, address, time) KEY (cell) VALUES (?, ?, ?)")) {
+            long time = System.currentTimeMillis();
+            for (Entry entry : entries) {
+                statement.setLong(1, entry.key);
+                statement.setString(2, entry.address);
+                statement.setLong(3, time);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+        written += entries.size();
+        if (written >= size / 10) {
+            written = 0;
+            compact();
+        }
+    }
+
+    /**
+     * Removes least recently used rows in small chunks, so that lookups from other connections are not held back.
+     */
+    private void compact() throws SQLException {
+        int count;
+        try (Statement statement = writeConnection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM address_cache")) {
+            resultSet.next();
+            count = resultSet.getInt(1);
+        }
+        if (count > size) {
+            int remaining = count - size + size / 10;
+            try (PreparedStatement statement = writeConnection.prepareStatement(
+                    "DELETE FROM address_cache WHERE cell IN "
+                    + "(SELECT cell FROM address_cache ORDER BY time LIMIT ?)")) {
+                while (remaining > 0) {
+                    statement.setInt(1, Math.min(remaining, COMPACT_BATCH_SIZE));
+                    int deleted = statement.executeUpdate();
+                    if (deleted == 0) {
+                        break;
+                    }
+                    remaining -= deleted;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        List<Entry> batch = new ArrayList<>(BATCH_SIZE);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(queue.take());
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                writeAddresses(batch);
+            } catch (InterruptedException error) {
+                Thread.currentThread().interrupt();
+            } catch (SQLException error) {
+                Log.warning(error);
+            }
+            batch.clear();
+        }
+    }
+
+    private void store(long key, String address) {
+        if (!queue.offer(new Entry(key, address))) {
+            Log.debug("Geocoder cache queue is full");
+        }
+    }
+
+    private void findAddress(
+            final AddressFormat format, final double latitude, final double longitude, final long key,
+            final ReverseGeocoderCallback callback) {
+        try {
+            String storedAddress = findAddress(key);
+            if (storedAddress != null) {
+                cache.put(latitude, longitude, storedAddress);
+                store(key, storedAddress);
+                callback.onSuccess(storedAddress);
+                return;
+            }
+        } catch (SQLException error) {
+            Log.warning(error);
+        }
+        requestAddress(format, latitude, longitude, key, callback);
+    }
+
+    private void requestAddress(
+            AddressFormat format, final double latitude, final double longitude, final long key,
+            final ReverseGeocoderCallback callback) {
+        geocoder.getAddress(format, latitude, longitude, new ReverseGeocoderCallback() {
+            @Override
+            public void onSuccess(String address) {
+                cache.put(latitude, longitude, address);
+                store(key, address);
+                callback.onSuccess(address);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                callback.onFailure(e);
+            }
+        });
+    }
+
+    @Override
+    public void getAddress(
+            final AddressFormat format, final double latitude, final double longitude,
+            final ReverseGeocoderCallback callback) {
+
+        String cachedAddress = cache.get(latitude, longitude);
+        if (cachedAddress != null) {
+            callback.onSuccess(cachedAddress);
+            return;
+        }
+
+        final long key = cache.getKey(latitude, longitude);
+        try {
+            readExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    findAddress(format, latitude, longitude, key, callback);
+                }
+            });
+        } catch (RejectedExecutionException error) {
+            Log.debug("Geocoder cache lookup queue is full");
+            requestAddress(format, latitude, longitude, key, callback);
+        }
+    }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2017 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.geocoder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Governs requests to an external geocoder. Concurrent requests for the same grid cell share a single call. The grid
+ * matches the address cache precision unless a coarser one is configured, for example to coalesce jittering positions
+ * of parked vehicles. With a rate limit, calls consume tokens from a bucket and wait in a bounded queue when it is
+ * empty. Requests that do not fit into the queue or wait longer than the timeout fail immediately, so positions are
+ * not held back.
+ */
+public class GeocoderLimiter {
+
+    public static final int DEFAULT_QUEUE_SIZE = 1000;
+    public static final long DEFAULT_QUEUE_TIMEOUT = 10;
+
+    private static final long MIN_PERIOD = 10;
+
+    public interface Request {
+
+        void execute(Geocoder.ReverseGeocoderCallback callback);
+
+    }
+
+    private final class PendingRequest implements Geocoder.ReverseGeocoderCallback {
+
+        private final long key;
+        private final Request request;
+        private final long time = System.currentTimeMillis();
+        private final List<Geocoder.ReverseGeocoderCallback> callbacks = new ArrayList<>(1);
+
+        private PendingRequest(long key, Request request, Geocoder.ReverseGeocoderCallback callback) {
+            this.key = key;
+            this.request = request;
+            callbacks.add(callback);
+        }
+
+        private List<Geocoder.ReverseGeocoderCallback> complete() {
+            synchronized (GeocoderLimiter.this) {
+                if (pendingRequests.get(key) == this) {
+                    pendingRequests.remove(key);
+                }
+                List<Geocoder.ReverseGeocoderCallback> result = new ArrayList<>(callbacks);
+                callbacks.clear();
+                return result;
+            }
+        }
+
+        @Override
+        public void onSuccess(String address) {
+            for (Geocoder.ReverseGeocoderCallback callback : complete()) {
+                callback.onSuccess(address);
+            }
+        }
+
+        @Override
+        public void onFailure(Throwable e) {
+            for (Geocoder.ReverseGeocoderCallback callback : complete()) {
+                callback.onFailure(e);
+            }
+        }
+
+    }
+
+    private final double scale;
+    private final double rate;
+    private final double burst;
+    private final int queueSize;
+    private final long queueTimeout;
+
+    private final Map<Long, PendingRequest> pendingRequests = new HashMap<>();
+    private final Queue<PendingRequest> queue = new ArrayDeque<>();
+
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    public GeocoderLimiter(int precision, double rate, double burst, int queueSize, long queueTimeout) {
+        this.scale = AddressCache.getScale(precision);
+        this.rate = rate;
+        this.burst = Math.max(1, burst);
+        this.queueSize = queueSize;
+        this.queueTimeout = queueTimeout;
+        tokens = this.burst;
+        if (rate > 0) {
+            long period = Math.max(MIN_PERIOD, (long) (1000 / rate));
+            new Timer("geocoder-limiter", true).scheduleAtFixedRate(new TimerTask() {
+                @Override
+                public void run() {
+                    processQueue();
+                }
+            }, period, period);
+        }
+    }
+
+    private boolean acquire() {
+        if (rate <= 0) {
+            return true;
+        }
+        long currentTime = System.nanoTime();
+        tokens = Math.min(burst, tokens + (currentTime - lastRefill) * rate / 1000000000);
+        lastRefill = currentTime;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    public void submit(double latitude, double longitude, Geocoder.ReverseGeocoderCallback callback, Request request) {
+        long key = AddressCache.getKey(latitude, longitude, scale);
+        PendingRequest pendingRequest;
+        boolean execute = false;
+        synchronized (this) {
+            pendingRequest = pendingRequests.get(key);
+            if (pendingRequest != null) {
+                pendingRequest.callbacks.add(callback);
+                return;
+            }
+            pendingRequest = new PendingRequest(key, request, callback);
+            if (queue.isEmpty() && acquire()) {
+                execute = true;
+            } else if (queue.size() < queueSize) {
+                queue.add(pendingRequest);
+            } else {
+                pendingRequest = null;
+            }
+            if (pendingRequest != null) {
+                pendingRequests.put(key, pendingRequest);
+            }
+        }
+        if (pendingRequest == null) {
+            callback.onFailure(new GeocoderException("Geocoder queue is full"));
+        } else if (execute) {
+            execute(pendingRequest);
+        }
+    }
+
+    private void execute(PendingRequest pendingRequest) {
+        try {
+            pendingRequest.request.execute(pendingRequest);
+        } catch (RuntimeException error) {
+            pendingRequest.onFailure(error);
+        }
+    }
+
+    private void processQueue() {
+        List<PendingRequest> ready = new ArrayList<>();
+        List<PendingRequest> expired = new ArrayList<>();
+        synchronized (this) {
+            long currentTime = System.currentTimeMillis();
+            while (!queue.isEmpty()) {
+                PendingRequest pendingRequest = queue.peek();
+                if (currentTime - pendingRequest.time > queueTimeout) {
+                    expired.add(queue.poll());
+                } else if (acquire()) {
+                    ready.add(queue.poll());
+                } else {
+                    break;
+                }
+            }
+        }
+        for (PendingRequest pendingRequest : expired) {
+            pendingRequest.onFailure(new GeocoderException("Geocoder queue timeout"));
+        }
+        for (PendingRequest pendingRequest : ready) {
+            execute(pendingRequest);
+        }
+    }
+
+    public synchronized int getQueueDepth() {
+        return queue.size();
+    }
+
+}
@@ -17,47 +17,68 @@ package org.traccar.geocoder;
 
 import com.ning.http.client.AsyncCompletionHandler;
 import com.ning.http.client.Response;
+import org.traccar.Config;
 import org.traccar.Context;
 
 import javax.json.Json;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
-import java.util.AbstractMap;
-import java.util.Collections;
-import java.util.LinkedHashMap;
-import java.util.Map;
 
 public abstract class JsonGeocoder implements Geocoder {
 
     private final String url;
 
-    private Map<Map.Entry<Double, Double>, String> cache;
+    private AddressCache cache;
 
     public JsonGeocoder(String url, final int cacheSize) {
         this.url = url;
         if (cacheSize > 0) {
-            this.cache = Collections.synchronizedMap(new LinkedHashMap<Map.Entry<Double, Double>, String>() {
-                @Override
-                protected boolean removeEldestEntry(Map.Entry eldest) {
-                    return size() > cacheSize;
-                }
-            });
+            Config config = Context.getConfig();
+            this.cache = new AddressCache(cacheSize,
+                    config.getLong("geocoder.cacheTimeout", AddressCache.DEFAULT_TIMEOUT) * 1000,
+                    config.getInteger("geocoder.cachePrecision", AddressCache.DEFAULT_PRECISION));
         }
     }
 
+    public AddressCache getCache() {
+        return cache;
+    }
+
+    private GeocoderLimiter limiter;
+
+    public void setLimiter(GeocoderLimiter limiter) {
+        this.limiter = limiter;
+    }
+
     @Override
     public void getAddress(
             final AddressFormat format, final double latitude,
             final double longitude, final ReverseGeocoderCallback callback) {
 
         if (cache != null) {
-            String cachedAddress = cache.get(new AbstractMap.SimpleImmutableEntry<>(latitude, longitude));
+            String cachedAddress = cache.get(latitude, longitude);
             if (cachedAddress != null) {
                 callback.onSuccess(cachedAddress);
                 return;
             }
         }
 
+        if (limiter != null) {
+            limiter.submit(latitude, longitude, callback, new GeocoderLimiter.Request() {
+                @Override
+                public void execute(ReverseGeocoderCallback requestCallback) {
+                    requestAddress(format, latitude, longitude, requestCallback);
+                }
+            });
+        } else {
+            requestAddress(format, latitude, longitude, callback);
+        }
+    }
+
+    private void requestAddress(
+            final AddressFormat format, final double latitude,
+            final double longitude, final ReverseGeocoderCallback callback) {
+
         Context.getAsyncHttpClient().prepareGet(String.format(url, latitude, longitude))
                 .execute(new AsyncCompletionHandler() {
             @Override
@@ -67,7 +88,7 @@ public abstract class JsonGeocoder implements Geocoder {
                     if (address != null) {
                         String formattedAddress = format.format(address);
                         if (cache != null) {
-                            cache.put(new AbstractMap.SimpleImmutableEntry<>(latitude, longitude), formattedAddress);
+                            cache.put(latitude, longitude, formattedAddress);
                         }
                         callback.onSuccess(formattedAddress);
                     } else {
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.geocoder;
+
+import org.traccar.helper.LocationTree;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Resolves the nearest place from a local GeoNames dump (tab separated, for example cities1000.txt) without any
+ * network requests.
+ */
+public class OfflineGeocoder implements Geocoder {
+
+    private static final int COLUMN_NAME = 1;
+    private static final int COLUMN_LATITUDE = 4;
+    private static final int COLUMN_LONGITUDE = 5;
+    private static final int COLUMN_COUNTRY = 8;
+    private static final int COLUMN_STATE = 10;
+
+    private final LocationTree tree;
+
+    public OfflineGeocoder(String file) throws IOException {
+        List<LocationTree.Item> items = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] values = line.split("\t");
+                if (values.length > COLUMN_STATE) {
+                    try {
+                        items.add(new LocationTree.Item(
+                                Float.parseFloat(values[COLUMN_LATITUDE]), Float.parseFloat(values[COLUMN_LONGITUDE]),
+                                values[COLUMN_NAME] + '\t' + values[COLUMN_STATE] + '\t' + values[COLUMN_COUNTRY]));
+                    } catch (NumberFormatException error) {
+                        continue;
+                    }
+                }
+            }
+        }
+        tree = new LocationTree(items);
+    }
+
+    private static String getValue(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    @Override
+    public void getAddress(AddressFormat format, double latitude, double longitude, ReverseGeocoderCallback callback) {
+        LocationTree.Item item = tree.findNearest((float) latitude, (float) longitude);
+        if (item != null) {
+            String[] values = item.getData().split("\t", -1);
+            Address address = new Address();
+            address.setSettlement(getValue(values[0]));
+            address.setState(getValue(values[1]));
+            address.setCountry(getValue(values[2]));
+            callback.onSuccess(format.format(address));
+        } else {
+            callback.onFailure(new GeocoderException("Empty address"));
+        }
+    }
+
+}
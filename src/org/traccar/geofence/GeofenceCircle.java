@@ -25,6 +25,7 @@ public class GeofenceCircle extends GeofenceGeometry {
     private double centerLatitude;
     private double centerLongitude;
     private double radius;
+    private double[] bounds;
 
     public GeofenceCircle() {
     }
@@ -37,13 +38,26 @@ public class GeofenceCircle extends GeofenceGeometry {
         this.centerLatitude = latitude;
         this.centerLongitude = longitude;
         this.radius = radius;
+        updateBounds();
+    }
+
+    private void updateBounds() {
+        bounds = getBounds(centerLatitude, centerLongitude, centerLatitude, centerLongitude, radius);
     }
 
     @Override
     public boolean containsPoint(double latitude, double longitude) {
+        if (latitude < bounds[0] || latitude > bounds[2] || longitude < bounds[1] || longitude > bounds[3]) {
+            return false;
+        }
         return DistanceCalculator.distance(centerLatitude, centerLongitude, latitude, longitude) <= radius;
     }
 
+    @Override
+    public double[] getBounds() {
+        return bounds.clone();
+    }
+
     @Override
     public String toWkt() {
         String wkt = "";
@@ -90,5 +104,6 @@ public class GeofenceCircle extends GeofenceGeometry {
         } catch (NumberFormatException e) {
             throw new ParseException(commaTokens[1] + " is not a double", 0);
         }
+        updateBounds();
     }
 }
@@ -19,8 +19,39 @@ import java.text.ParseException;
 
 public abstract class GeofenceGeometry {
 
+    private static final double EARTH_RADIUS = 6378137;
+    private static final double MARGIN = 1.1;
+
     public abstract boolean containsPoint(double latitude, double longitude);
 
+    /**
+     * Returns bounding box as minimum latitude, minimum longitude, maximum latitude and maximum longitude. Any point
+     * contained in geometry is inside of the box.
+     */
+    public abstract double[] getBounds();
+
+    protected static double[] getBounds(
+            double minLatitude, double minLongitude, double maxLatitude, double maxLongitude, double distance) {
+        double angle = distance / EARTH_RADIUS * MARGIN;
+        minLatitude -= Math.toDegrees(angle);
+        maxLatitude += Math.toDegrees(angle);
+        if (minLatitude <= -90 || maxLatitude >= 90) {
+            return new double[] {Math.max(minLatitude, -90), -180, Math.min(maxLatitude, 90), 180};
+        }
+        double sin = Math.sin(Math.min(angle, Math.PI / 2))
+                / Math.cos(Math.toRadians(Math.max(Math.abs(minLatitude), Math.abs(maxLatitude))));
+        if (sin >= 1) {
+            return new double[] {minLatitude, -180, maxLatitude, 180};
+        }
+        double delta = Math.toDegrees(Math.asin(sin)) * MARGIN;
+        minLongitude -= delta;
+        maxLongitude += delta;
+        if (minLongitude < -180 || maxLongitude > 180 || maxLongitude - minLongitude > 180) {
+            return new double[] {minLatitude, -180, maxLatitude, 180};
+        }
+        return new double[] {minLatitude, minLongitude, maxLatitude, maxLongitude};
+    }
+
     public abstract String toWkt();
 
     public abstract void fromWkt(String wkt) throws ParseException;
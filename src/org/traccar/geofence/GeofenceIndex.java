@@ -0,0 +1,141 @@
+/*
+ * Copyright 2017 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.geofence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable R-tree of geofence bounding boxes packed with Sort-Tile-Recursive algorithm. Used to select geofences that
+ * can contain a point before running exact geometry checks.
+ */
+public class GeofenceIndex {
+
+    private static final int NODE_SIZE = 16;
+
+    private static final class Node {
+
+        private final long id;
+        private final Node[] children;
+        private double minLatitude = 90;
+        private double minLongitude = 180;
+        private double maxLatitude = -90;
+        private double maxLongitude = -180;
+
+        private Node(long id, double[] bounds) {
+            this.id = id;
+            this.children = null;
+            minLatitude = bounds[0];
+            minLongitude = bounds[1];
+            maxLatitude = bounds[2];
+            maxLongitude = bounds[3];
+        }
+
+        private Node(List<Node> children) {
+            this.id = 0;
+            this.children = children.toArray(new Node[children.size()]);
+            for (Node child : children) {
+                minLatitude = Math.min(minLatitude, child.minLatitude);
+                minLongitude = Math.min(minLongitude, child.minLongitude);
+                maxLatitude = Math.max(maxLatitude, child.maxLatitude);
+                maxLongitude = Math.max(maxLongitude, child.maxLongitude);
+            }
+        }
+
+        private boolean contains(double latitude, double longitude) {
+            return latitude >= minLatitude && latitude <= maxLatitude
+                    && longitude >= minLongitude && longitude <= maxLongitude;
+        }
+
+    }
+
+    private static final Comparator<Node> LATITUDE_ORDER = new Comparator<Node>() {
+        @Override
+        public int compare(Node node1, Node node2) {
+            return Double.compare(node1.minLatitude + node1.maxLatitude, node2.minLatitude + node2.maxLatitude);
+        }
+    };
+
+    private static final Comparator<Node> LONGITUDE_ORDER = new Comparator<Node>() {
+        @Override
+        public int compare(Node node1, Node node2) {
+            return Double.compare(node1.minLongitude + node1.maxLongitude, node2.minLongitude + node2.maxLongitude);
+        }
+    };
+
+    private final Node root;
+    private final int size;
+
+    public GeofenceIndex(Map<Long, GeofenceGeometry> geometries) {
+        List<Node> nodes = new ArrayList<>(geometries.size());
+        for (Map.Entry<Long, GeofenceGeometry> entry : geometries.entrySet()) {
+            if (entry.getValue() != null) {
+                nodes.add(new Node(entry.getKey(), entry.getValue().getBounds()));
+            }
+        }
+        size = nodes.size();
+        do {
+            nodes = pack(nodes);
+        } while (nodes.size() > 1);
+        root = nodes.isEmpty() ? null : nodes.get(0);
+    }
+
+    private static List<Node> pack(List<Node> nodes) {
+        int parentCount = (nodes.size() + NODE_SIZE - 1) / NODE_SIZE;
+        int sliceSize = (int) Math.ceil(Math.sqrt(parentCount)) * NODE_SIZE;
+        List<Node> parents = new ArrayList<>(parentCount);
+        Collections.sort(nodes, LONGITUDE_ORDER);
+        for (int i = 0; i < nodes.size(); i += sliceSize) {
+            List<Node> slice = nodes.subList(i, Math.min(i + sliceSize, nodes.size()));
+            Collections.sort(slice, LATITUDE_ORDER);
+            for (int j = 0; j < slice.size(); j += NODE_SIZE) {
+                parents.add(new Node(slice.subList(j, Math.min(j + NODE_SIZE, slice.size()))));
+            }
+        }
+        return parents;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns ids of geofences which bounding box contains the point.
+     */
+    public List<Long> find(double latitude, double longitude) {
+        List<Long> result = new ArrayList<>();
+        if (root != null) {
+            find(root, latitude, longitude, result);
+        }
+        return result;
+    }
+
+    private static void find(Node node, double latitude, double longitude, List<Long> result) {
+        if (node.contains(latitude, longitude)) {
+            if (node.children == null) {
+                result.add(node.id);
+            } else {
+                for (Node child : node.children) {
+                    find(child, latitude, longitude, result);
+                }
+            }
+        }
+    }
+
+}
@@ -16,7 +16,6 @@
 package org.traccar.geofence;
 
 import java.text.ParseException;
-import java.util.ArrayList;
 
 public class GeofencePolygon extends GeofenceGeometry {
 
@@ -27,57 +26,62 @@ public class GeofencePolygon extends GeofenceGeometry {
         fromWkt(wkt);
     }
 
-    private ArrayList<Coordinate> coordinates;
+    private double[] latitudes;
+    private double[] longitudes;
+    private double[] normalizedLongitudes;
 
     private double[] constant;
     private double[] multiple;
 
     private boolean needNormalize = false;
 
-    private void precalc() {
-        if (coordinates == null) {
-            return;
-        }
-
-        int polyCorners = coordinates.size();
-        int i;
-        int j = polyCorners - 1;
-
-        if (constant != null) {
-            constant = null;
-        }
-        if (multiple != null) {
-            multiple = null;
-        }
+    private double minLatitude;
+    private double minLongitude;
+    private double maxLatitude;
+    private double maxLongitude;
 
-        constant = new double[polyCorners];
-        multiple = new double[polyCorners];
+    private void precalc() {
+        int polyCorners = latitudes.length;
 
         boolean hasNegative = false;
         boolean hasPositive = false;
-        for (i = 0; i < polyCorners; i++) {
-            if (coordinates.get(i).getLon() > 90) {
+        for (int i = 0; i < polyCorners; i++) {
+            if (longitudes[i] > 90) {
                 hasPositive = true;
-            } else if (coordinates.get(i).getLon() < -90) {
+            } else if (longitudes[i] < -90) {
                 hasNegative = true;
             }
         }
         needNormalize = hasPositive && hasNegative;
 
-        for (i = 0; i < polyCorners; j = i++) {
-            if (normalizeLon(coordinates.get(j).getLon()) == normalizeLon(coordinates.get(i).getLon())) {
-                constant[i] = coordinates.get(i).getLat();
+        double[] normalized = new double[polyCorners];
+        minLatitude = 90;
+        minLongitude = Double.MAX_VALUE;
+        maxLatitude = -90;
+        maxLongitude = -Double.MAX_VALUE;
+        for (int i = 0; i < polyCorners; i++) {
+            normalized[i] = normalizeLon(longitudes[i]);
+            minLatitude = Math.min(minLatitude, latitudes[i]);
+            minLongitude = Math.min(minLongitude, normalized[i]);
+            maxLatitude = Math.max(maxLatitude, latitudes[i]);
+            maxLongitude = Math.max(maxLongitude, normalized[i]);
+        }
+
+        constant = new double[polyCorners];
+        multiple = new double[polyCorners];
+
+        for (int i = 0, j = polyCorners - 1; i < polyCorners; j = i++) {
+            if (normalized[j] == normalized[i]) {
+                constant[i] = latitudes[i];
                 multiple[i] = 0;
             } else {
-                constant[i] = coordinates.get(i).getLat()
-                        - (normalizeLon(coordinates.get(i).getLon()) * coordinates.get(j).getLat())
-                        / (normalizeLon(coordinates.get(j).getLon()) - normalizeLon(coordinates.get(i).getLon()))
-                        + (normalizeLon(coordinates.get(i).getLon()) * coordinates.get(i).getLat())
-                        / (normalizeLon(coordinates.get(j).getLon()) - normalizeLon(coordinates.get(i).getLon()));
-                multiple[i] = (coordinates.get(j).getLat() - coordinates.get(i).getLat())
-                        / (normalizeLon(coordinates.get(j).getLon()) - normalizeLon(coordinates.get(i).getLon()));
+                constant[i] = latitudes[i]
+                        - (normalized[i] * latitudes[j]) / (normalized[j] - normalized[i])
+                        + (normalized[i] * latitudes[i]) / (normalized[j] - normalized[i]);
+                multiple[i] = (latitudes[j] - latitudes[i]) / (normalized[j] - normalized[i]);
             }
         }
+        normalizedLongitudes = normalized;
     }
 
     private double normalizeLon(double lon) {
@@ -90,31 +94,41 @@ public class GeofencePolygon extends GeofenceGeometry {
     @Override
     public boolean containsPoint(double latitude, double longitude) {
 
-        int polyCorners = coordinates.size();
-        int i;
-        int j = polyCorners - 1;
         double longitudeNorm = normalizeLon(longitude);
+        if (latitude < minLatitude || latitude > maxLatitude
+                || longitudeNorm < minLongitude || longitudeNorm > maxLongitude) {
+            return false;
+        }
+
+        double[] normalized = normalizedLongitudes;
+        int polyCorners = normalized.length;
         boolean oddNodes = false;
 
-        for (i = 0; i < polyCorners; j = i++) {
-            if (normalizeLon(coordinates.get(i).getLon()) < longitudeNorm
-                    && normalizeLon(coordinates.get(j).getLon()) >= longitudeNorm
-                    || normalizeLon(coordinates.get(j).getLon()) < longitudeNorm
-                    && normalizeLon(coordinates.get(i).getLon()) >= longitudeNorm) {
+        for (int i = 0, j = polyCorners - 1; i < polyCorners; j = i++) {
+            if (normalized[i] < longitudeNorm && normalized[j] >= longitudeNorm
+                    || normalized[j] < longitudeNorm && normalized[i] >= longitudeNorm) {
                 oddNodes ^= longitudeNorm * multiple[i] + constant[i] < latitude;
             }
         }
         return oddNodes;
     }
 
+    @Override
+    public double[] getBounds() {
+        if (needNormalize) {
+            return new double[] {minLatitude, -180, maxLatitude, 180};
+        }
+        return new double[] {minLatitude, minLongitude, maxLatitude, maxLongitude};
+    }
+
     @Override
     public String toWkt() {
         StringBuilder buf = new StringBuilder();
         buf.append("POLYGON ((");
-        for (Coordinate coordinate : coordinates) {
-            buf.append(String.valueOf(coordinate.getLat()));
+        for (int i = 0; i < latitudes.length; i++) {
+            buf.append(String.valueOf(latitudes[i]));
             buf.append(" ");
-            buf.append(String.valueOf(coordinate.getLon()));
+            buf.append(String.valueOf(longitudes[i]));
             buf.append(", ");
         }
         return buf.substring(0, buf.length() - 2) + "))";
@@ -122,12 +136,6 @@ public class GeofencePolygon extends GeofenceGeometry {
 
     @Override
     public void fromWkt(String wkt) throws ParseException {
-        if (coordinates == null) {
-            coordinates = new ArrayList<>();
-        } else {
-            coordinates.clear();
-        }
-
         if (!wkt.startsWith("POLYGON")) {
             throw new ParseException("Mismatch geometry type", 0);
         }
@@ -140,24 +148,26 @@ public class GeofencePolygon extends GeofenceGeometry {
             throw new ParseException("Not valid content", 0);
         }
 
-        for (String commaToken : commaTokens) {
-            String[] tokens = commaToken.trim().split("\\s");
+        double[] parsedLatitudes = new double[commaTokens.length];
+        double[] parsedLongitudes = new double[commaTokens.length];
+        for (int i = 0; i < commaTokens.length; i++) {
+            String[] tokens = commaTokens[i].trim().split("\\s");
             if (tokens.length != 2) {
-                throw new ParseException("Here must be two coordinates: " + commaToken, 0);
+                throw new ParseException("Here must be two coordinates: " + commaTokens[i], 0);
             }
-            Coordinate coordinate = new Coordinate();
             try {
-                coordinate.setLat(Double.parseDouble(tokens[0]));
+                parsedLatitudes[i] = Double.parseDouble(tokens[0]);
             } catch (NumberFormatException e) {
                 throw new ParseException(tokens[0] + " is not a double", 0);
             }
             try {
-                coordinate.setLon(Double.parseDouble(tokens[1]));
+                parsedLongitudes[i] = Double.parseDouble(tokens[1]);
             } catch (NumberFormatException e) {
                 throw new ParseException(tokens[1] + " is not a double", 0);
             }
-            coordinates.add(coordinate);
         }
+        latitudes = parsedLatitudes;
+        longitudes = parsedLongitudes;
         precalc();
     }
 
@@ -17,43 +17,91 @@
 package org.traccar.geofence;
 
 import java.text.ParseException;
-import java.util.ArrayList;
 
 import org.traccar.helper.DistanceCalculator;
 
 public class GeofencePolyline extends GeofenceGeometry {
 
-    private ArrayList<Coordinate> coordinates;
+    private static final double METERS_PER_DEGREE = 6378137 * Math.PI / 180;
+    private static final double PROJECTION_ERROR = 0.05;
+    private static final double MAX_PROJECTED_LENGTH = 100000;
+    private static final double MAX_PROJECTED_LATITUDE = 85;
+
+    private double[] latitudes;
+    private double[] longitudes;
+    private double[] lengths;
     private double distance;
+    private double[] bounds;
 
     public GeofencePolyline() {
     }
 
     public GeofencePolyline(String wkt, double distance) throws ParseException {
         fromWkt(wkt);
-        this.distance = distance;
+        setDistance(distance);
+    }
+
+    private static double projectedDistance(double x1, double y1, double x2, double y2) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double position = -(x1 * dx + y1 * dy) / (dx * dx + dy * dy);
+        position = Math.max(0, Math.min(1, position));
+        double x = x1 + position * dx;
+        double y = y1 + position * dy;
+        return Math.sqrt(x * x + y * y) * METERS_PER_DEGREE;
+    }
+
+    private boolean isSegmentProjected(int i, double latitude, double longitude) {
+        return lengths[i] <= MAX_PROJECTED_LENGTH && Math.abs(latitude) <= MAX_PROJECTED_LATITUDE
+                && Math.abs(longitudes[i - 1] - longitude) <= 90 && Math.abs(longitudes[i] - longitude) <= 90;
     }
 
+    /**
+     * Uses equirectangular projection around the point to check segments and falls back to exact distance only when
+     * projected distance is within error margin of the threshold.
+     */
     @Override
     public boolean containsPoint(double latitude, double longitude) {
-        for (int i = 1; i < coordinates.size(); i++) {
-            if (DistanceCalculator.distanceToLine(
-                    latitude, longitude, coordinates.get(i - 1).getLat(), coordinates.get(i - 1).getLon(),
-                    coordinates.get(i).getLat(), coordinates.get(i).getLon()) <= distance) {
+        if (latitude < bounds[0] || latitude > bounds[2] || longitude < bounds[1] || longitude > bounds[3]) {
+            return false;
+        }
+        double scale = Math.cos(Math.toRadians(latitude));
+        for (int i = 1; i < latitudes.length; i++) {
+            if (lengths[i] == 0) {
+                continue;
+            }
+            if (isSegmentProjected(i, latitude, longitude)) {
+                double projected = projectedDistance(
+                        (longitudes[i - 1] - longitude) * scale, latitudes[i - 1] - latitude,
+                        (longitudes[i] - longitude) * scale, latitudes[i] - latitude);
+                double tolerance = PROJECTION_ERROR * (distance + lengths[i]);
+                if (projected < distance - tolerance) {
+                    return true;
+                } else if (projected > distance + tolerance) {
+                    continue;
+                }
+            }
+            if (DistanceCalculator.distanceToLine(latitude, longitude,
+                    latitudes[i - 1], longitudes[i - 1], latitudes[i], longitudes[i]) <= distance) {
                 return true;
             }
         }
         return false;
     }
 
+    @Override
+    public double[] getBounds() {
+        return bounds.clone();
+    }
+
     @Override
     public String toWkt() {
         StringBuilder buf = new StringBuilder();
         buf.append("LINESTRING (");
-        for (Coordinate coordinate : coordinates) {
-            buf.append(String.valueOf(coordinate.getLat()));
+        for (int i = 0; i < latitudes.length; i++) {
+            buf.append(String.valueOf(latitudes[i]));
             buf.append(" ");
-            buf.append(String.valueOf(coordinate.getLon()));
+            buf.append(String.valueOf(longitudes[i]));
             buf.append(", ");
         }
         return buf.substring(0, buf.length() - 2) + ")";
@@ -61,12 +109,6 @@ public class GeofencePolyline extends GeofenceGeometry {
 
     @Override
     public void fromWkt(String wkt) throws ParseException {
-        if (coordinates == null) {
-            coordinates = new ArrayList<>();
-        } else {
-            coordinates.clear();
-        }
-
         if (!wkt.startsWith("LINESTRING")) {
             throw new ParseException("Mismatch geometry type", 0);
         }
@@ -79,29 +121,53 @@ public class GeofencePolyline extends GeofenceGeometry {
             throw new ParseException("Not valid content", 0);
         }
 
-        for (String commaToken : commaTokens) {
-            String[] tokens = commaToken.trim().split("\\s");
+        double[] parsedLatitudes = new double[commaTokens.length];
+        double[] parsedLongitudes = new double[commaTokens.length];
+        for (int i = 0; i < commaTokens.length; i++) {
+            String[] tokens = commaTokens[i].trim().split("\\s");
             if (tokens.length != 2) {
-                throw new ParseException("Here must be two coordinates: " + commaToken, 0);
+                throw new ParseException("Here must be two coordinates: " + commaTokens[i], 0);
             }
-            Coordinate coordinate = new Coordinate();
             try {
-                coordinate.setLat(Double.parseDouble(tokens[0]));
+                parsedLatitudes[i] = Double.parseDouble(tokens[0]);
             } catch (NumberFormatException e) {
                 throw new ParseException(tokens[0] + " is not a double", 0);
             }
             try {
-                coordinate.setLon(Double.parseDouble(tokens[1]));
+                parsedLongitudes[i] = Double.parseDouble(tokens[1]);
             } catch (NumberFormatException e) {
                 throw new ParseException(tokens[1] + " is not a double", 0);
             }
-            coordinates.add(coordinate);
         }
+        latitudes = parsedLatitudes;
+        longitudes = parsedLongitudes;
+        lengths = new double[latitudes.length];
+        for (int i = 1; i < latitudes.length; i++) {
+            lengths[i] = DistanceCalculator.distance(latitudes[i - 1], longitudes[i - 1], latitudes[i], longitudes[i]);
+        }
+        updateBounds();
 
     }
 
+    private void updateBounds() {
+        double minLatitude = 90;
+        double minLongitude = 180;
+        double maxLatitude = -90;
+        double maxLongitude = -180;
+        for (int i = 0; i < latitudes.length; i++) {
+            minLatitude = Math.min(minLatitude, latitudes[i]);
+            minLongitude = Math.min(minLongitude, longitudes[i]);
+            maxLatitude = Math.max(maxLatitude, latitudes[i]);
+            maxLongitude = Math.max(maxLongitude, longitudes[i]);
+        }
+        bounds = getBounds(minLatitude, minLongitude, maxLatitude, maxLongitude, distance);
+    }
+
     public void setDistance(double distance) {
         this.distance = distance;
+        if (latitudes != null) {
+            updateBounds();
+        }
     }
 
 }
@@ -0,0 +1,1431 @@
+/*
+ * Copyright 2017 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.helper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Backtracking-free matcher for the subset of regular expressions produced by {@link PatternBuilder}. If every choice
+ * (alternation, optional part or variable repetition) can be decided by looking at most {@link #MAX_LOOKAHEAD}
+ * characters ahead, input is matched by a single predictive pass. Other expressions are compiled into a program that
+ * tries choices in the same order as {@link java.util.regex.Matcher}, but remembers failed choices for each input
+ * position, so no choice is explored twice and matching time stays linear. Anchors, back references, lookarounds and
+ * repetition of expressions that can match empty input are left to regex.
+ */
+public final class CompiledPattern {
+
+    public static final int MAX_LOOKAHEAD = 4;
+    private static final int MAX_PATHS = 4096;
+    private static final int MAX_PROGRAM = 16384;
+
+    private static final Map<Pattern, CompiledPattern> PATTERNS = new ConcurrentHashMap<>();
+
+    public static void register(Pattern pattern) {
+        try {
+            PATTERNS.put(pattern, new CompiledPattern(pattern));
+        } catch (IllegalArgumentException error) {
+            Log.debug("Pattern is not compiled: " + error.getMessage());
+        }
+    }
+
+    public static CompiledPattern get(Pattern pattern) {
+        return PATTERNS.get(pattern);
+    }
+
+    private static final class CharSet {
+
+        private static final CharSet EMPTY = new CharSet(new int[0]);
+        private static final CharSet ANY = range(0, Character.MAX_VALUE);
+
+        private final int[] ranges;
+        private final long low;
+        private final long high;
+
+        private CharSet(int[] ranges) {
+            this.ranges = ranges;
+            long low = 0;
+            long high = 0;
+            for (int c = 0; c < 128; c++) {
+                if (containsSlow(c)) {
+                    if (c < 64) {
+                        low |= 1L << c;
+                    } else {
+                        high |= 1L << (c - 64);
+                    }
+                }
+            }
+            this.low = low;
+            this.high = high;
+        }
+
+        private static CharSet range(int from, int to) {
+            return new CharSet(new int[] {from, to});
+        }
+
+        private static CharSet of(int c) {
+            return range(c, c);
+        }
+
+        private static CharSet normalize(List<int[]> list) {
+            int[][] items = list.toArray(new int[list.size()][]);
+            Arrays.sort(items, new java.util.Comparator<int[]>() {
+                @Override
+                public int compare(int[] a, int[] b) {
+                    return Integer.compare(a[0], b[0]);
+                }
+            });
+            List<Integer> result = new ArrayList<>();
+            for (int[] item : items) {
+                int size = result.size();
+                if (size > 0 && item[0] <= result.get(size - 1) + 1) {
+                    result.set(size - 1, Math.max(result.get(size - 1), item[1]));
+                } else {
+                    result.add(item[0]);
+                    result.add(item[1]);
+                }
+            }
+            int[] ranges = new int[result.size()];
+            for (int i = 0; i < ranges.length; i++) {
+                ranges[i] = result.get(i);
+            }
+            return new CharSet(ranges);
+        }
+
+        private CharSet union(CharSet other) {
+            List<int[]> list = new ArrayList<>();
+            for (int i = 0; i < ranges.length; i += 2) {
+                list.add(new int[] {ranges[i], ranges[i + 1]});
+            }
+            for (int i = 0; i < other.ranges.length; i += 2) {
+                list.add(new int[] {other.ranges[i], other.ranges[i + 1]});
+            }
+            return normalize(list);
+        }
+
+        private CharSet complement() {
+            List<int[]> list = new ArrayList<>();
+            int from = 0;
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (ranges[i] > from) {
+                    list.add(new int[] {from, ranges[i] - 1});
+                }
+                from = ranges[i + 1] + 1;
+            }
+            if (from <= Character.MAX_VALUE) {
+                list.add(new int[] {from, Character.MAX_VALUE});
+            }
+            return normalize(list);
+        }
+
+        private boolean intersects(CharSet other) {
+            for (int i = 0; i < ranges.length; i += 2) {
+                for (int j = 0; j < other.ranges.length; j += 2) {
+                    if (ranges[i] <= other.ranges[j + 1] && other.ranges[j] <= ranges[i + 1]) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean containsSlow(int c) {
+            for (int i = 0; i < ranges.length; i += 2) {
+                if (c >= ranges[i] && c <= ranges[i + 1]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof CharSet && Arrays.equals(ranges, ((CharSet) other).ranges);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(ranges);
+        }
+
+        private boolean contains(char c) {
+            if (c < 64) {
+                return (low & (1L << c)) != 0;
+            } else if (c < 128) {
+                return (high & (1L << (c - 64))) != 0;
+            }
+            return containsSlow(c);
+        }
+
+    }
+
+    private static final class Path {
+
+        private static final int COMPLETE = 0;
+        private static final int TRUNCATED = 1;
+        private static final int END = 2;
+        private static final int ANY = 3;
+
+        private static final Path EMPTY = new Path(new CharSet[0], COMPLETE);
+
+        private final CharSet[] chars;
+        private final int kind;
+
+        private Path(CharSet[] chars, int kind) {
+            this.chars = chars;
+            this.kind = kind;
+        }
+
+        private Path truncate(int length) {
+            if (chars.length > length) {
+                return new Path(Arrays.copyOf(chars, length), TRUNCATED);
+            }
+            return this;
+        }
+
+        private boolean conflicts(Path other) {
+            int length = Math.min(chars.length, other.chars.length);
+            for (int i = 0; i < length; i++) {
+                if (!chars[i].intersects(other.chars[i])) {
+                    return false;
+                }
+            }
+            if (chars.length == other.chars.length) {
+                if (kind == END && other.kind == TRUNCATED || kind == TRUNCATED && other.kind == END) {
+                    return false;
+                }
+                return true;
+            }
+            return (chars.length < other.chars.length ? kind : other.kind) != END;
+        }
+
+        private boolean matches(CharSequence input, int position) {
+            if (position + chars.length > input.length()) {
+                return false;
+            }
+            for (int i = 0; i < chars.length; i++) {
+                if (!chars[i].contains(input.charAt(position + i))) {
+                    return false;
+                }
+            }
+            switch (kind) {
+                case END:
+                    return position + chars.length == input.length();
+                case TRUNCATED:
+                    return position + chars.length < input.length();
+                default:
+                    return true;
+            }
+        }
+
+        private static boolean matchesAny(Path[] paths, CharSequence input, int position) {
+            for (Path path : paths) {
+                if (path.matches(input, position)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Path && kind == ((Path) other).kind && Arrays.equals(chars, ((Path) other).chars);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(chars) * 31 + kind;
+        }
+
+    }
+
+    private static Set<Path> concat(Set<Path> first, Set<Path> second, int length) {
+        Set<Path> result = new LinkedHashSet<>();
+        for (Path a : first) {
+            if (a.kind != Path.COMPLETE) {
+                result.add(a);
+                continue;
+            }
+            for (Path b : second) {
+                CharSet[] chars = Arrays.copyOf(a.chars, a.chars.length + b.chars.length);
+                System.arraycopy(b.chars, 0, chars, a.chars.length, b.chars.length);
+                result.add(new Path(chars, b.kind).truncate(length));
+            }
+        }
+        if (result.size() > MAX_PATHS) {
+            throw new IllegalArgumentException("lookahead is too large");
+        }
+        return result;
+    }
+
+    private static boolean hasComplete(Set<Path> paths) {
+        for (Path path : paths) {
+            if (path.kind == Path.COMPLETE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns minimal lookahead length that separates all options and stores truncated predictions in the array.
+     */
+    private static int separate(List<Set<Path>> options, Path[][] predictions) {
+        for (int length = 1; length <= MAX_LOOKAHEAD; length++) {
+            List<Set<Path>> truncated = new ArrayList<>();
+            for (Set<Path> option : options) {
+                Set<Path> paths = new LinkedHashSet<>();
+                for (Path path : option) {
+                    paths.add(path.truncate(length));
+                }
+                truncated.add(paths);
+            }
+            boolean conflict = false;
+            for (int i = 0; i < truncated.size() && !conflict; i++) {
+                for (int j = i + 1; j < truncated.size() && !conflict; j++) {
+                    for (Path a : truncated.get(i)) {
+                        for (Path b : truncated.get(j)) {
+                            if (a.conflicts(b)) {
+                                conflict = true;
+                            }
+                        }
+                    }
+                }
+            }
+            if (!conflict) {
+                for (int i = 0; i < predictions.length; i++) {
+                    predictions[i] = truncated.get(i).toArray(new Path[0]);
+                }
+                return length;
+            }
+        }
+        throw new IllegalArgumentException("ambiguous choice");
+    }
+
+    private static boolean isEndSensitive(Path[] paths) {
+        for (Path path : paths) {
+            if (path.kind == Path.END) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Instructions for matching expressions that need backtracking. Each choice and each repetition of a character
+     * class has an index in the table of visited positions.
+     */
+    private static final class Program {
+
+        private static final int CHAR = 0;
+        private static final int SPLIT = 1;
+        private static final int JUMP = 2;
+        private static final int SAVE = 3;
+        private static final int REPEAT = 4;
+        private static final int REPEAT_LAZY = 5;
+        private static final int REST = 6;
+        private static final int MATCH = 7;
+
+        private int size;
+        private int choiceCount;
+        private int[] ops = new int[64];
+        private int[] first = new int[64];
+        private int[] second = new int[64];
+        private int[] choices = new int[64];
+        private CharSet[] sets = new CharSet[64];
+
+        private int emit(int op, int a, int b, CharSet set) {
+            if (size == MAX_PROGRAM) {
+                throw new IllegalArgumentException("program is too large");
+            }
+            if (size == ops.length) {
+                ops = Arrays.copyOf(ops, size * 2);
+                first = Arrays.copyOf(first, size * 2);
+                second = Arrays.copyOf(second, size * 2);
+                choices = Arrays.copyOf(choices, size * 2);
+                sets = Arrays.copyOf(sets, size * 2);
+            }
+            ops[size] = op;
+            first[size] = a;
+            second[size] = b;
+            sets[size] = set;
+            if (op == SPLIT || op == REPEAT || op == REPEAT_LAZY) {
+                choices[size] = choiceCount++;
+            }
+            return size++;
+        }
+
+        private int split(boolean greedy, int skip) {
+            return greedy ? emit(SPLIT, size + 1, skip, null) : emit(SPLIT, skip, size + 1, null);
+        }
+
+        private void patch(int pc, int target) {
+            if (first[pc] < 0) {
+                first[pc] = target;
+            } else {
+                second[pc] = target;
+            }
+        }
+
+    }
+
+    private static final class State {
+
+        private final CharSequence input;
+        private final int[] groups;
+        private boolean find;
+
+        private State(CharSequence input, int groupCount) {
+            this.input = input;
+            this.groups = new int[(groupCount + 1) * 2];
+        }
+
+    }
+
+    private abstract static class Node {
+
+        private CharSet first;
+        private boolean nullable;
+        private int groupFrom;
+        private int groupTo;
+
+        protected abstract int match(State state, int position);
+
+        protected abstract void check(CharSet follow);
+
+        protected abstract Set<Path> first(int length);
+
+        /**
+         * Builds lookahead predictions for choices that can't be decided by trying the first option. Returns true if
+         * any prediction depends on the end of input.
+         */
+        protected abstract boolean analyze(Set<Path> follow, int length);
+
+        protected abstract void emit(Program program);
+
+        protected int[] save(State state) {
+            if (groupTo > groupFrom) {
+                return Arrays.copyOfRange(state.groups, groupFrom * 2, groupTo * 2);
+            }
+            return null;
+        }
+
+        protected void restore(State state, int[] saved) {
+            if (saved != null) {
+                System.arraycopy(saved, 0, state.groups, groupFrom * 2, saved.length);
+            }
+        }
+
+    }
+
+    private static final class CharNode extends Node {
+
+        private final CharSet set;
+
+        private CharNode(CharSet set) {
+            this.set = set;
+        }
+
+        @Override
+        protected int match(State state, int position) {
+            if (position < state.input.length() && set.contains(state.input.charAt(position))) {
+                return position + 1;
+            }
+            return -1;
+        }
+
+        @Override
+        protected void check(CharSet follow) {
+        }
+
+        @Override
+        protected Set<Path> first(int length) {
+            return Collections.singleton(new Path(new CharSet[] {set}, Path.COMPLETE));
+        }
+
+        @Override
+        protected boolean analyze(Set<Path> follow, int length) {
+            return false;
+        }
+
+        @Override
+        protected void emit(Program program) {
+            program.emit(Program.CHAR, 0, 0, set);
+        }
+
+    }
+
+    private static final class SequenceNode extends Node {
+
+        private final Node[] nodes;
+
+        private SequenceNode(Node[] nodes) {
+            this.nodes = nodes;
+        }
+
+        @Override
+        protected int match(State state, int position) {
+            for (Node node : nodes) {
+                position = node.match(state, position);
+                if (position < 0) {
+                    return -1;
+                }
+            }
+            return position;
+        }
+
+        @Override
+        protected void check(CharSet follow) {
+            for (int i = nodes.length - 1; i >= 0; i--) {
+                nodes[i].check(follow);
+                follow = nodes[i].nullable ? nodes[i].first.union(follow) : nodes[i].first;
+            }
+        }
+
+        @Override
+        protected Set<Path> first(int length) {
+            Set<Path> result = Collections.singleton(Path.EMPTY);
+            for (Node node : nodes) {
+                result = concat(result, node.first(length), length);
+            }
+            return result;
+        }
+
+        @Override
+        protected boolean analyze(Set<Path> follow, int length) {
+            boolean endSensitive = false;
+            for (int i = nodes.length - 1; i >= 0; i--) {
+                endSensitive |= nodes[i].analyze(follow, length);
+                follow = concat(nodes[i].first(length), follow, length);
+            }
+            return endSensitive;
+        }
+
+        @Override
+        protected void emit(Program program) {
+            for (Node node : nodes) {
+                node.emit(program);
+            }
+        }
+
+    }
+
+    private static final class AlternationNode extends Node {
+
+        private final Node[] alternatives;
+        private Path[][] predictions;
+
+        private AlternationNode(Node[] alternatives) {
+            this.alternatives = alternatives;
+        }
+
+        @Override
+        protected int match(State state, int position) {
+            int[] saved = save(state);
+            if (predictions != null) {
+                for (int i = 0; i < alternatives.length; i++) {
+                    if (Path.matchesAny(predictions[i], state.input, position)) {
+                        int result = alternatives[i].match(state, position);
+                        if (result < 0) {
+                            restore(state, saved);
+                        }
+                        return result;
+                    }
+                }
+                return -1;
+            }
+            for (Node alternative : alternatives) {
+                int result = alternative.match(state, position);
+                if (result >= 0) {
+                    return result;
+                }
+                restore(state, saved);
+            }
+            return -1;
+        }
+
+        @Override
+        protected void check(CharSet follow) {
+            CharSet predicted = CharSet.EMPTY;
+            for (Node alternative : alternatives) {
+                CharSet current = alternative.nullable ? alternative.first.union(follow) : alternative.first;
+                if (current.intersects(predicted)) {
+                    throw new IllegalArgumentException("ambiguous alternation");
+                }
+                predicted = predicted.union(current);
+                alternative.check(follow);
+            }
+        }
+
+        @Override
+        protected Set<Path> first(int length) {
+            Set<Path> result = new LinkedHashSet<>();
+            for (Node alternative : alternatives) {
+                result.addAll(alternative.first(length));
+            }
+            return result;
+        }
+
+        @Override
+        protected boolean analyze(Set<Path> follow, int length) {
+            List<Set<Path>> options = new ArrayList<>();
+            for (Node alternative : alternatives) {
+                options.add(concat(alternative.first(length), follow, length));
+            }
+            Path[][] optionPredictions = new Path[alternatives.length][];
+            boolean endSensitive = false;
+            if (separate(options, optionPredictions) > 1) {
+                predictions = optionPredictions;
+                for (Path[] paths : predictions) {
+                    endSensitive |= isEndSensitive(paths);
+                }
+            }
+            for (Node alternative : alternatives) {
+                endSensitive |= alternative.analyze(follow, length);
+            }
+            return endSensitive;
+        }
+
+        @Override
+        protected void emit(Program program) {
+            int[] jumps = new int[alternatives.length - 1];
+            for (int i = 0; i < jumps.length; i++) {
+                int split = program.emit(Program.SPLIT, program.size + 1, -1, null);
+                alternatives[i].emit(program);
+                jumps[i] = program.emit(Program.JUMP, -1, 0, null);
+                program.second[split] = program.size;
+            }
+            alternatives[jumps.length].emit(program);
+            for (int jump : jumps) {
+                program.first[jump] = program.size;
+            }
+        }
+
+    }
+
+    private static final class GroupNode extends Node {
+
+        private final Node node;
+        private final int index;
+
+        private GroupNode(Node node, int index) {
+            this.node = node;
+            this.index = index;
+        }
+
+        @Override
+        protected int match(State state, int position) {
+            int result = node.match(state, position);
+            if (result >= 0) {
+                state.groups[index * 2] = position;
+                state.groups[index * 2 + 1] = result;
+            }
+            return result;
+        }
+
+        @Override
+        protected void check(CharSet follow) {
+            node.check(follow);
+        }
+
+        @Override
+        protected Set<Path> first(int length) {
+            return node.first(length);
+        }
+
+        @Override
+        protected boolean analyze(Set<Path> follow, int length) {
+            return node.analyze(follow, length);
+        }
+
+        @Override
+        protected void emit(Program program) {
+            program.emit(Program.SAVE, index * 2, 0, null);
+            node.emit(program);
+            program.emit(Program.SAVE, index * 2 + 1, 0, null);
+        }
+
+    }
+
+    private static final class RepeatNode extends Node {
+
+        private final Node node;
+        private final int min;
+        private final int max;
+        private final boolean greedy;
+        private Path[] prediction;
+
+        private RepeatNode(Node node, int min, int max, boolean greedy) {
+            this.node = node;
+            this.min = min;
+            this.max = max;
+            this.greedy = greedy;
+        }
+
+        @Override
+        protected int match(State state, int position) {
+            int count = 0;
+            while (count < max) {
+                if (count >= min && prediction != null && !Path.matchesAny(prediction, state.input, position)) {
+                    break;
+                }
+                int[] saved = count >= min ? save(state) : null;
+                int result = node.match(state, position);
+                if (result < 0) {
+                    restore(state, saved);
+                    break;
+                }
+                count += 1;
+                if (result == position) {
+                    break;
+                }
+                position = result;
+            }
+            return count >= min ? position : -1;
+        }
+
+        @Override
+        protected void check(CharSet follow) {
+            if (!greedy) {
+                throw new IllegalArgumentException("lazy quantifier");
+            }
+            if (min != max) {
+                if (node.nullable) {
+                    throw new IllegalArgumentException("nullable repetition");
+                }
+                if (node.first.intersects(follow)) {
+                    throw new IllegalArgumentException("ambiguous repetition");
+                }
+            }
+            node.check(max > 1 ? node.first.union(follow) : follow);
+        }
+
+        private Set<Path> first(int from, int length) {
+            Set<Path> body = node.first(length);
+            Set<Path> current = Collections.singleton(Path.EMPTY);
+            for (int i = 0; i < from && hasComplete(current); i++) {
+                current = concat(current, body, length);
+            }
+            Set<Path> result = new LinkedHashSet<>(current);
+            for (int i = from; i < max && hasComplete(current); i++) {
+                current = concat(current, body, length);
+                if (!result.addAll(current)) {
+                    break;
+                }
+            }
+            return result;
+        }
+
+        @Override
+        protected Set<Path> first(int length) {
+            return first(min, length);
+        }
+
+        @Override
+        protected boolean analyze(Set<Path> follow, int length) {
+            if (!greedy) {
+                throw new IllegalArgumentException("lazy quantifier");
+            }
+            Set<Path> bodyFollow = concat(first(0, length), follow, length);
+            boolean endSensitive = false;
+            if (min != max) {
+                if (node.nullable) {
+                    throw new IllegalArgumentException("nullable repetition");
+                }
+                List<Set<Path>> options = new ArrayList<>();
+                options.add(concat(node.first(length), bodyFollow, length));
+                options.add(follow);
+                Path[][] predictions = new Path[2][];
+                if (separate(options, predictions) > 1) {
+                    prediction = predictions[0];
+                    endSensitive = isEndSensitive(predictions[0]) || isEndSensitive(predictions[1]);
+                }
+            }
+            return node.analyze(bodyFollow, length) || endSensitive;
+        }
+
+        @Override
+        protected void emit(Program program) {
+            if (min != max && node.nullable) {
+                throw new IllegalArgumentException("nullable repetition");
+            }
+            if (node instanceof CharNode && max > 1) {
+                program.emit(greedy ? Program.REPEAT : Program.REPEAT_LAZY, min, max, ((CharNode) node).set);
+                return;
+            }
+            for (int i = 0; i < min; i++) {
+                node.emit(program);
+            }
+            if (max == Integer.MAX_VALUE) {
+                int split = program.split(greedy, -1);
+                node.emit(program);
+                program.emit(Program.JUMP, split, 0, null);
+                program.patch(split, program.size);
+            } else if (max > min) {
+                int[] splits = new int[max - min];
+                for (int i = 0; i < splits.length; i++) {
+                    splits[i] = program.split(greedy, -1);
+                    node.emit(program);
+                }
+                for (int split : splits) {
+                    program.patch(split, program.size);
+                }
+            }
+        }
+
+    }
+
+    private static final class RestNode extends Node {
+
+        @Override
+        protected int match(State state, int position) {
+            return state.find ? position : state.input.length();
+        }
+
+        @Override
+        protected void check(CharSet follow) {
+        }
+
+        @Override
+        protected Set<Path> first(int length) {
+            return Collections.singleton(new Path(new CharSet[0], Path.ANY));
+        }
+
+        @Override
+        protected boolean analyze(Set<Path> follow, int length) {
+            return false;
+        }
+
+        @Override
+        protected void emit(Program program) {
+            program.emit(Program.REST, 0, 0, null);
+        }
+
+    }
+
+    private static final class ExpressionParser {
+
+        private final String expression;
+        private int index;
+        private int groupCount;
+
+        private ExpressionParser(String expression) {
+            this.expression = expression;
+        }
+
+        private boolean hasMore() {
+            return index < expression.length();
+        }
+
+        private char peek() {
+            return expression.charAt(index);
+        }
+
+        private IllegalArgumentException unsupported() {
+            return new IllegalArgumentException("unsupported construct at " + index + " in " + expression);
+        }
+
+        private Node parseAlternation() {
+            List<Node> alternatives = new ArrayList<>();
+            int groupFrom = groupCount + 1;
+            alternatives.add(parseSequence());
+            while (hasMore() && peek() == '|') {
+                index += 1;
+                alternatives.add(parseSequence());
+            }
+            Node node;
+            if (alternatives.size() == 1) {
+                node = alternatives.get(0);
+            } else {
+                node = new AlternationNode(alternatives.toArray(new Node[alternatives.size()]));
+                node.first = CharSet.EMPTY;
+                for (Node alternative : alternatives) {
+                    node.first = node.first.union(alternative.first);
+                    node.nullable |= alternative.nullable;
+                }
+            }
+            node.groupFrom = groupFrom;
+            node.groupTo = groupCount + 1;
+            return node;
+        }
+
+        private Node parseSequence() {
+            List<Node> nodes = new ArrayList<>();
+            int groupFrom = groupCount + 1;
+            while (hasMore() && peek() != '|' && peek() != ')') {
+                nodes.add(parseQuantifier(parseAtom()));
+            }
+            Node node = new SequenceNode(nodes.toArray(new Node[nodes.size()]));
+            node.first = CharSet.EMPTY;
+            node.nullable = true;
+            for (Node child : nodes) {
+                if (!node.nullable) {
+                    break;
+                }
+                node.first = node.first.union(child.first);
+                node.nullable = child.nullable;
+            }
+            node.groupFrom = groupFrom;
+            node.groupTo = groupCount + 1;
+            return node;
+        }
+
+        private int parseNumber() {
+            int start = index;
+            while (hasMore() && Character.isDigit(peek())) {
+                index += 1;
+            }
+            if (start == index) {
+                throw unsupported();
+            }
+            return Integer.parseInt(expression.substring(start, index));
+        }
+
+        private Node parseQuantifier(Node node) {
+            while (hasMore()) {
+                int min;
+                int max;
+                char c = peek();
+                if (c == '?') {
+                    min = 0;
+                    max = 1;
+                    index += 1;
+                } else if (c == '*') {
+                    min = 0;
+                    max = Integer.MAX_VALUE;
+                    index += 1;
+                } else if (c == '+') {
+                    min = 1;
+                    max = Integer.MAX_VALUE;
+                    index += 1;
+                } else if (c == '{') {
+                    index += 1;
+                    min = parseNumber();
+                    max = min;
+                    if (hasMore() && peek() == ',') {
+                        index += 1;
+                        max = hasMore() && peek() == '}' ? Integer.MAX_VALUE : parseNumber();
+                    }
+                    if (!hasMore() || peek() != '}') {
+                        throw unsupported();
+                    }
+                    index += 1;
+                } else {
+                    break;
+                }
+                boolean greedy = true;
+                if (hasMore() && peek() == '?') {
+                    greedy = false;
+                    index += 1;
+                } else if (hasMore() && peek() == '+') {
+                    throw unsupported();
+                }
+                Node repeat = new RepeatNode(node, min, max, greedy);
+                repeat.first = node.first;
+                repeat.nullable = min == 0 || node.nullable;
+                repeat.groupFrom = node.groupFrom;
+                repeat.groupTo = node.groupTo;
+                node = repeat;
+            }
+            return node;
+        }
+
+        private Node parseAtom() {
+            char c = peek();
+            Node node;
+            int groupFrom = groupCount + 1;
+            switch (c) {
+                case '(':
+                    index += 1;
+                    int groupIndex = 0;
+                    if (expression.startsWith("?:", index)) {
+                        index += 2;
+                    } else if (hasMore() && peek() == '?') {
+                        throw unsupported();
+                    } else {
+                        groupIndex = ++groupCount;
+                    }
+                    Node inner = parseAlternation();
+                    if (!hasMore() || peek() != ')') {
+                        throw unsupported();
+                    }
+                    index += 1;
+                    if (groupIndex > 0) {
+                        node = new GroupNode(inner, groupIndex);
+                        node.first = inner.first;
+                        node.nullable = inner.nullable;
+                    } else {
+                        return inner;
+                    }
+                    break;
+                case '[':
+                    index += 1;
+                    node = new CharNode(parseClass());
+                    break;
+                case '.':
+                    index += 1;
+                    node = new CharNode(CharSet.ANY);
+                    break;
+                case '\\':
+                    index += 1;
+                    node = new CharNode(parseEscape());
+                    break;
+                case '^':
+                case '$':
+                case '{':
+                case '*':
+                case '+':
+                case '?':
+                    throw unsupported();
+                default:
+                    index += 1;
+                    node = new CharNode(CharSet.of(c));
+                    break;
+            }
+            if (node instanceof CharNode) {
+                node.first = ((CharNode) node).set;
+            }
+            node.groupFrom = groupFrom;
+            node.groupTo = groupCount + 1;
+            return node;
+        }
+
+        private CharSet parseEscape() {
+            if (!hasMore()) {
+                throw unsupported();
+            }
+            char c = expression.charAt(index++);
+            switch (c) {
+                case 'd':
+                    return CharSet.range('0', '9');
+                case 'D':
+                    return CharSet.range('0', '9').complement();
+                case 's':
+                    return CharSet.range('\t', '\r').union(CharSet.of(' '));
+                case 'S':
+                    return CharSet.range('\t', '\r').union(CharSet.of(' ')).complement();
+                case 'w':
+                    return CharSet.range('a', 'z').union(CharSet.range('A', 'Z'))
+                            .union(CharSet.range('0', '9')).union(CharSet.of('_'));
+                case 'W':
+                    return CharSet.range('a', 'z').union(CharSet.range('A', 'Z'))
+                            .union(CharSet.range('0', '9')).union(CharSet.of('_')).complement();
+                case 't':
+                    return CharSet.of('\t');
+                case 'n':
+                    return CharSet.of('\n');
+                case 'r':
+                    return CharSet.of('\r');
+                case 'f':
+                    return CharSet.of('\f');
+                case 'x':
+                    if (index + 2 > expression.length()) {
+                        throw unsupported();
+                    }
+                    try {
+                        int value = Integer.parseInt(expression.substring(index, index + 2), 16);
+                        index += 2;
+                        return CharSet.of(value);
+                    } catch (NumberFormatException error) {
+                        throw unsupported();
+                    }
+                default:
+                    if (Character.isLetterOrDigit(c)) {
+                        throw unsupported();
+                    }
+                    return CharSet.of(c);
+            }
+        }
+
+        private int parseClassChar() {
+            char c = expression.charAt(index++);
+            if (c == '\\') {
+                CharSet set = parseEscape();
+                if (set.ranges.length != 2 || set.ranges[0] != set.ranges[1]) {
+                    throw unsupported();
+                }
+                return set.ranges[0];
+            } else if (c == '[' || c == '&' && hasMore() && peek() == '&') {
+                throw unsupported();
+            }
+            return c;
+        }
+
+        private CharSet parseClass() {
+            boolean negated = false;
+            if (hasMore() && peek() == '^') {
+                negated = true;
+                index += 1;
+            }
+            CharSet set = CharSet.EMPTY;
+            while (hasMore() && peek() != ']') {
+                if (peek() == '\\' && index + 1 < expression.length()
+                        && "dDsSwW".indexOf(expression.charAt(index + 1)) >= 0) {
+                    index += 1;
+                    set = set.union(parseEscape());
+                    continue;
+                }
+                int from = parseClassChar();
+                int to = from;
+                if (index + 1 < expression.length() && peek() == '-' && expression.charAt(index + 1) != ']') {
+                    index += 1;
+                    to = parseClassChar();
+                    if (to < from) {
+                        throw unsupported();
+                    }
+                }
+                set = set.union(CharSet.range(from, to));
+            }
+            if (!hasMore()) {
+                throw unsupported();
+            }
+            index += 1;
+            return negated ? set.complement() : set;
+        }
+
+        private Node parse() {
+            Node root = parseAlternation();
+            if (hasMore()) {
+                throw unsupported();
+            }
+            return root;
+        }
+
+    }
+
+    private final Node root;
+    private final int groupCount;
+    private final Program program = new Program();
+    private final boolean predictive;
+    private final boolean endSensitive;
+
+    private CompiledPattern(Pattern pattern) {
+        if (pattern.flags() != Pattern.DOTALL) {
+            throw new IllegalArgumentException("unsupported flags");
+        }
+        ExpressionParser parser = new ExpressionParser(pattern.pattern());
+        root = replaceTrailingAny(parser.parse());
+        groupCount = parser.groupCount;
+        if (groupCount != pattern.matcher("").groupCount()) {
+            throw new IllegalArgumentException("group count mismatch");
+        }
+
+        program.emit(Program.SAVE, 0, 0, null);
+        root.emit(program);
+        program.emit(Program.SAVE, 1, 0, null);
+        program.emit(Program.MATCH, 0, 0, null);
+
+        boolean predictive = true;
+        boolean endSensitive = false;
+        try {
+            root.check(CharSet.EMPTY);
+        } catch (IllegalArgumentException error) {
+            try {
+                endSensitive = root.analyze(
+                        Collections.singleton(new Path(new CharSet[0], Path.END)), MAX_LOOKAHEAD);
+            } catch (IllegalArgumentException analyzeError) {
+                predictive = false;
+            }
+        }
+        this.predictive = predictive;
+        this.endSensitive = endSensitive;
+    }
+
+    /**
+     * Returns true if input is matched in a single pass without simulating parallel threads.
+     */
+    public boolean isPredictive() {
+        return predictive;
+    }
+
+    private static Node replaceTrailingAny(Node node) {
+        if (node instanceof SequenceNode) {
+            Node[] nodes = ((SequenceNode) node).nodes;
+            if (nodes.length > 0) {
+                nodes[nodes.length - 1] = replaceTrailingAny(nodes[nodes.length - 1]);
+            }
+        } else if (node instanceof RepeatNode) {
+            RepeatNode repeat = (RepeatNode) node;
+            if (!repeat.greedy && repeat.min == 0 && repeat.max == Integer.MAX_VALUE
+                    && repeat.node instanceof CharNode && ((CharNode) repeat.node).set.ranges.length == 2
+                    && ((CharNode) repeat.node).set.ranges[0] == 0
+                    && ((CharNode) repeat.node).set.ranges[1] == Character.MAX_VALUE) {
+                Node rest = new RestNode();
+                rest.first = CharSet.EMPTY;
+                rest.nullable = true;
+                return rest;
+            }
+        } else if (node instanceof GroupNode) {
+            GroupNode group = (GroupNode) node;
+            Node inner = replaceTrailingAny(group.node);
+            if (inner != group.node) {
+                Node replacement = new GroupNode(inner, group.index);
+                replacement.first = inner.first;
+                replacement.nullable = inner.nullable;
+                replacement.groupFrom = node.groupFrom;
+                replacement.groupTo = node.groupTo;
+                return replacement;
+            }
+        }
+        return node;
+    }
+
+    public Scanner scanner(CharSequence input) {
+        return new Scanner(input);
+    }
+
+    public final class Scanner {
+
+        private final State state;
+        private int searchFrom;
+        private static final int RESUME = 0;
+        private static final int RESTORE = 1;
+        private static final int RETRY = 2;
+
+        private long[] visited;
+        private int[] stack = new int[64];
+        private int stackSize;
+
+        private Scanner(CharSequence input) {
+            state = new State(input, groupCount);
+        }
+
+        private void push(int kind, int a, int b, int c) {
+            if (stackSize + 4 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[stackSize++] = kind;
+            stack[stackSize++] = a;
+            stack[stackSize++] = b;
+            stack[stackSize++] = c;
+        }
+
+        /**
+         * Marks choice at the given position as visited. Returns false if it has been tried before.
+         */
+        private boolean visit(int pc, int position) {
+            long bit = (long) program.choices[pc] * (state.input.length() + 1) + position;
+            int index = (int) (bit >>> 6);
+            if ((visited[index] & (1L << bit)) != 0) {
+                return false;
+            }
+            visited[index] |= 1L << bit;
+            return true;
+        }
+
+        /**
+         * Returns next untried end position for repetition of a character class, from the longest for greedy and from
+         * the shortest for lazy one, and stores the remaining range on the stack.
+         */
+        private int repeat(int pc, int from, int to) {
+            if (program.ops[pc] == Program.REPEAT) {
+                for (int position = to; position >= from; position--) {
+                    if (visit(pc, position)) {
+                        if (position > from) {
+                            push(RETRY, pc, from, position - 1);
+                        }
+                        return position;
+                    }
+                }
+            } else {
+                for (int position = from; position <= to; position++) {
+                    if (visit(pc, position)) {
+                        if (position < to) {
+                            push(RETRY, pc, position + 1, to);
+                        }
+                        return position;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Follows preferred choices first and keeps alternatives on a stack together with group positions to restore.
+         * Choice that already failed at a given position is not tried again.
+         */
+        private boolean search(int start) {
+            CharSequence input = state.input;
+            int length = input.length();
+            if (visited == null) {
+                visited = new long[(int) (((long) program.choiceCount * (length + 1) + 63) >>> 6)];
+            }
+            int[] groups = state.groups;
+            Arrays.fill(groups, -1);
+            stackSize = 0;
+            push(RESUME, 0, start, 0);
+            while (stackSize > 0) {
+                stackSize -= 4;
+                int pc = stack[stackSize + 1];
+                int position = stack[stackSize + 2];
+                switch (stack[stackSize]) {
+                    case RESTORE:
+                        groups[pc] = position;
+                        continue;
+                    case RETRY:
+                        position = repeat(pc, position, stack[stackSize + 3]);
+                        if (position < 0) {
+                            continue;
+                        }
+                        pc += 1;
+                        break;
+                    default:
+                        break;
+                }
+                boolean running = true;
+                while (running) {
+                    switch (program.ops[pc]) {
+                        case Program.CHAR:
+                            if (position < length && program.sets[pc].contains(input.charAt(position))) {
+                                pc += 1;
+                                position += 1;
+                            } else {
+                                running = false;
+                            }
+                            break;
+                        case Program.SPLIT:
+                            if (visit(pc, position)) {
+                                push(RESUME, program.second[pc], position, 0);
+                                pc = program.first[pc];
+                            } else {
+                                running = false;
+                            }
+                            break;
+                        case Program.JUMP:
+                            pc = program.first[pc];
+                            break;
+                        case Program.SAVE:
+                            push(RESTORE, program.first[pc], groups[program.first[pc]], 0);
+                            groups[program.first[pc]] = position;
+                            pc += 1;
+                            break;
+                        case Program.REPEAT:
+                        case Program.REPEAT_LAZY:
+                            CharSet set = program.sets[pc];
+                            int limit = (int) Math.min(length, (long) position + program.second[pc]);
+                            int end = position;
+                            if (set == CharSet.ANY) {
+                                end = limit;
+                            } else {
+                                while (end < limit && set.contains(input.charAt(end))) {
+                                    end += 1;
+                                }
+                            }
+                            if (end - position >= program.first[pc]) {
+                                position = repeat(pc, position + program.first[pc], end);
+                            } else {
+                                position = -1;
+                            }
+                            if (position < 0) {
+                                running = false;
+                            } else {
+                                pc += 1;
+                            }
+                            break;
+                        case Program.REST:
+                            if (!state.find) {
+                                position = length;
+                            }
+                            pc += 1;
+                            break;
+                        default:
+                            if (state.find || position == length) {
+                                return true;
+                            }
+                            running = false;
+                            break;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean matchAt(int start) {
+            Arrays.fill(state.groups, -1);
+            int end = root.match(state, start);
+            if (end >= 0 && (state.find || end == state.input.length())) {
+                state.groups[0] = start;
+                state.groups[1] = end;
+                return true;
+            }
+            return false;
+        }
+
+        public boolean matches() {
+            state.find = false;
+            visited = null;
+            return predictive ? matchAt(0) : search(0);
+        }
+
+        public boolean find() {
+            state.find = true;
+            CharSequence input = state.input;
+            if (!predictive || endSensitive) {
+                visited = null;
+                for (int start = searchFrom; start <= input.length(); start++) {
+                    if (!root.nullable && (start == input.length() || !root.first.contains(input.charAt(start)))) {
+                        continue;
+                    }
+                    if (search(start)) {
+                        searchFrom = end(0) > start ? end(0) : start + 1;
+                        return true;
+                    }
+                }
+                searchFrom = input.length() + 1;
+                Arrays.fill(state.groups, -1);
+                return false;
+            }
+            for (int start = searchFrom; start <= input.length(); start++) {
+                if (!root.nullable && (start == input.length() || !root.first.contains(input.charAt(start)))) {
+                    continue;
+                }
+                if (matchAt(start)) {
+                    searchFrom = state.groups[1] > start ? state.groups[1] : start + 1;
+                    return true;
+                }
+            }
+            searchFrom = input.length() + 1;
+            Arrays.fill(state.groups, -1);
+            return false;
+        }
+
+        public int start(int group) {
+            return state.groups[group * 2];
+        }
+
+        public int end(int group) {
+            return state.groups[group * 2 + 1];
+        }
+
+        public String group(int group) {
+            int start = start(group);
+            return start >= 0 ? state.input.subSequence(start, end(group)).toString() : null;
+        }
+
+        public CharSequence getInput() {
+            return state.input;
+        }
+
+    }
+
+}
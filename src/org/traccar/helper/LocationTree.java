@@ -15,16 +15,21 @@
  */
 package org.traccar.helper;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 
+/**
+ * Tree for nearest location search. Item coordinates are latitude (x) and longitude (y) in degrees. Locations are
+ * converted to points on a unit sphere and indexed in three dimensions, so straight line distance between points
+ * follows great-circle distance at any latitude and across the antimeridian. Tree is stored in flat arrays, each
+ * subtree occupies a continuous range with its root in the middle, so search only needs index arithmetic and a small
+ * reusable stack.
+ */
 public class LocationTree {
 
     public static class Item {
 
-        private Item left, right;
         private float x, y;
         private String data;
 
@@ -42,84 +47,132 @@ public class LocationTree {
             return data;
         }
 
-        private float squaredDistance(Item item) {
-            return (x - item.x) * (x - item.x) + (y - item.y) * (y - item.y);
-        }
-
-        private float axisSquaredDistance(Item item, int axis) {
-            if (axis == 0) {
-                return (x - item.x) * (x - item.x);
-            } else {
-                return (y - item.y) * (y - item.y);
-            }
-        }
-
     }
 
-    private Item root;
+    private static final int DIMENSIONS = 3;
+    private static final int MAX_DEPTH = 64;
 
-    private ArrayList<Comparator<Item>> comparators = new ArrayList<>();
+    private static final ThreadLocal<int[]> STACK = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[MAX_DEPTH * 4];
+        }
+    };
+
+    private final Item[] items;
+    private final float[] points;
 
     public LocationTree(List<Item> items) {
-        comparators.add(new Comparator<Item>() {
-            @Override
-            public int compare(Item o1, Item o2) {
-                return Float.compare(o1.x, o2.x);
-            }
-        });
-        comparators.add(new Comparator<Item>() {
-            @Override
-            public int compare(Item o1, Item o2) {
-                return Float.compare(o1.y, o2.y);
-            }
-        });
-        root = createTree(items, 0);
-    }
+        int count = items.size();
+        final float[] unsorted = new float[count * DIMENSIONS];
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            Item item = items.get(i);
+            toPoint(item.x, item.y, unsorted, i * DIMENSIONS);
+            order[i] = i;
+        }
+        createTree(order, unsorted, 0, count, 0);
 
-    private Item createTree(List<Item> items, int depth) {
-        if (items.isEmpty()) {
-            return null;
+        this.items = new Item[count];
+        points = new float[count * DIMENSIONS];
+        for (int i = 0; i < count; i++) {
+            this.items[i] = items.get(order[i]);
+            System.arraycopy(unsorted, order[i] * DIMENSIONS, points, i * DIMENSIONS, DIMENSIONS);
         }
-        Collections.sort(items, comparators.get(depth % 2));
-        int currentIndex = items.size() / 2;
-        Item median = items.get(currentIndex);
-        median.left = createTree(new ArrayList<>(items.subList(0, currentIndex)), depth + 1);
-        median.right = createTree(new ArrayList<>(items.subList(currentIndex + 1, items.size())), depth + 1);
-        return median;
     }
 
-    public Item findNearest(Item search) {
-        return findNearest(root, search, 0);
+    private static void toPoint(float latitude, float longitude, float[] result, int offset) {
+        double lat = Math.toRadians(latitude);
+        double lon = Math.toRadians(longitude);
+        result[offset] = (float) (Math.cos(lat) * Math.cos(lon));
+        result[offset + 1] = (float) (Math.cos(lat) * Math.sin(lon));
+        result[offset + 2] = (float) Math.sin(lat);
     }
 
-    private Item findNearest(Item current, Item search, int depth) {
-        int direction = comparators.get(depth % 2).compare(search, current);
-
-        Item next, other;
-        if (direction < 0) {
-            next = current.left;
-            other = current.right;
-        } else {
-            next = current.right;
-            other = current.left;
+    private static void createTree(Integer[] order, final float[] points, int from, int to, int depth) {
+        if (to - from > 1) {
+            final int axis = depth % DIMENSIONS;
+            Arrays.sort(order, from, to, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return Float.compare(points[o1 * DIMENSIONS + axis], points[o2 * DIMENSIONS + axis]);
+                }
+            });
+            int median = from + (to - from) / 2;
+            createTree(order, points, from, median, depth + 1);
+            createTree(order, points, median + 1, to, depth + 1);
         }
+    }
 
-        Item best = current;
-        if (next != null) {
-            best = findNearest(next, search, depth + 1);
-        }
+    public int size() {
+        return items.length;
+    }
 
-        if (current.squaredDistance(search) < best.squaredDistance(search)) {
-            best = current;
-        }
-        if (other != null && current.axisSquaredDistance(search, depth % 2) < best.squaredDistance(search)) {
-            Item possibleBest = findNearest(other, search, depth + 1);
-            if (possibleBest.squaredDistance(search) < best.squaredDistance(search)) {
-                best = possibleBest;
+    public Item findNearest(Item search) {
+        return findNearest(search.x, search.y);
+    }
+
+    public Item findNearest(float latitude, float longitude) {
+        double lat = Math.toRadians(latitude);
+        double lon = Math.toRadians(longitude);
+        float searchX = (float) (Math.cos(lat) * Math.cos(lon));
+        float searchY = (float) (Math.cos(lat) * Math.sin(lon));
+        float searchZ = (float) Math.sin(lat);
+
+        int[] stack = STACK.get();
+        int stackSize = 0;
+        int best = -1;
+        float bestDistance = Float.POSITIVE_INFINITY;
+
+        stack[0] = 0;
+        stack[1] = items.length;
+        stack[2] = 0;
+        stack[3] = Float.floatToRawIntBits(0);
+        stackSize += 1;
+
+        while (stackSize > 0) {
+            stackSize -= 1;
+            int from = stack[stackSize * 4];
+            int to = stack[stackSize * 4 + 1];
+            int depth = stack[stackSize * 4 + 2];
+            if (Float.intBitsToFloat(stack[stackSize * 4 + 3]) >= bestDistance) {
+                continue;
+            }
+            while (from < to) {
+                int current = from + (to - from) / 2;
+                int offset = current * DIMENSIONS;
+                float dx = searchX - points[offset];
+                float dy = searchY - points[offset + 1];
+                float dz = searchZ - points[offset + 2];
+                float distance = dx * dx + dy * dy + dz * dz;
+                if (distance < bestDistance) {
+                    best = current;
+                    bestDistance = distance;
+                }
+                int axis = depth % DIMENSIONS;
+                float axisDistance = axis == 0 ? dx : axis == 1 ? dy : dz;
+                int otherFrom, otherTo;
+                if (axisDistance < 0) {
+                    otherFrom = current + 1;
+                    otherTo = to;
+                    to = current;
+                } else {
+                    otherFrom = from;
+                    otherTo = current;
+                    from = current + 1;
+                }
+                depth += 1;
+                if (otherFrom < otherTo) {
+                    stack[stackSize * 4] = otherFrom;
+                    stack[stackSize * 4 + 1] = otherTo;
+                    stack[stackSize * 4 + 2] = depth;
+                    stack[stackSize * 4 + 3] = Float.floatToRawIntBits(axisDistance * axisDistance);
+                    stackSize += 1;
+                }
             }
         }
 
-        return best;
+        return best >= 0 ? items[best] : null;
     }
 
 }
@@ -20,21 +20,31 @@ import java.util.regex.Pattern;
 
 public class Parser {
 
+    private static final int MAX_FAST_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
     private int position;
     private Matcher matcher;
+    private CompiledPattern.Scanner scanner;
 
     public Parser(Pattern pattern, String input) {
-        matcher = pattern.matcher(input);
+        CompiledPattern compiledPattern = CompiledPattern.get(pattern);
+        if (compiledPattern != null) {
+            scanner = compiledPattern.scanner(input);
+        } else {
+            matcher = pattern.matcher(input);
+        }
     }
 
     public boolean matches() {
         position = 1;
-        return matcher.matches();
+        return scanner != null ? scanner.matches() : matcher.matches();
     }
 
     public boolean find() {
         position = 1;
-        return matcher.find();
+        return scanner != null ? scanner.find() : matcher.find();
     }
 
     public void skip(int number) {
@@ -46,8 +56,14 @@ public class Parser {
     }
 
     public boolean hasNext(int number) {
-        String value = matcher.group(position);
-        if (value != null && !value.isEmpty()) {
+        boolean present;
+        if (scanner != null) {
+            present = scanner.end(position) > scanner.start(position);
+        } else {
+            String value = matcher.group(position);
+            present = value != null && !value.isEmpty();
+        }
+        if (present) {
             return true;
         } else {
             position += number;
@@ -56,7 +72,65 @@ public class Parser {
     }
 
     public String next() {
-        return matcher.group(position++);
+        return scanner != null ? scanner.group(position++) : matcher.group(position++);
+    }
+
+    private long parseLong(int radix) {
+        CharSequence input = scanner.getInput();
+        int start = scanner.start(position);
+        int end = scanner.end(position);
+        int index = start;
+        boolean negative = input.charAt(index) == '-';
+        if (negative || input.charAt(index) == '+') {
+            index += 1;
+        }
+        if (index == end || radix > 16 || end - index > (radix == 10 ? 18 : 15)) {
+            return Long.parseLong(next(), radix);
+        }
+        long result = 0;
+        for (; index < end; index++) {
+            int digit = Character.digit(input.charAt(index), radix);
+            if (digit < 0) {
+                return Long.parseLong(next(), radix);
+            }
+            result = result * radix + digit;
+        }
+        position += 1;
+        return negative ? -result : result;
+    }
+
+    private double parseDouble() {
+        CharSequence input = scanner.getInput();
+        int start = scanner.start(position);
+        int end = scanner.end(position);
+        int index = start;
+        boolean negative = input.charAt(index) == '-';
+        if (negative || input.charAt(index) == '+') {
+            index += 1;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fraction = -1;
+        for (; index < end; index++) {
+            char c = input.charAt(index);
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + c - '0';
+                digits += 1;
+                if (fraction >= 0) {
+                    fraction += 1;
+                }
+            } else if (c == '.' && fraction < 0) {
+                fraction = 0;
+            } else {
+                return Double.parseDouble(next());
+            }
+        }
+        if (digits == 0 || digits > MAX_FAST_DIGITS) {
+            return Double.parseDouble(next());
+        }
+        position += 1;
+        double result = fraction > 0 ? mantissa / POWERS_OF_TEN[fraction] : mantissa;
+        return negative ? -result : result;
     }
 
     public int nextInt() {
@@ -65,6 +139,14 @@ public class Parser {
 
     public int nextInt(int radix) {
         if (hasNext()) {
+            if (scanner != null) {
+                long value = parseLong(radix);
+                if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                    position -= 1;
+                    return Integer.parseInt(next(), radix);
+                }
+                return (int) value;
+            }
             return Integer.parseInt(next(), radix);
         } else {
             return 0;
@@ -77,7 +159,7 @@ public class Parser {
 
     public long nextLong(int radix) {
         if (hasNext()) {
-            return Long.parseLong(next(), radix);
+            return scanner != null ? parseLong(radix) : Long.parseLong(next(), radix);
         } else {
             return 0;
         }
@@ -85,7 +167,7 @@ public class Parser {
 
     public double nextDouble() {
         if (hasNext()) {
-            return Double.parseDouble(next());
+            return scanner != null ? parseDouble() : Double.parseDouble(next());
         } else {
             return 0.0;
         }
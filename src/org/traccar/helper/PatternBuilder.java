@@ -83,7 +83,9 @@ public class PatternBuilder {
     }
 
     public Pattern compile() {
-        return Pattern.compile(toString(), Pattern.DOTALL);
+        Pattern pattern = Pattern.compile(toString(), Pattern.DOTALL);
+        CompiledPattern.register(pattern);
+        return pattern;
     }
 
     @Override
@@ -0,0 +1,429 @@
+/*
+ * Copyright 2017 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.model;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Insertion ordered attribute map that keeps boolean, integer, long and double values unboxed in a primitive array with
+ * a type tag per entry. Keys are shared between instances through a global registry. Small maps are searched
+ * linearly; larger ones add an open addressing table of entry indexes.
+ */
+public class AttributeMap extends AbstractMap<String, Object> {
+
+    public static final int MAX_KEYS = 10000;
+
+    private static final byte BOOLEAN = 1;
+    private static final byte INTEGER = 2;
+    private static final byte LONG = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte OBJECT = 5;
+
+    private static final int INITIAL_CAPACITY = 4;
+    private static final int HASH_THRESHOLD = 8;
+
+    private static final ConcurrentMap<String, String> KEYS = new ConcurrentHashMap<>();
+
+    private static String intern(String key) {
+        String existing = KEYS.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        if (KEYS.size() >= MAX_KEYS) {
+            return key;
+        }
+        existing = KEYS.putIfAbsent(key, key);
+        return existing != null ? existing : key;
+    }
+
+    private String[] keys;
+    private byte[] types;
+    private long[] values;
+    private Object[] objects;
+    private int[] table;
+    private int size;
+    private int modCount;
+
+    public AttributeMap() {
+    }
+
+    public AttributeMap(Map<String, ?> map) {
+        putAll(map);
+    }
+
+    private static int hash(Object key) {
+        int hash = key.hashCode();
+        return hash ^ hash >>> 16;
+    }
+
+    private int indexOf(Object key) {
+        if (table == null) {
+            for (int i = 0; i < size; i++) {
+                if (keys[i] == key || keys[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        if (key == null) {
+            return -1;
+        }
+        int mask = table.length - 1;
+        for (int slot = hash(key) & mask;; slot = slot + 1 & mask) {
+            int entry = table[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            String candidate = keys[entry - 1];
+            if (candidate == key || candidate.equals(key)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    private void insertSlot(int index) {
+        int mask = table.length - 1;
+        int slot = hash(keys[index]) & mask;
+        while (table[slot] != 0) {
+            slot = slot + 1 & mask;
+        }
+        table[slot] = index + 1;
+    }
+
+    private void rebuildTable() {
+        if (size < HASH_THRESHOLD) {
+            table = null;
+        } else {
+            table = new int[Integer.highestOneBit(size) << 2];
+            for (int i = 0; i < size; i++) {
+                insertSlot(i);
+            }
+        }
+    }
+
+    private int prepare(String key) {
+        if (key == null) {
+            throw new NullPointerException("Attribute key is null");
+        }
+        int index = indexOf(key);
+        if (index < 0) {
+            if (keys == null) {
+                keys = new String[INITIAL_CAPACITY];
+                types = new byte[INITIAL_CAPACITY];
+                values = new long[INITIAL_CAPACITY];
+            } else if (size == keys.length) {
+                int capacity = size + (size >> 1) + 1;
+                keys = Arrays.copyOf(keys, capacity);
+                types = Arrays.copyOf(types, capacity);
+                values = Arrays.copyOf(values, capacity);
+                if (objects != null) {
+                    objects = Arrays.copyOf(objects, capacity);
+                }
+            }
+            index = size++;
+            keys[index] = intern(key);
+            if (table != null && size * 2 <= table.length) {
+                insertSlot(index);
+            } else if (size >= HASH_THRESHOLD) {
+                rebuildTable();
+            }
+            modCount += 1;
+        } else if (objects != null) {
+            objects[index] = null;
+        }
+        return index;
+    }
+
+    private Object value(int index) {
+        switch (types[index]) {
+            case BOOLEAN:
+                return values[index] != 0;
+            case INTEGER:
+                return (int) values[index];
+            case LONG:
+                return values[index];
+            case DOUBLE:
+                return Double.longBitsToDouble(values[index]);
+            default:
+                return objects[index];
+        }
+    }
+
+    private void removeAt(int index) {
+        int moved = size - index - 1;
+        System.arraycopy(keys, index + 1, keys, index, moved);
+        System.arraycopy(types, index + 1, types, index, moved);
+        System.arraycopy(values, index + 1, values, index, moved);
+        if (objects != null) {
+            System.arraycopy(objects, index + 1, objects, index, moved);
+            objects[size - 1] = null;
+        }
+        keys[--size] = null;
+        if (table != null) {
+            rebuildTable();
+        }
+        modCount += 1;
+    }
+
+    public void putBoolean(String key, boolean value) {
+        int index = prepare(key);
+        types[index] = BOOLEAN;
+        values[index] = value ? 1 : 0;
+    }
+
+    public void putInteger(String key, int value) {
+        int index = prepare(key);
+        types[index] = INTEGER;
+        values[index] = value;
+    }
+
+    public void putLong(String key, long value) {
+        int index = prepare(key);
+        types[index] = LONG;
+        values[index] = value;
+    }
+
+    public void putDouble(String key, double value) {
+        int index = prepare(key);
+        types[index] = DOUBLE;
+        values[index] = Double.doubleToRawLongBits(value);
+    }
+
+    private Number number(int index) {
+        return (Number) value(index);
+    }
+
+    public double getDouble(String key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return 0.0;
+        }
+        switch (types[index]) {
+            case INTEGER:
+            case LONG:
+                return values[index];
+            case DOUBLE:
+                return Double.longBitsToDouble(values[index]);
+            default:
+                return number(index).doubleValue();
+        }
+    }
+
+    public int getInteger(String key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return 0;
+        }
+        switch (types[index]) {
+            case INTEGER:
+            case LONG:
+                return (int) values[index];
+            case DOUBLE:
+                return (int) Double.longBitsToDouble(values[index]);
+            default:
+                return number(index).intValue();
+        }
+    }
+
+    public long getLong(String key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return 0;
+        }
+        switch (types[index]) {
+            case INTEGER:
+            case LONG:
+                return values[index];
+            case DOUBLE:
+                return (long) Double.longBitsToDouble(values[index]);
+            default:
+                return number(index).longValue();
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        int index = indexOf(key);
+        return index >= 0 ? value(index) : null;
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int index = indexOf(key);
+        Object previous = index >= 0 ? value(index) : null;
+        if (value instanceof Integer) {
+            putInteger(key, (Integer) value);
+        } else if (value instanceof Double) {
+            putDouble(key, (Double) value);
+        } else if (value instanceof Long) {
+            putLong(key, (Long) value);
+        } else if (value instanceof Boolean) {
+            putBoolean(key, (Boolean) value);
+        } else {
+            index = prepare(key);
+            if (objects == null) {
+                objects = new Object[keys.length];
+            }
+            types[index] = OBJECT;
+            objects[index] = value;
+        }
+        return previous;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        Object previous = value(index);
+        removeAt(index);
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        keys = null;
+        types = null;
+        values = null;
+        objects = null;
+        table = null;
+        size = 0;
+        modCount += 1;
+    }
+
+    private final class AttributeEntry implements Map.Entry<String, Object> {
+
+        private final int index;
+
+        private AttributeEntry(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public String getKey() {
+            return keys[index];
+        }
+
+        @Override
+        public Object getValue() {
+            return value(index);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            return put(keys[index], value);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) other;
+            Object value = getValue();
+            return getKey().equals(entry.getKey())
+                    && (value == null ? entry.getValue() == null : value.equals(entry.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            Object value = getValue();
+            return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return getKey() + "=" + getValue();
+        }
+
+    }
+
+    @Override
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Object>>() {
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public void clear() {
+                AttributeMap.this.clear();
+            }
+
+            @Override
+            public Iterator<Map.Entry<String, Object>> iterator() {
+                return new Iterator<Map.Entry<String, Object>>() {
+                    private int next;
+                    private int last = -1;
+                    private int expectedModCount = modCount;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < size;
+                    }
+
+                    @Override
+                    public Map.Entry<String, Object> next() {
+                        if (modCount != expectedModCount) {
+                            throw new ConcurrentModificationException();
+                        }
+                        if (next >= size) {
+                            throw new NoSuchElementException();
+                        }
+                        last = next++;
+                        return new AttributeEntry(last);
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (last < 0) {
+                            throw new IllegalStateException();
+                        }
+                        if (modCount != expectedModCount) {
+                            throw new ConcurrentModificationException();
+                        }
+                        removeAt(last);
+                        next = last;
+                        last = -1;
+                        expectedModCount = modCount;
+                    }
+                };
+            }
+        };
+    }
+
+}
@@ -18,8 +18,13 @@ package org.traccar.model;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
@@ -31,10 +36,77 @@ import net.fortuna.ical4j.filter.Rule;
 import net.fortuna.ical4j.model.DateTime;
 import net.fortuna.ical4j.model.Dur;
 import net.fortuna.ical4j.model.Period;
+import net.fortuna.ical4j.model.PeriodList;
 import net.fortuna.ical4j.model.component.CalendarComponent;
 
 public class Calendar extends Extensible {
 
+    public static final long INDEX_PERIOD_BEFORE = 24 * 60 * 60 * 1000L;
+    public static final long INDEX_PERIOD_AFTER = 30 * 24 * 60 * 60 * 1000L;
+
+    /**
+     * Sorted and merged occurrences of all events within a time window. Like ical4j period filter, it works with
+     * second precision and treats occurrence start as exclusive and end as inclusive.
+     */
+    private static final class Occurrences {
+
+        private static final Comparator<long[]> START_ORDER = new Comparator<long[]>() {
+            @Override
+            public int compare(long[] period1, long[] period2) {
+                return Long.compare(period1[0], period2[0]);
+            }
+        };
+
+        private final long from;
+        private final long to;
+        private final long[] starts;
+        private final long[] ends;
+
+        private Occurrences(net.fortuna.ical4j.model.Calendar calendar, long from, long to) {
+            this.from = from;
+            this.to = to;
+            List<long[]> periods = new ArrayList<>();
+            Period window = new Period(new DateTime(from - 1000), new DateTime(to + 1000));
+            for (CalendarComponent event : calendar.getComponents(CalendarComponent.VEVENT)) {
+                PeriodList recurrenceSet = event.calculateRecurrenceSet(window);
+                for (Period period : recurrenceSet) {
+                    periods.add(new long[] {period.getStart().getTime(), period.getEnd().getTime()});
+                }
+            }
+            Collections.sort(periods, START_ORDER);
+            long[] starts = new long[periods.size()];
+            long[] ends = new long[periods.size()];
+            int count = 0;
+            for (long[] period : periods) {
+                if (count > 0 && period[0] <= ends[count - 1]) {
+                    ends[count - 1] = Math.max(ends[count - 1], period[1]);
+                } else {
+                    starts[count] = period[0];
+                    ends[count] = period[1];
+                    count += 1;
+                }
+            }
+            this.starts = Arrays.copyOf(starts, count);
+            this.ends = Arrays.copyOf(ends, count);
+        }
+
+        private boolean covers(long time) {
+            return time >= from && time < to;
+        }
+
+        private boolean contains(long time) {
+            time -= time % 1000;
+            int index = Arrays.binarySearch(starts, time);
+            if (index < 0) {
+                index = -index - 2;
+            } else {
+                index -= 1;
+            }
+            return index >= 0 && time <= ends[index];
+        }
+
+    }
+
     private String name;
 
     public String getName() {
@@ -54,6 +126,7 @@ public class Calendar extends Extensible {
     public void setData(byte[] data) throws IOException, ParserException {
         CalendarBuilder builder = new CalendarBuilder();
         calendar = builder.build(new ByteArrayInputStream(data));
+        occurrences = null;
         this.data = data.clone();
     }
 
@@ -64,8 +137,29 @@ public class Calendar extends Extensible {
         return calendar;
     }
 
+    private volatile Occurrences occurrences;
+
+    private Occurrences getOccurrences(long time) {
+        Occurrences result = occurrences;
+        if (result == null || !result.covers(time)) {
+            long currentTime = System.currentTimeMillis();
+            if (time >= currentTime - INDEX_PERIOD_BEFORE && time < currentTime + INDEX_PERIOD_AFTER) {
+                result = new Occurrences(calendar, currentTime - INDEX_PERIOD_BEFORE,
+                        currentTime + INDEX_PERIOD_AFTER);
+                occurrences = result;
+            } else {
+                result = null;
+            }
+        }
+        return result;
+    }
+
     public boolean checkMoment(Date date) {
         if (calendar != null) {
+            Occurrences index = getOccurrences(date.getTime());
+            if (index != null) {
+                return index.contains(date.getTime());
+            }
             Period period = new Period(new DateTime(date), new Dur(0, 0, 0, 0));
             Rule<CalendarComponent> periodRule = new PeriodRule<>(period);
             Filter<CalendarComponent> filter = new Filter<>(new Rule[] {periodRule}, Filter.MATCH_ANY);
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 Anton Tananaev (anton@traccar.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.traccar.model;
+
+import java.util.Date;
+
+public class Change {
+
+    public static final String DEVICE = "device";
+    public static final String GROUP = "group";
+    public static final String USER = "user";
+    public static final String PERMISSION = "permission";
+
+    private long id;
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    private String entity;
+
+    public String getEntity() {
+        return entity;
+    }
+
+    public void setEntity(String entity) {
+        this.entity = entity;
+    }
+
+    private long entityId;
+
+    public long getEntityId() {
+        return entityId;
+    }
+
+    public void setEntityId(long entityId) {
+        this.entityId = entityId;
+    }
+
+    private Date changeTime;
+
+    public Date getChangeTime() {
+        if (changeTime != null) {
+            return new Date(changeTime.getTime());
+        } else {
+            return null;
+        }
+    }
+
+    public void setChangeTime(Date changeTime) {
+        if (changeTime != null) {
+            this.changeTime = new Date(changeTime.getTime());
+        } else {
+            this.changeTime = null;
+        }
+    }
+
+}
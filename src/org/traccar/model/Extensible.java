@@ -15,7 +15,6 @@
  */
 package org.traccar.model;
 
-import java.util.LinkedHashMap;
 import java.util.Map;
 
 public class Extensible {
@@ -30,30 +29,34 @@ public class Extensible {
         this.id = id;
     }
 
-    private Map<String, Object> attributes = new LinkedHashMap<>();
+    private AttributeMap attributes = new AttributeMap();
 
     public Map<String, Object> getAttributes() {
         return attributes;
     }
 
     public void setAttributes(Map<String, Object> attributes) {
-        this.attributes = attributes;
+        if (attributes == null || attributes instanceof AttributeMap) {
+            this.attributes = (AttributeMap) attributes;
+        } else {
+            this.attributes = new AttributeMap(attributes);
+        }
     }
 
     public void set(String key, boolean value) {
-        attributes.put(key, value);
+        attributes.putBoolean(key, value);
     }
 
     public void set(String key, int value) {
-        attributes.put(key, value);
+        attributes.putInteger(key, value);
     }
 
     public void set(String key, long value) {
-        attributes.put(key, value);
+        attributes.putLong(key, value);
     }
 
     public void set(String key, double value) {
-        attributes.put(key, value);
+        attributes.putDouble(key, value);
     }
 
     public void set(String key, String value) {
@@ -77,11 +80,7 @@ public class Extensible {
     }
 
     public double getDouble(String key) {
-        if (attributes.containsKey(key)) {
-            return ((Number) attributes.get(key)).doubleValue();
-        } else {
-            return 0.0;
-        }
+        return attributes.getDouble(key);
     }
 
     public boolean getBoolean(String key) {
@@ -93,19 +92,11 @@ public class Extensible {
     }
 
     public int getInteger(String key) {
-        if (attributes.containsKey(key)) {
-            return ((Number) attributes.get(key)).intValue();
-        } else {
-            return 0;
-        }
+        return attributes.getInteger(key);
     }
 
     public long getLong(String key) {
-        if (attributes.containsKey(key)) {
-            return ((Number) attributes.get(key)).longValue();
-        } else {
-            return 0;
-        }
+        return attributes.getLong(key);
     }
 
 }
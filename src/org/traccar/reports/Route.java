@@ -23,7 +23,6 @@ import java.io.OutputStream;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Date;
 import java.util.List;
 
 import org.joda.time.DateTime;
@@ -45,12 +44,10 @@ public final class Route {
     private Route() {
     }
 
-    public static Collection<Position> getObjects(long userId, Collection<Long> deviceIds, Collection<Long> groupIds,
-            Date from, Date to) throws SQLException {
-        ArrayList<Position> result = new ArrayList<>();
-        for (long deviceId: ReportUtils.getDeviceList(deviceIds, groupIds)) {
+    public static Collection<Long> getDevices(long userId, Collection<Long> deviceIds, Collection<Long> groupIds) {
+        Collection<Long> result = ReportUtils.getDeviceList(deviceIds, groupIds);
+        for (long deviceId: result) {
             Context.getPermissionsManager().checkDevice(userId, deviceId);
-            result.addAll(Context.getDataManager().getPositions(deviceId, from, to));
         }
         return result;
     }
@@ -29,6 +29,7 @@ import org.joda.time.DateTime;
 import org.jxls.transform.poi.PoiTransformer;
 import org.jxls.util.JxlsHelper;
 import org.traccar.Context;
+import org.traccar.database.QueryBuilder;
 import org.traccar.model.Position;
 import org.traccar.reports.model.SummaryReport;
 
@@ -37,32 +38,48 @@ public final class Summary {
     private Summary() {
     }
 
+    private static final class SummaryCalculator implements QueryBuilder.ResultHandler<Position> {
+
+        private final SummaryReport result;
+        private Position firstPosition;
+        private Position previousPosition;
+        private double speedSum;
+        private int count;
+
+        private SummaryCalculator(SummaryReport result) {
+            this.result = result;
+        }
+
+        @Override
+        public void handleResult(Position position) {
+            if (firstPosition == null) {
+                firstPosition = position;
+            }
+            if (previousPosition != null && position.getBoolean(Position.KEY_IGNITION)
+                    && previousPosition.getBoolean(Position.KEY_IGNITION)) {
+                result.addEngineHours(position.getFixTime().getTime()
+                        - previousPosition.getFixTime().getTime());
+            }
+            previousPosition = position;
+            speedSum += position.getSpeed();
+            result.setMaxSpeed(position.getSpeed());
+            count += 1;
+        }
+
+    }
+
     private static SummaryReport calculateSummaryResult(long deviceId, Date from, Date to) throws SQLException {
         SummaryReport result = new SummaryReport();
         result.setDeviceId(deviceId);
         result.setDeviceName(Context.getIdentityManager().getDeviceById(deviceId).getName());
-        Collection<Position> positions = Context.getDataManager().getPositions(deviceId, from, to);
-        if (positions != null && !positions.isEmpty()) {
-            Position firstPosition = null;
-            Position previousPosition = null;
-            double speedSum = 0;
-            for (Position position : positions) {
-                if (firstPosition == null) {
-                    firstPosition = position;
-                }
-                if (previousPosition != null && position.getBoolean(Position.KEY_IGNITION)
-                        && previousPosition.getBoolean(Position.KEY_IGNITION)) {
-                    result.addEngineHours(position.getFixTime().getTime()
-                            - previousPosition.getFixTime().getTime());
-                }
-                previousPosition = position;
-                speedSum += position.getSpeed();
-                result.setMaxSpeed(position.getSpeed());
-            }
+        SummaryCalculator calculator = new SummaryCalculator(result);
+        Context.getDataManager().getPositions(deviceId, from, to, calculator);
+        if (calculator.count > 0) {
             boolean ignoreOdometer = Context.getDeviceManager()
                     .lookupAttributeBoolean(deviceId, "report.ignoreOdometer", false, true);
-            result.setDistance(ReportUtils.calculateDistance(firstPosition, previousPosition, !ignoreOdometer));
-            result.setAverageSpeed(speedSum / positions.size());
+            result.setDistance(ReportUtils.calculateDistance(
+                    calculator.firstPosition, calculator.previousPosition, !ignoreOdometer));
+            result.setAverageSpeed(calculator.speedSum / calculator.count);
         }
         return result;
     }
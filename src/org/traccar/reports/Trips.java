@@ -35,6 +35,7 @@ import org.jxls.transform.Transformer;
 import org.jxls.transform.poi.PoiTransformer;
 import org.jxls.util.TransformerFactory;
 import org.traccar.Context;
+import org.traccar.database.QueryBuilder;
 import org.traccar.model.Device;
 import org.traccar.model.Group;
 import org.traccar.model.Position;
@@ -47,7 +48,7 @@ public final class Trips {
     }
 
     private static TripReport calculateTrip(
-            ArrayList<Position> positions, int startIndex, int endIndex, boolean ignoreOdometer) {
+            List<Position> positions, int startIndex, int endIndex, boolean ignoreOdometer) {
         Position startTrip = positions.get(startIndex);
         Position endTrip = positions.get(endIndex);
 
@@ -89,79 +90,144 @@ public final class Trips {
         return trip;
     }
 
-    protected static Collection<TripReport> detectTrips(
-            double speedThreshold, double minimalTripDistance,
-            long minimalTripDuration, long minimalParkingDuration, boolean greedyParking, boolean ignoreOdometer,
-            Collection<Position> positionCollection) {
+    private static final class TripsDetector implements QueryBuilder.ResultHandler<Position> {
 
-        Collection<TripReport> result = new ArrayList<>();
+        private final double speedThreshold;
+        private final double minimalTripDistance;
+        private final long minimalTripDuration;
+        private final long minimalParkingDuration;
+        private final boolean greedyParking;
+        private final boolean ignoreOdometer;
 
-        ArrayList<Position> positions = new ArrayList<>(positionCollection);
-        if (positions != null && !positions.isEmpty()) {
-            int previousStartParkingIndex = 0;
-            int startParkingIndex = -1;
-            int previousEndParkingIndex = 0;
-            int endParkingIndex = 0;
+        private final Collection<TripReport> result = new ArrayList<>();
 
-            boolean isMoving = false;
-            boolean isLast = false;
-            boolean skipped = false;
-            boolean tripFiltered = false;
+        private final List<Position> positions = new ArrayList<>();
+        private int offset;
+        private Position pending;
 
-            for (int i = 0; i < positions.size(); i++) {
-                isMoving = positions.get(i).getSpeed() > speedThreshold;
-                isLast = i == positions.size() - 1;
+        private int previousStartParkingIndex = 0;
+        private int startParkingIndex = -1;
+        private int previousEndParkingIndex = 0;
+        private int endParkingIndex = 0;
 
-                if ((isMoving || isLast) && startParkingIndex != -1) {
-                    if (!skipped || previousEndParkingIndex == 0) {
-                        previousEndParkingIndex = endParkingIndex;
-                    }
-                    endParkingIndex = i;
+        private boolean skipped = false;
+        private boolean tripFiltered = false;
+
+        private TripsDetector(
+                double speedThreshold, double minimalTripDistance, long minimalTripDuration,
+                long minimalParkingDuration, boolean greedyParking, boolean ignoreOdometer) {
+            this.speedThreshold = speedThreshold;
+            this.minimalTripDistance = minimalTripDistance;
+            this.minimalTripDuration = minimalTripDuration;
+            this.minimalParkingDuration = minimalParkingDuration;
+            this.greedyParking = greedyParking;
+            this.ignoreOdometer = ignoreOdometer;
+        }
+
+        @Override
+        public void handleResult(Position position) {
+            if (pending != null) {
+                process(false);
+            }
+            pending = position;
+        }
+
+        public Collection<TripReport> finish() {
+            if (pending != null) {
+                process(true);
+                pending = null;
+            }
+            return result;
+        }
+
+        private Position get(int index) {
+            return positions.get(index - offset);
+        }
+
+        private void process(boolean isLast) {
+            int i = offset + positions.size();
+            positions.add(pending);
+
+            boolean isMoving = get(i).getSpeed() > speedThreshold;
+
+            if ((isMoving || isLast) && startParkingIndex != -1) {
+                if (!skipped || previousEndParkingIndex == 0) {
+                    previousEndParkingIndex = endParkingIndex;
                 }
-                if (!isMoving && startParkingIndex == -1) {
-                    if (greedyParking) {
-                        long tripDuration = positions.get(i).getFixTime().getTime()
-                                - positions.get(endParkingIndex).getFixTime().getTime();
-                        double tripDistance = ReportUtils.calculateDistance(positions.get(endParkingIndex),
-                                positions.get(i), false);
-                        tripFiltered = tripDuration < minimalTripDuration && tripDistance < minimalTripDistance;
-                        if (tripFiltered) {
-                            startParkingIndex = previousStartParkingIndex;
-                            endParkingIndex = previousEndParkingIndex;
-                            tripFiltered = false;
-                        } else {
-                            previousStartParkingIndex = i;
-                            startParkingIndex = i;
-                        }
+                endParkingIndex = i;
+            }
+            if (!isMoving && startParkingIndex == -1) {
+                if (greedyParking) {
+                    long tripDuration = get(i).getFixTime().getTime()
+                            - get(endParkingIndex).getFixTime().getTime();
+                    double tripDistance = ReportUtils.calculateDistance(get(endParkingIndex), get(i), false);
+                    tripFiltered = tripDuration < minimalTripDuration && tripDistance < minimalTripDistance;
+                    if (tripFiltered) {
+                        startParkingIndex = previousStartParkingIndex;
+                        endParkingIndex = previousEndParkingIndex;
+                        tripFiltered = false;
                     } else {
-                        long tripDuration = positions.get(i).getFixTime().getTime()
-                                - positions.get(previousEndParkingIndex).getFixTime().getTime();
-                        double tripDistance = ReportUtils.calculateDistance(positions.get(previousEndParkingIndex),
-                                positions.get(i), false);
-                        tripFiltered = tripDuration < minimalTripDuration && tripDistance < minimalTripDistance;
+                        previousStartParkingIndex = i;
                         startParkingIndex = i;
                     }
+                } else {
+                    long tripDuration = get(i).getFixTime().getTime()
+                            - get(previousEndParkingIndex).getFixTime().getTime();
+                    double tripDistance = ReportUtils.calculateDistance(get(previousEndParkingIndex), get(i), false);
+                    tripFiltered = tripDuration < minimalTripDuration && tripDistance < minimalTripDistance;
+                    startParkingIndex = i;
                 }
-                if (startParkingIndex != -1 && (endParkingIndex > startParkingIndex || isLast)) {
-                    long parkingDuration = positions.get(endParkingIndex).getFixTime().getTime()
-                            - positions.get(startParkingIndex).getFixTime().getTime();
-                    if ((parkingDuration >= minimalParkingDuration || isLast)
-                            && previousEndParkingIndex < startParkingIndex) {
-                        if (!tripFiltered) {
-                            result.add(calculateTrip(
-                                    positions, previousEndParkingIndex, startParkingIndex, ignoreOdometer));
-                        }
-                        previousEndParkingIndex = endParkingIndex;
-                        skipped = false;
-                    } else {
-                        skipped = true;
+            }
+            if (startParkingIndex != -1 && (endParkingIndex > startParkingIndex || isLast)) {
+                long parkingDuration = get(endParkingIndex).getFixTime().getTime()
+                        - get(startParkingIndex).getFixTime().getTime();
+                if ((parkingDuration >= minimalParkingDuration || isLast)
+                        && previousEndParkingIndex < startParkingIndex) {
+                    if (!tripFiltered) {
+                        result.add(calculateTrip(positions,
+                                previousEndParkingIndex - offset, startParkingIndex - offset, ignoreOdometer));
                     }
-                    startParkingIndex = -1;
+                    previousEndParkingIndex = endParkingIndex;
+                    skipped = false;
+                } else {
+                    skipped = true;
                 }
+                startParkingIndex = -1;
             }
+
+            releasePositions();
         }
 
-        return result;
+        private void releasePositions() {
+            // Positions before the earliest referenced index are never accessed again
+            int first = Math.min(previousEndParkingIndex, endParkingIndex);
+            if (startParkingIndex != -1) {
+                first = Math.min(first, startParkingIndex);
+            }
+            if (greedyParking) {
+                first = Math.min(first, previousStartParkingIndex);
+            }
+            int count = first - offset;
+            if (count > 0 && count >= positions.size() / 2) {
+                positions.subList(0, count).clear();
+                offset = first;
+            }
+        }
+
+    }
+
+    protected static Collection<TripReport> detectTrips(
+            double speedThreshold, double minimalTripDistance,
+            long minimalTripDuration, long minimalParkingDuration, boolean greedyParking, boolean ignoreOdometer,
+            Collection<Position> positionCollection) {
+
+        TripsDetector detector = new TripsDetector(
+                speedThreshold, minimalTripDistance, minimalTripDuration,
+                minimalParkingDuration, greedyParking, ignoreOdometer);
+        for (Position position : positionCollection) {
+            detector.handleResult(position);
+        }
+        return detector.finish();
     }
 
     private static Collection<TripReport> detectTrips(long deviceId, Date from, Date to) throws SQLException {
@@ -174,10 +240,11 @@ public final class Trips {
         boolean ignoreOdometer = Context.getDeviceManager()
                 .lookupAttributeBoolean(deviceId, "report.ignoreOdometer", false, true);
 
-        return detectTrips(
+        TripsDetector detector = new TripsDetector(
                 speedThreshold, minimalTripDistance, minimalTripDuration,
-                minimalParkingDuration, greedyParking, ignoreOdometer,
-                Context.getDataManager().getPositions(deviceId, from, to));
+                minimalParkingDuration, greedyParking, ignoreOdometer);
+        Context.getDataManager().getPositions(deviceId, from, to, detector);
+        return detector.finish();
     }
 
     public static Collection<TripReport> getObjects(long userId, Collection<Long> deviceIds, Collection<Long> groupIds,
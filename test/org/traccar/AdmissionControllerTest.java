@@ -0,0 +1,121 @@
+package org.traccar;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.socket.DatagramChannel;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+public class AdmissionControllerTest {
+
+    private static final class ChannelHandler implements InvocationHandler {
+
+        private boolean readable = true;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "setReadable":
+                    readable = (Boolean) args[0];
+                    return null;
+                case "isOpen":
+                    return true;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    return null;
+            }
+        }
+
+    }
+
+    private static Channel createChannel(Class<? extends Channel> type, ChannelHandler handler) {
+        return (Channel) Proxy.newProxyInstance(
+                AdmissionControllerTest.class.getClassLoader(), new Class[] {type}, handler);
+    }
+
+    @Test
+    public void testPermits() {
+
+        AdmissionController controller = new AdmissionController(0, 0, 0, 0);
+
+        AdmissionController.Permit first = controller.acquire(null, "test");
+        AdmissionController.Permit second = controller.acquire(null, "test");
+        Assert.assertEquals(2, controller.getInFlight());
+        Assert.assertEquals(2, controller.getStates().get("test").getInFlight());
+
+        first.release();
+        first.release();
+        Assert.assertEquals(1, controller.getInFlight());
+
+        AdmissionController.setCurrentPermit(second);
+        AdmissionController.Permit taken = AdmissionController.takePermit();
+        Assert.assertSame(second, taken);
+        Assert.assertNull(AdmissionController.takePermit());
+        Assert.assertEquals(1, controller.getInFlight());
+
+        taken.release();
+        Assert.assertEquals(0, controller.getInFlight());
+        Assert.assertEquals(0, controller.getStates().get("test").getInFlight());
+
+    }
+
+    @Test
+    public void testTcpWatermarks() {
+
+        AdmissionController controller = new AdmissionController(2, 1, 0, 0);
+        ChannelHandler handler = new ChannelHandler();
+        Channel channel = createChannel(Channel.class, handler);
+
+        AdmissionController.Permit first = controller.acquire(channel, "test");
+        AdmissionController.Permit second = controller.acquire(channel, "test");
+        Assert.assertTrue(handler.readable);
+        Assert.assertFalse(controller.getStates().get("test").isThrottled());
+
+        AdmissionController.Permit third = controller.acquire(channel, "test");
+        Assert.assertNotNull(third);
+        Assert.assertFalse(handler.readable);
+        Assert.assertTrue(controller.getStates().get("test").isThrottled());
+        Assert.assertEquals(1, controller.getStates().get("test").getThrottleCount());
+
+        first.release();
+        Assert.assertFalse(handler.readable);
+
+        second.release();
+        Assert.assertTrue(handler.readable);
+        Assert.assertFalse(controller.getStates().get("test").isThrottled());
+
+        third.release();
+        Assert.assertEquals(0, controller.getInFlight());
+
+    }
+
+    @Test
+    public void testUdpShedding() {
+
+        AdmissionController controller = new AdmissionController(0, 0, 1, 0);
+        ChannelHandler handler = new ChannelHandler();
+        Channel channel = createChannel(DatagramChannel.class, handler);
+
+        AdmissionController.Permit first = controller.acquire(channel, "test");
+        Assert.assertNotNull(first);
+        Assert.assertNotNull(controller.acquire(channel, "other"));
+
+        Assert.assertNull(controller.acquire(channel, "test"));
+        Assert.assertNull(controller.acquire(channel, "test"));
+        Assert.assertTrue(handler.readable);
+        Assert.assertEquals(2, controller.getStates().get("test").getShedCount());
+        Assert.assertEquals(0, controller.getStates().get("other").getShedCount());
+
+        first.release();
+        Assert.assertFalse(controller.getStates().get("test").isThrottled());
+        Assert.assertNotNull(controller.acquire(channel, "test"));
+
+    }
+
+}
@@ -0,0 +1,77 @@
+package org.traccar;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.traccar.database.AddressWriter;
+import org.traccar.geocoder.AddressFormat;
+import org.traccar.geocoder.Geocoder;
+import org.traccar.model.Position;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class DeferredGeocoderHandlerTest extends BaseTest {
+
+    private final List<Geocoder.ReverseGeocoderCallback> requests = new ArrayList<>();
+    private final BlockingQueue<Position> written = new LinkedBlockingQueue<>();
+
+    private final Geocoder geocoder = new Geocoder() {
+        @Override
+        public void getAddress(
+                AddressFormat format, double latitude, double longitude, ReverseGeocoderCallback callback) {
+            requests.add(callback);
+        }
+    };
+
+    private final AddressWriter addressWriter = new AddressWriter(null, 1, 0, 100) {
+        @Override
+        protected void writeAddresses(List<Position> batch) {
+            written.addAll(batch);
+        }
+    };
+
+    private Position createPosition(long id) {
+        Position position = new Position();
+        position.setId(id);
+        position.setDeviceId(1);
+        position.setValid(true);
+        return position;
+    }
+
+    @Test
+    public void testDeferredGeocoder() throws Exception {
+
+        DeferredGeocoderHandler handler = new DeferredGeocoderHandler(geocoder, addressWriter, false);
+
+        Position position = createPosition(10);
+        Assert.assertSame(position, handler.handlePosition(position));
+        Assert.assertEquals(1, requests.size());
+
+        requests.get(0).onSuccess("address");
+        Assert.assertNull(position.getAddress());
+
+        Position update = written.poll(5, TimeUnit.SECONDS);
+        Assert.assertEquals(10, update.getId());
+        Assert.assertEquals("address", update.getAddress());
+
+        Position unstored = createPosition(0);
+        handler.handlePosition(unstored);
+        requests.get(1).onSuccess("address");
+        Assert.assertNull(written.poll(100, TimeUnit.MILLISECONDS));
+
+        Position resolved = createPosition(11);
+        resolved.setAddress("known");
+        handler.handlePosition(resolved);
+        Position invalid = createPosition(12);
+        invalid.setValid(false);
+        handler.handlePosition(invalid);
+        Assert.assertEquals(2, requests.size());
+
+        addressWriter.stop();
+
+    }
+
+}
@@ -0,0 +1,142 @@
+package org.traccar;
+
+import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.ChannelState;
+import org.jboss.netty.channel.MessageEvent;
+import org.jboss.netty.channel.UpstreamChannelStateEvent;
+import org.jboss.netty.channel.UpstreamMessageEvent;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class ProcessingHandlerTest {
+
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+    private final BlockingQueue<ProcessingHandler.Handoff> handoffs = new LinkedBlockingQueue<>();
+
+    private final Channel channel = (Channel) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class[] {Channel.class}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    switch (method.getName()) {
+                        case "getId":
+                            return 1;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return null;
+                    }
+                }
+            });
+
+    private ChannelHandlerContext createContext(final boolean handOff) {
+        return (ChannelHandlerContext) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class[] {ChannelHandlerContext.class}, new InvocationHandler() {
+                    private Object attachment;
+
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        switch (method.getName()) {
+                            case "getAttachment":
+                                return attachment;
+                            case "setAttachment":
+                                attachment = args[0];
+                                return null;
+                            case "sendUpstream":
+                                ChannelEvent event = (ChannelEvent) args[0];
+                                if (event instanceof MessageEvent) {
+                                    if (handOff) {
+                                        handoffs.add(ProcessingHandler.handOff());
+                                    }
+                                    received.add((String) ((MessageEvent) event).getMessage());
+                                } else {
+                                    received.add("state");
+                                }
+                                return null;
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "equals":
+                                return proxy == args[0];
+                            default:
+                                return null;
+                        }
+                    }
+                });
+    }
+
+    private ChannelEvent createMessage(String message) {
+        return new UpstreamMessageEvent(channel, message, null);
+    }
+
+    private ChannelEvent createStateEvent() {
+        return new UpstreamChannelStateEvent(channel, ChannelState.CONNECTED, null);
+    }
+
+    @Test
+    public void testStateEventOrder() throws Exception {
+
+        ProcessingHandler handler = new ProcessingHandler(2, 10, null);
+        ChannelHandlerContext ctx = createContext(false);
+
+        handler.handleUpstream(ctx, createStateEvent());
+        Assert.assertEquals("state", received.poll());
+
+        handler.handleUpstream(ctx, createMessage("first"));
+        handler.handleUpstream(ctx, createMessage("second"));
+        handler.handleUpstream(ctx, createStateEvent());
+
+        Assert.assertEquals("first", received.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals("second", received.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals("state", received.poll(5, TimeUnit.SECONDS));
+
+        handler.stop();
+
+    }
+
+    @Test
+    public void testHandoff() throws Exception {
+
+        ProcessingHandler handler = new ProcessingHandler(1, 10, null);
+        ChannelHandlerContext ctx = createContext(true);
+
+        Assert.assertNull(ProcessingHandler.handOff());
+
+        handler.handleUpstream(ctx, createMessage("first"));
+        handler.handleUpstream(ctx, createMessage("second"));
+        handler.handleUpstream(ctx, createStateEvent());
+
+        Assert.assertEquals("first", received.poll(5, TimeUnit.SECONDS));
+        Assert.assertEquals("second", received.poll(5, TimeUnit.SECONDS));
+        ProcessingHandler.Handoff first = handoffs.poll(5, TimeUnit.SECONDS);
+        ProcessingHandler.Handoff second = handoffs.poll(5, TimeUnit.SECONDS);
+        Assert.assertNull(received.poll(200, TimeUnit.MILLISECONDS));
+
+        second.complete();
+        second.complete();
+        Assert.assertNull(received.poll(200, TimeUnit.MILLISECONDS));
+
+        handler.handleUpstream(ctx, createStateEvent());
+        Assert.assertTrue(received.isEmpty());
+
+        first.complete();
+        Assert.assertEquals("state", received.poll());
+        Assert.assertEquals("state", received.poll());
+
+        handler.handleUpstream(ctx, createStateEvent());
+        Assert.assertEquals("state", received.poll());
+
+        handler.stop();
+
+    }
+
+}
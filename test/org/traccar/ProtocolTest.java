@@ -25,6 +25,26 @@ import java.util.TimeZone;
 
 public class ProtocolTest extends BaseTest {
 
+    private static List<Object[]> samples;
+
+    /**
+     * Collects decoder and copy of each verified message, used by benchmarks to reuse test samples.
+     */
+    public static void setSamples(List<Object[]> samples) {
+        ProtocolTest.samples = samples;
+    }
+
+    private Object decode(BaseProtocolDecoder decoder, Object object) throws Exception {
+        if (samples != null) {
+            if (object instanceof ChannelBuffer) {
+                samples.add(new Object[] {decoder, ((ChannelBuffer) object).copy()});
+            } else {
+                samples.add(new Object[] {decoder, object});
+            }
+        }
+        return decoder.decode(null, null, object);
+    }
+
     protected Position position(String time, boolean valid, double lat, double lon) throws ParseException {
 
         Position position = new Position();
@@ -81,35 +101,35 @@ public class ProtocolTest extends BaseTest {
     }
 
     protected void verifyNotNull(BaseProtocolDecoder decoder, Object object) throws Exception {
-        Assert.assertNotNull(decoder.decode(null, null, object));
+        Assert.assertNotNull(decode(decoder, object));
     }
 
     protected void verifyNothing(BaseProtocolDecoder decoder, Object object) throws Exception {
-        Assert.assertNull(decoder.decode(null, null, object));
+        Assert.assertNull(decode(decoder, object));
     }
 
     protected void verifyAttributes(BaseProtocolDecoder decoder, Object object) throws Exception {
-        verifyDecodedPosition(decoder.decode(null, null, object), false, true, null);
+        verifyDecodedPosition(decode(decoder, object), false, true, null);
     }
 
     protected void verifyPosition(BaseProtocolDecoder decoder, Object object) throws Exception {
-        verifyDecodedPosition(decoder.decode(null, null, object), true, false, null);
+        verifyDecodedPosition(decode(decoder, object), true, false, null);
     }
 
     protected void verifyPosition(BaseProtocolDecoder decoder, Object object, Position position) throws Exception {
-        verifyDecodedPosition(decoder.decode(null, null, object), true, false, position);
+        verifyDecodedPosition(decode(decoder, object), true, false, position);
     }
 
     protected void verifyPositions(BaseProtocolDecoder decoder, Object object) throws Exception {
-        verifyDecodedList(decoder.decode(null, null, object), true, null);
+        verifyDecodedList(decode(decoder, object), true, null);
     }
 
     protected void verifyPositions(BaseProtocolDecoder decoder, boolean checkLocation, Object object) throws Exception {
-        verifyDecodedList(decoder.decode(null, null, object), checkLocation, null);
+        verifyDecodedList(decode(decoder, object), checkLocation, null);
     }
 
     protected void verifyPositions(BaseProtocolDecoder decoder, Object object, Position position) throws Exception {
-        verifyDecodedList(decoder.decode(null, null, object), true, position);
+        verifyDecodedList(decode(decoder, object), true, position);
     }
 
     private void verifyDecodedList(Object decodedObject, boolean checkLocation, Position expected) {
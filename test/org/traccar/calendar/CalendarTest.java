@@ -55,4 +55,34 @@ public class CalendarTest {
         date = format.parse("2016-12-13 07:00:01+05");
         Assert.assertTrue(!calendar.checkMoment(date));
     }
+
+    @Test
+    public void testCalendarIndex() throws IOException, ParserException {
+        String calendarString = "BEGIN:VCALENDAR\n" +
+                "PRODID:-//Mozilla.org/NONSGML Mozilla Calendar V1.1//EN\n" +
+                "VERSION:2.0\n" +
+                "BEGIN:VEVENT\n" +
+                "DTSTAMP:20161213T045242Z\n" +
+                "UID:9d000df0-6354-479d-a407-218dac62c7c9\n" +
+                "SUMMARY:Every night\n" +
+                "RRULE:FREQ=DAILY\n" +
+                "DTSTART:20161130T230000Z\n" +
+                "DTEND:20161201T070000Z\n" +
+                "END:VEVENT\n" +
+                "END:VCALENDAR";
+        Calendar calendar = new Calendar();
+        calendar.setData(calendarString.getBytes());
+
+        long day = 24 * 60 * 60 * 1000L;
+        long start = System.currentTimeMillis() / day * day + 23 * 60 * 60 * 1000L;
+        long end = start + 8 * 60 * 60 * 1000L;
+
+        Assert.assertFalse(calendar.checkMoment(new Date(start - 1000)));
+        Assert.assertFalse(calendar.checkMoment(new Date(start)));
+        Assert.assertTrue(calendar.checkMoment(new Date(start + 1000)));
+        Assert.assertTrue(calendar.checkMoment(new Date(end)));
+        Assert.assertFalse(calendar.checkMoment(new Date(end + 1000)));
+        Assert.assertTrue(calendar.checkMoment(new Date(start + 7 * day + 1000)));
+        Assert.assertFalse(calendar.checkMoment(new Date(end + 7 * day + 1000)));
+    }
 }
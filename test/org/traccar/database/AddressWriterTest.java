@@ -0,0 +1,99 @@
+package org.traccar.database;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.traccar.model.Position;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class AddressWriterTest {
+
+    private final BlockingQueue<List<Position>> batches = new LinkedBlockingQueue<>();
+
+    private AddressWriter createWriter(int batchSize, long flushInterval) {
+        return new AddressWriter(null, batchSize, flushInterval, 100) {
+            @Override
+            protected void writeAddresses(List<Position> batch) {
+                batches.add(new ArrayList<>(batch));
+            }
+        };
+    }
+
+    @Test
+    public void testBatching() throws Exception {
+
+        AddressWriter writer = createWriter(2, 60000);
+
+        for (int i = 1; i <= 4; i++) {
+            Assert.assertTrue(writer.addAddress(i, new Date(), "address " + i));
+        }
+
+        List<Position> batch = batches.poll(5, TimeUnit.SECONDS);
+        Assert.assertEquals(2, batch.size());
+        Assert.assertEquals(1, batch.get(0).getId());
+        Assert.assertEquals("address 1", batch.get(0).getAddress());
+        Assert.assertEquals(2, batches.poll(5, TimeUnit.SECONDS).size());
+
+        writer.stop();
+
+    }
+
+    @Test
+    public void testFlushInterval() throws Exception {
+
+        AddressWriter writer = createWriter(10, 200);
+
+        long startTime = System.currentTimeMillis();
+        Assert.assertTrue(writer.addAddress(1, new Date(), "address"));
+
+        List<Position> batch = batches.poll(5, TimeUnit.SECONDS);
+        Assert.assertEquals(1, batch.size());
+        Assert.assertTrue(System.currentTimeMillis() - startTime >= 150);
+
+        writer.stop();
+
+    }
+
+    @Test
+    public void testSkipUnstored() throws Exception {
+
+        AddressWriter writer = createWriter(1, 0);
+
+        Assert.assertFalse(writer.addAddress(0, new Date(), "address"));
+        writer.stop();
+        Assert.assertTrue(batches.isEmpty());
+
+        Assert.assertFalse(writer.addAddress(1, new Date(), "address"));
+
+    }
+
+    @Test
+    public void testWriteFailure() throws Exception {
+
+        AddressWriter writer = new AddressWriter(null, 1, 0, 100) {
+            @Override
+            protected void writeAddresses(List<Position> batch) {
+                if (batch.get(0).getId() == 1) {
+                    throw new IllegalStateException("write failed");
+                }
+                batches.add(new ArrayList<>(batch));
+            }
+        };
+
+        Assert.assertTrue(writer.addAddress(1, new Date(), "address 1"));
+        Assert.assertTrue(writer.addAddress(2, new Date(), "address 2"));
+
+        List<Position> batch = batches.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(batch);
+        Assert.assertEquals(2, batch.get(0).getId());
+
+        writer.stop();
+
+    }
+
+}
@@ -0,0 +1,213 @@
+package org.traccar.database;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.traccar.Config;
+import org.traccar.model.Device;
+import org.traccar.model.Group;
+import org.traccar.model.Position;
+import org.traccar.model.Server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class DeviceManagerTest {
+
+    private static Config createConfig(final Map<String, String> values) {
+        return new Config() {
+            @Override
+            public boolean hasKey(String key) {
+                return values.containsKey(key);
+            }
+
+            @Override
+            public String getString(String key) {
+                return values.get(key);
+            }
+        };
+    }
+
+    private static Config createDatabaseConfig() {
+        Map<String, String> values = new HashMap<>();
+        values.put("database.driver", "org.h2.Driver");
+        values.put("database.url", "jdbc:h2:mem:devices");
+        return createConfig(values);
+    }
+
+    private static Group copyGroup(Group group) {
+        Group result = new Group();
+        result.setId(group.getId());
+        result.setName(group.getName());
+        result.setGroupId(group.getGroupId());
+        result.setAttributes(new HashMap<>(group.getAttributes()));
+        return result;
+    }
+
+    private static Device copyDevice(Device device) {
+        Device result = new Device();
+        result.setId(device.getId());
+        result.setName(device.getName());
+        result.setUniqueId(device.getUniqueId());
+        result.setGroupId(device.getGroupId());
+        result.setAttributes(new HashMap<>(device.getAttributes()));
+        return result;
+    }
+
+    private static class TestDataManager extends DataManager {
+
+        private final Map<Long, Group> groups = new HashMap<>();
+        private final Map<Long, Device> devices = new HashMap<>();
+
+        TestDataManager() throws Exception {
+            super(createDatabaseConfig());
+        }
+
+        @Override
+        public Collection<Group> getAllGroups() {
+            Collection<Group> result = new ArrayList<>();
+            for (Group group : groups.values()) {
+                result.add(copyGroup(group));
+            }
+            return result;
+        }
+
+        @Override
+        public Group getGroup(long groupId) {
+            Group group = groups.get(groupId);
+            return group != null ? copyGroup(group) : null;
+        }
+
+        @Override
+        public void updateGroup(Group group) {
+            groups.put(group.getId(), copyGroup(group));
+        }
+
+        @Override
+        public Collection<Device> getAllDevices() {
+            Collection<Device> result = new ArrayList<>();
+            for (Device device : devices.values()) {
+                result.add(copyDevice(device));
+            }
+            return result;
+        }
+
+        @Override
+        public Device getDevice(long deviceId) {
+            Device device = devices.get(deviceId);
+            return device != null ? copyDevice(device) : null;
+        }
+
+        @Override
+        public Collection<Position> getLatestPositions() {
+            return Collections.emptyList();
+        }
+
+    }
+
+    private static class TestDeviceManager extends DeviceManager {
+
+        private Server server = new Server();
+
+        TestDeviceManager(DataManager dataManager, Map<String, String> config) {
+            super(dataManager, createConfig(config));
+        }
+
+        @Override
+        Server getServer() {
+            return server;
+        }
+
+    }
+
+    private static Group createGroup(long id, long parentId, String speedLimit) {
+        Group group = new Group();
+        group.setId(id);
+        group.setName("group" + id);
+        group.setGroupId(parentId);
+        group.set("speedLimit", speedLimit);
+        return group;
+    }
+
+    private TestDeviceManager createDeviceManager(TestDataManager dataManager) {
+        Device device = new Device();
+        device.setId(1);
+        device.setName("test");
+        device.setUniqueId("123456789012345");
+        device.setGroupId(3);
+        dataManager.devices.put(device.getId(), device);
+
+        Map<String, String> config = new HashMap<>();
+        config.put("deviceManager.lookupGroupsAttribute", "true");
+        config.put("speedLimit", "5");
+        return new TestDeviceManager(dataManager, config);
+    }
+
+    @Test
+    public void testGroupReparenting() throws Exception {
+
+        TestDataManager dataManager = new TestDataManager();
+        dataManager.groups.put(1L, createGroup(1, 0, "10"));
+        dataManager.groups.put(2L, createGroup(2, 0, "20"));
+        dataManager.groups.put(3L, createGroup(3, 1, null));
+        TestDeviceManager deviceManager = createDeviceManager(dataManager);
+
+        Assert.assertEquals(10.0, deviceManager.lookupAttributeDouble(1, "speedLimit", 0, true), 0.1);
+
+        dataManager.groups.put(3L, createGroup(3, 2, null));
+        Assert.assertTrue(deviceManager.refreshGroup(3));
+        Assert.assertEquals(20.0, deviceManager.lookupAttributeDouble(1, "speedLimit", 0, true), 0.1);
+
+        deviceManager.updateGroup(createGroup(3, 0, null));
+        Assert.assertEquals(5.0, deviceManager.lookupAttributeDouble(1, "speedLimit", 0, true), 0.1);
+
+    }
+
+    @Test
+    public void testGroupAttributes() throws Exception {
+
+        TestDataManager dataManager = new TestDataManager();
+        dataManager.groups.put(1L, createGroup(1, 0, "10"));
+        dataManager.groups.put(3L, createGroup(3, 1, null));
+        TestDeviceManager deviceManager = createDeviceManager(dataManager);
+
+        Assert.assertEquals(10.0, deviceManager.lookupAttributeDouble(1, "speedLimit", 0, true), 0.1);
+
+        dataManager.groups.put(1L, createGroup(1, 0, "15"));
+        Assert.assertFalse(deviceManager.refreshGroup(1));
+        Assert.assertEquals(15.0, deviceManager.lookupAttributeDouble(1, "speedLimit", 0, true), 0.1);
+
+        dataManager.groups.put(1L, createGroup(1, 0, "25"));
+        deviceManager.refresh();
+        Assert.assertEquals(25.0, deviceManager.lookupAttributeDouble(1, "speedLimit", 0, true), 0.1);
+
+        dataManager.groups.remove(1L);
+        deviceManager.refresh();
+        Assert.assertEquals(5.0, deviceManager.lookupAttributeDouble(1, "speedLimit", 0, true), 0.1);
+
+    }
+
+    @Test
+    public void testServerReplacement() throws Exception {
+
+        TestDataManager dataManager = new TestDataManager();
+        dataManager.groups.put(3L, createGroup(3, 0, null));
+        TestDeviceManager deviceManager = createDeviceManager(dataManager);
+
+        Assert.assertEquals(0.0, deviceManager.lookupAttributeDouble(1, "speedLimit", 0, false), 0.1);
+
+        Server server = new Server();
+        server.set("speedLimit", "30");
+        deviceManager.server = server;
+        Assert.assertEquals(30.0, deviceManager.lookupAttributeDouble(1, "speedLimit", 0, false), 0.1);
+
+        server = new Server();
+        server.set("speedLimit", "40");
+        deviceManager.server = server;
+        Assert.assertEquals(40.0, deviceManager.lookupAttributeDouble(1, "speedLimit", 0, false), 0.1);
+
+    }
+
+}
@@ -0,0 +1,96 @@
+package org.traccar.database;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.traccar.model.Device;
+import org.traccar.model.Group;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class GeofenceManagerTest {
+
+    private final Map<Long, Group> groups = new HashMap<>();
+    private final List<Device> devices = new ArrayList<>();
+
+    private void addGroup(long id, long parentId) {
+        Group group = new Group();
+        group.setId(id);
+        group.setGroupId(parentId);
+        groups.put(id, group);
+    }
+
+    private void addDevice(long id, long groupId, Long... geofenceIds) {
+        Device device = new Device();
+        device.setId(id);
+        device.setGroupId(groupId);
+        device.setGeofenceIds(Arrays.asList(geofenceIds));
+        devices.add(device);
+    }
+
+    private static Map<Long, Set<Long>> createLinks(long[]... links) {
+        Map<Long, Set<Long>> result = new HashMap<>();
+        for (long[] link : links) {
+            if (!result.containsKey(link[0])) {
+                result.put(link[0], new HashSet<Long>());
+            }
+            result.get(link[0]).add(link[1]);
+        }
+        return result;
+    }
+
+    private List<Long> getAffectedDevices(
+            Map<Long, Set<Long>> groupGeofences, Map<Long, Set<Long>> deviceGeofences,
+            Map<Long, Set<Long>> oldDeviceGeofencesWithGroups, Set<Long> changedGeofences, Set<Long> failedDevices) {
+        List<Long> result = new ArrayList<>();
+        for (Device device : GeofenceManager.getAffectedDevices(devices, groups, groupGeofences,
+                deviceGeofences, oldDeviceGeofencesWithGroups, changedGeofences, failedDevices)) {
+            result.add(device.getId());
+        }
+        return result;
+    }
+
+    @Test
+    public void testAffectedDevices() {
+
+        addGroup(1, 0);
+        addGroup(2, 1);
+        addDevice(1, 1);
+        addDevice(2, 2, 20L);
+        addDevice(3, 0, 30L);
+
+        Map<Long, Set<Long>> groupGeofences = createLinks(new long[] {1, 10}, new long[] {2, 20});
+        Map<Long, Set<Long>> oldDeviceGeofences = createLinks(
+                new long[] {1, 10}, new long[] {2, 10}, new long[] {2, 20}, new long[] {3, 30});
+        Set<Long> noGeofences = Collections.emptySet();
+        Set<Long> noDevices = Collections.emptySet();
+
+        Map<Long, Set<Long>> deviceGeofences = createLinks(new long[] {3, 30});
+        Assert.assertEquals(Collections.emptyList(), getAffectedDevices(
+                groupGeofences, deviceGeofences, oldDeviceGeofences, noGeofences, noDevices));
+        Assert.assertEquals(oldDeviceGeofences, deviceGeofences);
+
+        Assert.assertEquals(Arrays.asList(2L), getAffectedDevices(
+                createLinks(new long[] {1, 10}, new long[] {2, 20}, new long[] {2, 21}),
+                createLinks(new long[] {3, 30}), oldDeviceGeofences, noGeofences, noDevices));
+
+        Assert.assertEquals(Arrays.asList(1L, 2L), getAffectedDevices(
+                groupGeofences, createLinks(new long[] {3, 30}), oldDeviceGeofences,
+                Collections.singleton(10L), noDevices));
+
+        Assert.assertEquals(Arrays.asList(3L), getAffectedDevices(
+                groupGeofences, createLinks(), oldDeviceGeofences, Collections.singleton(30L), noDevices));
+
+        Assert.assertEquals(Arrays.asList(1L), getAffectedDevices(
+                groupGeofences, createLinks(new long[] {3, 30}), oldDeviceGeofences, noGeofences,
+                Collections.singleton(1L)));
+
+    }
+
+}
@@ -0,0 +1,298 @@
+package org.traccar.database;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.traccar.BaseTest;
+import org.traccar.Config;
+import org.traccar.model.Position;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PositionSpoolTest extends BaseTest {
+
+    private static Config createConfig(final Map<String, String> values) {
+        return new Config() {
+            @Override
+            public boolean hasKey(String key) {
+                return values.containsKey(key);
+            }
+
+            @Override
+            public String getString(String key) {
+                return values.get(key);
+            }
+        };
+    }
+
+    private static Config createDatabaseConfig() {
+        Map<String, String> values = new HashMap<>();
+        values.put("database.driver", "org.h2.Driver");
+        values.put("database.url", "jdbc:h2:mem:spool");
+        return createConfig(values);
+    }
+
+    private static class TestDataManager extends DataManager {
+
+        private final List<Position> stored = new ArrayList<>();
+        private int insertCount;
+        private int failInsert;
+        private boolean failAfterInsert;
+        private long rejectedDeviceId;
+
+        TestDataManager() throws Exception {
+            super(createDatabaseConfig());
+        }
+
+        @Override
+        public void addPositions(List<Position> positions, boolean keepServerTime) throws SQLException {
+            insertCount += 1;
+            if (insertCount == failInsert && !failAfterInsert) {
+                throw new SQLTransientConnectionException("connection lost");
+            }
+            for (Position position : positions) {
+                if (position.getDeviceId() == rejectedDeviceId) {
+                    throw new SQLIntegrityConstraintViolationException("rejected");
+                }
+            }
+            for (Position position : positions) {
+                // database without fractional seconds
+                Position copy = new Position();
+                copy.setDeviceId(position.getDeviceId());
+                copy.setFixTime(new Date(position.getFixTime().getTime() / 1000 * 1000));
+                copy.setServerTime(new Date(position.getServerTime().getTime() / 1000 * 1000));
+                copy.setLatitude(position.getLatitude());
+                copy.setLongitude(position.getLongitude());
+                stored.add(copy);
+            }
+            if (insertCount == failInsert) {
+                throw new SQLTransientConnectionException("connection lost after commit");
+            }
+        }
+
+        @Override
+        public Collection<Position> getPositions(long deviceId, Date from, Date to) {
+            Collection<Position> result = new ArrayList<>();
+            for (Position position : stored) {
+                if (position.getDeviceId() == deviceId
+                        && !position.getFixTime().before(from) && !position.getFixTime().after(to)) {
+                    result.add(position);
+                }
+            }
+            return result;
+        }
+
+    }
+
+    private File directory;
+    private TestDataManager dataManager;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("spool").toFile();
+        dataManager = new TestDataManager();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private PositionSpool createSpool() throws IOException {
+        Map<String, String> values = new HashMap<>();
+        values.put("database.spool.directory", directory.getPath());
+        values.put("database.spool.batchSize", "2");
+        return new PositionSpool(dataManager, createConfig(values));
+    }
+
+    private static Position createPosition(long deviceId, int index) {
+        Position position = new Position();
+        position.setDeviceId(deviceId);
+        position.setFixTime(new Date(1500000000000L + index * 1000 + 500));
+        position.setLatitude(index);
+        position.setLongitude(index);
+        return position;
+    }
+
+    private void addPositions(PositionSpool spool, int count) {
+        for (int i = 1; i <= count; i++) {
+            Assert.assertTrue(spool.addPosition(createPosition(1, i)));
+        }
+    }
+
+    private File getSegment() {
+        File[] files = directory.listFiles();
+        Assert.assertNotNull(files);
+        for (File file : files) {
+            if (file.getName().startsWith("spool-")) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    private void assertStored(int... indexes) {
+        Assert.assertEquals(indexes.length, dataManager.stored.size());
+        for (int i = 0; i < indexes.length; i++) {
+            Assert.assertEquals(indexes[i], dataManager.stored.get(i).getLatitude(), 0.1);
+        }
+    }
+
+    @Test
+    public void testTransientErrors() {
+
+        Assert.assertTrue(PositionSpool.isTransient(new SQLTransientConnectionException("timeout")));
+        Assert.assertTrue(PositionSpool.isTransient(new SQLException("connection refused", "08001")));
+        Assert.assertTrue(PositionSpool.isTransient(new SQLException("pool exhausted")));
+        Assert.assertTrue(PositionSpool.isTransient(new RuntimeException(new SQLException("broken", "08S01"))));
+
+        Assert.assertFalse(PositionSpool.isTransient(new SQLIntegrityConstraintViolationException("duplicate")));
+        Assert.assertFalse(PositionSpool.isTransient(new SQLException("foreign key", "23506")));
+        Assert.assertFalse(PositionSpool.isTransient(new SQLException("value too long", "22001")));
+        Assert.assertFalse(PositionSpool.isTransient(new SQLException("no table", "42S02")));
+        Assert.assertFalse(PositionSpool.isTransient(new IOException("bad data")));
+        Assert.assertFalse(PositionSpool.isTransient(new NullPointerException()));
+
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+
+        PositionSpool spool = createSpool();
+        addPositions(spool, 3);
+        spool.replay();
+
+        assertStored(1, 2, 3);
+        Assert.assertNull(getSegment());
+
+        spool.replay();
+        Assert.assertEquals(3, dataManager.stored.size());
+
+    }
+
+    @Test
+    public void testChecksumMismatch() throws Exception {
+
+        PositionSpool spool = createSpool();
+        addPositions(spool, 3);
+        spool.stop();
+
+        File segment = getSegment();
+        long recordSize = segment.length() / 3;
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.seek(recordSize + recordSize / 2);
+            int value = file.read();
+            file.seek(recordSize + recordSize / 2);
+            file.write(value ^ 0xff);
+        }
+
+        createSpool().replay();
+        assertStored(1);
+        Assert.assertNull(getSegment());
+
+    }
+
+    @Test
+    public void testTruncatedTail() throws Exception {
+
+        PositionSpool spool = createSpool();
+        addPositions(spool, 3);
+        spool.stop();
+
+        File segment = getSegment();
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(segment.length() - 5);
+        }
+
+        createSpool().replay();
+        assertStored(1, 2);
+
+    }
+
+    @Test
+    public void testCheckpointResume() throws Exception {
+
+        PositionSpool spool = createSpool();
+        addPositions(spool, 5);
+        dataManager.failInsert = 2;
+
+        try {
+            spool.replay();
+            Assert.fail();
+        } catch (SQLException error) {
+            Assert.assertTrue(PositionSpool.isTransient(error));
+        }
+        assertStored(1, 2);
+        Assert.assertNotNull(getSegment());
+
+        spool.stop();
+        createSpool().replay();
+        assertStored(1, 2, 3, 4, 5);
+        Assert.assertNull(getSegment());
+
+    }
+
+    @Test
+    public void testIdempotentReplay() throws Exception {
+
+        PositionSpool spool = createSpool();
+        addPositions(spool, 4);
+        dataManager.failInsert = 2;
+        dataManager.failAfterInsert = true;
+
+        try {
+            spool.replay();
+            Assert.fail();
+        } catch (SQLException error) {
+            Assert.assertTrue(PositionSpool.isTransient(error));
+        }
+        assertStored(1, 2, 3, 4);
+
+        spool.stop();
+        createSpool().replay();
+        assertStored(1, 2, 3, 4);
+        Assert.assertNull(getSegment());
+
+    }
+
+    @Test
+    public void testQuarantine() throws Exception {
+
+        PositionSpool spool = createSpool();
+        Assert.assertTrue(spool.addPosition(createPosition(1, 1)));
+        Assert.assertTrue(spool.addPosition(createPosition(2, 2)));
+        Assert.assertTrue(spool.addPosition(createPosition(1, 3)));
+        dataManager.rejectedDeviceId = 2;
+        spool.replay();
+
+        assertStored(1, 3);
+        Assert.assertNull(getSegment());
+
+        List<String> lines = Files.readAllLines(
+                new File(directory, "quarantine.json").toPath(), StandardCharsets.UTF_8);
+        Assert.assertEquals(1, lines.size());
+        Assert.assertTrue(lines.get(0).contains("\"deviceId\":2"));
+
+    }
+
+}
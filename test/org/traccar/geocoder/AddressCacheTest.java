@@ -0,0 +1,34 @@
+package org.traccar.geocoder;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AddressCacheTest {
+
+    @Test
+    public void testAddressCache() throws InterruptedException {
+
+        AddressCache cache = new AddressCache(100, 0, 4);
+        cache.put(55.75001, 37.61998, "Moscow");
+        Assert.assertEquals("Moscow", cache.get(55.75003, 37.62002));
+        Assert.assertNull(cache.get(55.7501, 37.62));
+        Assert.assertEquals(-12345L << 32 | -67890L & 0xffffffffL, cache.getKey(-1.2345, -6.789));
+        Assert.assertEquals(1, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i, "Address " + i);
+        }
+        Assert.assertTrue(cache.size() <= 100);
+        Assert.assertEquals("Address 999", cache.get(999, 999));
+        Assert.assertTrue(cache.getEvictions() >= 900);
+
+        cache = new AddressCache(100, 1, 4);
+        cache.put(1, 2, "Address");
+        Thread.sleep(10);
+        Assert.assertNull(cache.get(1, 2));
+        Assert.assertEquals(1, cache.getEvictions());
+
+    }
+
+}
@@ -0,0 +1,123 @@
+package org.traccar.geocoder;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DiskCacheGeocoderTest {
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private final Geocoder geocoder = new Geocoder() {
+        @Override
+        public void getAddress(
+                AddressFormat format, double latitude, double longitude, ReverseGeocoderCallback callback) {
+            requests.incrementAndGet();
+            callback.onSuccess(latitude + " " + longitude);
+        }
+    };
+
+    private String createPath() throws Exception {
+        File file = File.createTempFile("geocoder", "");
+        file.delete();
+        file.deleteOnExit();
+        return file.getAbsolutePath();
+    }
+
+    private String getAddress(Geocoder geocoder, double latitude, double longitude) throws Exception {
+        final BlockingQueue<String> result = new ArrayBlockingQueue<>(1);
+        geocoder.getAddress(null, latitude, longitude, new Geocoder.ReverseGeocoderCallback() {
+            @Override
+            public void onSuccess(String address) {
+                result.offer(address);
+            }
+
+            @Override
+            public void onFailure(Throwable e) {
+                result.offer(e.toString());
+            }
+        });
+        String address = result.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(address);
+        return address;
+    }
+
+    private int countRows(Connection connection, String condition) throws Exception {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT COUNT(*) FROM address_cache WHERE " + condition);
+             ResultSet resultSet = statement.executeQuery()) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    private void waitForRows(Connection connection, String condition, int count) throws Exception {
+        for (int i = 0; i < 500 && countRows(connection, condition) != count; i++) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(count, countRows(connection, condition));
+    }
+
+    @Test
+    public void testDiskHit() throws Exception {
+
+        String path = createPath();
+
+        Geocoder first = new DiskCacheGeocoder(geocoder, new AddressCache(10), path, 100);
+        Assert.assertEquals("10.0 20.0", getAddress(first, 10, 20));
+        Assert.assertEquals(1, requests.get());
+
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:" + path + ";AUTO_SERVER=TRUE")) {
+            waitForRows(connection, "TRUE", 1);
+        }
+
+        Geocoder second = new DiskCacheGeocoder(geocoder, new AddressCache(10), path, 100);
+        Assert.assertEquals("10.0 20.0", getAddress(second, 10, 20));
+        Assert.assertEquals(1, requests.get());
+
+        Assert.assertEquals("11.0 21.0", getAddress(second, 11, 21));
+        Assert.assertEquals(2, requests.get());
+
+    }
+
+    @Test
+    public void testCompactionKeepsRecentlyUsed() throws Exception {
+
+        String path = createPath();
+        AddressCache cache = new AddressCache(1);
+        Geocoder diskCache = new DiskCacheGeocoder(geocoder, cache, path, 10);
+
+        try (Connection connection = DriverManager.getConnection("jdbc:h2:" + path + ";AUTO_SERVER=TRUE")) {
+
+            for (int i = 0; i < 10; i++) {
+                getAddress(diskCache, i, i);
+                waitForRows(connection, "TRUE", i + 1);
+                Thread.sleep(2);
+            }
+
+            getAddress(diskCache, 0, 0);
+            Assert.assertEquals(10, requests.get());
+            waitForRows(connection, "time > (SELECT MAX(time) FROM address_cache WHERE cell <> "
+                    + cache.getKey(0, 0) + ")", 1);
+            Thread.sleep(2);
+
+            getAddress(diskCache, 10, 10);
+            waitForRows(connection, "TRUE", 9);
+
+            Assert.assertEquals(1, countRows(connection, "cell = " + cache.getKey(0, 0)));
+            Assert.assertEquals(0, countRows(connection, "cell = " + cache.getKey(1, 1)));
+
+        }
+
+    }
+
+}
@@ -0,0 +1,82 @@
+package org.traccar.geocoder;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class GeocoderLimiterTest {
+
+    private final List<Geocoder.ReverseGeocoderCallback> requests = new ArrayList<>();
+    private final List<String> results = new ArrayList<>();
+
+    private final GeocoderLimiter.Request request = new GeocoderLimiter.Request() {
+        @Override
+        public void execute(Geocoder.ReverseGeocoderCallback callback) {
+            requests.add(callback);
+        }
+    };
+
+    private final Geocoder.ReverseGeocoderCallback callback = new Geocoder.ReverseGeocoderCallback() {
+        @Override
+        public void onSuccess(String address) {
+            results.add(address);
+        }
+
+        @Override
+        public void onFailure(Throwable e) {
+            results.add(e.getMessage());
+        }
+    };
+
+    @Test
+    public void testCoalescing() {
+
+        GeocoderLimiter limiter = new GeocoderLimiter(4, 0, 0, 0, 0);
+
+        limiter.submit(10.00001, 20.00001, callback, request);
+        limiter.submit(10.00002, 20.00002, callback, request);
+        limiter.submit(11, 21, callback, request);
+        Assert.assertEquals(2, requests.size());
+
+        requests.get(0).onSuccess("A");
+        Assert.assertEquals(2, results.size());
+        Assert.assertEquals("A", results.get(1));
+
+        limiter.submit(10.00001, 20.00001, callback, request);
+        Assert.assertEquals(3, requests.size());
+
+    }
+
+    @Test
+    public void testCoalescingNearby() {
+
+        GeocoderLimiter limiter = new GeocoderLimiter(4, 0, 0, 0, 0);
+
+        limiter.submit(48.85661, 2.35221, callback, request);
+        limiter.submit(48.85663, 2.35224, callback, request);
+        limiter.submit(48.85658, 2.35219, callback, request);
+        Assert.assertEquals(1, requests.size());
+
+        requests.get(0).onSuccess("A");
+        Assert.assertEquals(3, results.size());
+
+    }
+
+    @Test
+    public void testQueueOverflow() {
+
+        GeocoderLimiter limiter = new GeocoderLimiter(4, 0.001, 1, 1, 60000);
+
+        limiter.submit(1, 1, callback, request);
+        limiter.submit(2, 2, callback, request);
+        limiter.submit(3, 3, callback, request);
+        Assert.assertEquals(1, requests.size());
+        Assert.assertEquals(1, limiter.getQueueDepth());
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals("Geocoder queue is full", results.get(0));
+
+    }
+
+}
@@ -0,0 +1,65 @@
+package org.traccar.geofence;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+public class GeofenceIndexTest {
+
+    @Test
+    public void testIndex() throws ParseException {
+
+        Random random = new Random(1);
+        Map<Long, GeofenceGeometry> geometries = new HashMap<>();
+        for (long id = 1; id <= 1000; id++) {
+            double latitude = random.nextDouble() * 170 - 85;
+            double longitude = random.nextDouble() * 360 - 180;
+            if (id % 3 == 0) {
+                geometries.put(id, new GeofenceCircle(latitude, longitude, random.nextDouble() * 500000));
+            } else if (id % 3 == 1) {
+                geometries.put(id, new GeofencePolygon(String.format(Locale.US, "POLYGON ((%f %f, %f %f, %f %f))",
+                        latitude, longitude, latitude + random.nextDouble() * 10, longitude,
+                        latitude, Math.min(longitude + random.nextDouble() * 10, 180))));
+            } else {
+                geometries.put(id, new GeofencePolyline(String.format(Locale.US, "LINESTRING (%f %f, %f %f)",
+                        latitude, longitude, latitude + random.nextDouble() * 5 - 2.5,
+                        Math.max(longitude - random.nextDouble() * 5, -180)), random.nextDouble() * 100000));
+            }
+        }
+
+        GeofenceIndex index = new GeofenceIndex(geometries);
+        Assert.assertEquals(1000, index.size());
+
+        for (int i = 0; i < 2000; i++) {
+            double latitude = random.nextDouble() * 180 - 90;
+            double longitude = random.nextDouble() * 360 - 180;
+            List<Long> expected = new ArrayList<>();
+            for (Map.Entry<Long, GeofenceGeometry> entry : geometries.entrySet()) {
+                if (entry.getValue().containsPoint(latitude, longitude)) {
+                    expected.add(entry.getKey());
+                }
+            }
+            List<Long> result = new ArrayList<>();
+            for (long id : index.find(latitude, longitude)) {
+                if (geometries.get(id).containsPoint(latitude, longitude)) {
+                    result.add(id);
+                }
+            }
+            Collections.sort(expected);
+            Collections.sort(result);
+            Assert.assertEquals(expected, result);
+        }
+
+        Assert.assertTrue(new GeofenceIndex(Collections.<Long, GeofenceGeometry>emptyMap()).find(0, 0).isEmpty());
+
+    }
+
+}
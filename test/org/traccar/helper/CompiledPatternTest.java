@@ -0,0 +1,148 @@
+package org.traccar.helper;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.traccar.protocol.Gl200ProtocolDecoder;
+import org.traccar.protocol.Gps103ProtocolDecoder;
+import org.traccar.protocol.H02ProtocolDecoder;
+import org.traccar.protocol.Tk103ProtocolDecoder;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class CompiledPatternTest {
+
+    private void verify(Pattern pattern, String input) {
+        CompiledPattern.register(pattern);
+        CompiledPattern compiledPattern = CompiledPattern.get(pattern);
+        Assert.assertNotNull(compiledPattern);
+
+        Matcher matcher = pattern.matcher(input);
+        CompiledPattern.Scanner scanner = compiledPattern.scanner(input);
+        Assert.assertEquals(matcher.matches(), scanner.matches());
+        if (matcher.matches()) {
+            for (int i = 0; i <= matcher.groupCount(); i++) {
+                Assert.assertEquals(matcher.group(i), scanner.group(i));
+            }
+        }
+
+        matcher = pattern.matcher(input);
+        scanner = compiledPattern.scanner(input);
+        while (matcher.find()) {
+            Assert.assertTrue(scanner.find());
+            for (int i = 0; i <= matcher.groupCount(); i++) {
+                Assert.assertEquals(matcher.group(i), scanner.group(i));
+            }
+        }
+        Assert.assertFalse(scanner.find());
+    }
+
+    @Test
+    public void testCompiledPattern() {
+
+        Pattern pattern = new PatternBuilder()
+                .text("$GPRMC,")
+                .number("(dd)(dd)(dd).d+,")
+                .expression("([AV]),")
+                .number("(d+.d+),([NS]),")
+                .number("(-?d+),")
+                .any()
+                .compile();
+
+        verify(pattern, "$GPRMC,123519.00,A,4807.038,N,-12,rest");
+        verify(pattern, "$GPRMC,123519.00,X,4807.038,N,-12,rest");
+        verify(pattern, "$GPRMC,1235");
+
+        pattern = new PatternBuilder()
+                .number("(d+)")
+                .groupBegin()
+                .text(",")
+                .number("(x+)")
+                .groupEnd("?")
+                .text(";")
+                .expression("(?:NA|(\\d+))")
+                .compile();
+
+        verify(pattern, "123,ab;NA");
+        verify(pattern, "123;NAB");
+        verify(pattern, "123,;45");
+        verify(pattern, "123,ff;45");
+
+        pattern = new PatternBuilder()
+                .number("(d+)(dd.d+)")
+                .compile();
+
+        verify(pattern, "12345.6");
+        verify(pattern, "45.6");
+        verify(pattern, "5.6");
+
+        pattern = new PatternBuilder()
+                .number("(d+.?d*),")
+                .any()
+                .number("(xxxx)")
+                .groupBegin()
+                .text(",")
+                .number("(d+)")
+                .groupEnd("?")
+                .any()
+                .compile();
+
+        verify(pattern, "12.5,abc0123,45;");
+        verify(pattern, "12.5,00ff00ff,1,2");
+        verify(pattern, "125,x12,;12.5,abcd");
+        verify(pattern, "12.,");
+
+    }
+
+    @Test
+    public void testLinearTime() {
+
+        Pattern pattern = Pattern.compile("(?:a|aa)*c", Pattern.DOTALL);
+        CompiledPattern.register(pattern);
+        CompiledPattern compiledPattern = CompiledPattern.get(pattern);
+        Assert.assertFalse(compiledPattern.isPredictive());
+
+        StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            input.append('a');
+        }
+        Assert.assertFalse(compiledPattern.scanner(input).matches());
+        Assert.assertFalse(compiledPattern.scanner(input).find());
+
+    }
+
+    @Test
+    public void testProtocolPatterns() throws Exception {
+
+        for (Class<?> decoderClass : new Class<?>[] {
+                Gl200ProtocolDecoder.class, Gps103ProtocolDecoder.class,
+                H02ProtocolDecoder.class, Tk103ProtocolDecoder.class}) {
+            for (Field field : decoderClass.getDeclaredFields()) {
+                if (field.getType() == Pattern.class && Modifier.isStatic(field.getModifiers())) {
+                    field.setAccessible(true);
+                    Assert.assertNotNull(field.getName(), CompiledPattern.get((Pattern) field.get(null)));
+                }
+            }
+        }
+
+    }
+
+    @Test
+    public void testUnsupported() {
+
+        Pattern pattern = new PatternBuilder()
+                .number("(d+.?d*),")
+                .expression("\\1")
+                .compile();
+
+        Assert.assertNull(CompiledPattern.get(pattern));
+
+        Parser parser = new Parser(pattern, "12.5,12.5");
+        Assert.assertTrue(parser.matches());
+        Assert.assertEquals(12.5, parser.nextDouble(), 0.0001);
+
+    }
+
+}
@@ -5,6 +5,7 @@ import org.junit.Test;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 public class LocationTreeTest {
     
@@ -26,4 +27,51 @@ public class LocationTreeTest {
 
     }
 
+    @Test
+    public void testLocationTreeRandom() {
+
+        Random random = new Random(1);
+        float[] x = new float[10000];
+        float[] y = new float[x.length];
+        List<LocationTree.Item> items = new ArrayList<>();
+        for (int i = 0; i < x.length; i++) {
+            x[i] = random.nextFloat() * 180 - 90;
+            y[i] = random.nextFloat() * 360 - 180;
+            items.add(new LocationTree.Item(x[i], y[i], String.valueOf(i)));
+        }
+
+        LocationTree tree = new LocationTree(items);
+        Assert.assertEquals(x.length, tree.size());
+
+        for (int i = 0; i < 1000; i++) {
+            float searchX = random.nextFloat() * 180 - 90;
+            float searchY = random.nextFloat() * 360 - 180;
+            double expected = Double.POSITIVE_INFINITY;
+            for (int j = 0; j < x.length; j++) {
+                expected = Math.min(expected, DistanceCalculator.distance(x[j], y[j], searchX, searchY));
+            }
+            int index = Integer.parseInt(tree.findNearest(searchX, searchY).getData());
+            Assert.assertEquals(expected, DistanceCalculator.distance(x[index], y[index], searchX, searchY), 1);
+        }
+
+        Assert.assertNull(new LocationTree(new ArrayList<LocationTree.Item>()).findNearest(0, 0));
+
+    }
+
+    @Test
+    public void testLocationTreeGeographic() {
+
+        List<LocationTree.Item> items = new ArrayList<>();
+        items.add(new LocationTree.Item(80, 0, "north"));
+        items.add(new LocationTree.Item(75, 10, "south"));
+        items.add(new LocationTree.Item(0, 179.5f, "east"));
+        items.add(new LocationTree.Item(0, -170, "west"));
+
+        LocationTree tree = new LocationTree(items);
+
+        Assert.assertEquals("north", tree.findNearest(80, 20).getData());
+        Assert.assertEquals("east", tree.findNearest(0, -179.5f).getData());
+
+    }
+
 }
@@ -0,0 +1,32 @@
+package org.traccar.helper;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+public class LongSetTest {
+
+    @Test
+    public void testLongSet() {
+
+        LongSet set = LongSet.of(Arrays.asList(5L, 1L, 3L, 5L));
+        Assert.assertEquals(3, set.size());
+        Assert.assertTrue(set.contains(3));
+        Assert.assertTrue(set.contains((Object) 5L));
+        Assert.assertFalse(set.contains(2));
+        Assert.assertFalse(set.contains((Object) 1));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(1L, 3L, 5L)), set);
+
+        Assert.assertSame(set, set.with(3));
+        Assert.assertEquals("[1, 2, 3, 5]", set.with(2).toString());
+        Assert.assertSame(set, set.without(4));
+        Assert.assertEquals("[1, 5]", set.without(3).toString());
+        Assert.assertSame(LongSet.EMPTY, LongSet.of(Collections.singleton(1L)).without(1));
+        Assert.assertSame(LongSet.EMPTY, LongSet.of(Collections.<Long>emptySet()));
+
+    }
+
+}
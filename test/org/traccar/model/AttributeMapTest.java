@@ -0,0 +1,107 @@
+package org.traccar.model;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.traccar.BaseTest;
+import org.traccar.Context;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class AttributeMapTest extends BaseTest {
+
+    @Test
+    public void testAttributeMap() {
+
+        AttributeMap attributes = new AttributeMap();
+        attributes.putInteger("a", 1);
+        attributes.putDouble("b", 2.5);
+        attributes.put("c", "text");
+        attributes.putBoolean("d", true);
+        attributes.putLong("e", 10000000000L);
+        attributes.putInteger("a", 3);
+
+        Assert.assertEquals(5, attributes.size());
+        Assert.assertEquals(3, attributes.get("a"));
+        Assert.assertEquals(2.5, attributes.get("b"));
+        Assert.assertEquals("text", attributes.get("c"));
+        Assert.assertEquals(true, attributes.get("d"));
+        Assert.assertEquals(10000000000L, attributes.get("e"));
+        Assert.assertEquals(2, attributes.getInteger("b"));
+        Assert.assertEquals(3.0, attributes.getDouble("a"), 0.0);
+        Assert.assertEquals(0, attributes.getLong("x"));
+
+        attributes.put("b", "replaced");
+        attributes.remove("c");
+
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("a", 3);
+        expected.put("b", "replaced");
+        expected.put("d", true);
+        expected.put("e", 10000000000L);
+        Assert.assertEquals(expected, attributes);
+        Assert.assertEquals(expected.toString(), attributes.toString());
+
+        Iterator<Map.Entry<String, Object>> iterator = attributes.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getValue() instanceof Number) {
+                iterator.remove();
+            }
+        }
+        Assert.assertEquals(2, attributes.size());
+        Assert.assertEquals("{b=replaced, d=true}", attributes.toString());
+
+    }
+
+    @Test
+    public void testManyKeys() {
+
+        AttributeMap attributes = new AttributeMap();
+        Map<String, Object> expected = new LinkedHashMap<>();
+        for (int i = 0; i < 100; i++) {
+            attributes.putInteger("key" + i, i);
+            expected.put("key" + i, i);
+        }
+        for (int i = 0; i < 100; i += 3) {
+            attributes.remove("key" + i);
+            expected.remove("key" + i);
+        }
+        attributes.put("key1", "changed");
+        expected.put("key1", "changed");
+
+        Assert.assertEquals(expected, attributes);
+        Assert.assertEquals(expected.toString(), attributes.toString());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(expected.get("key" + i), attributes.get("key" + i));
+        }
+        Assert.assertNull(attributes.get(null));
+        Assert.assertFalse(attributes.containsKey(1));
+
+        for (int i = 0; i < 100; i++) {
+            attributes.remove("key" + i);
+        }
+        Assert.assertTrue(attributes.isEmpty());
+        Assert.assertNull(attributes.get("key2"));
+
+    }
+
+    @Test
+    public void testJson() throws Exception {
+
+        Position position = new Position();
+        position.set("a", 1);
+        position.set("b", 2.5);
+        position.set("c", "text");
+
+        String json = Context.getObjectMapper().writeValueAsString(position.getAttributes());
+        Assert.assertEquals("{\"a\":1,\"b\":2.5,\"c\":\"text\"}", json);
+
+        position.setAttributes(Context.getObjectMapper().readValue(json, Map.class));
+        Assert.assertTrue(position.getAttributes() instanceof AttributeMap);
+        Assert.assertEquals(1, position.getInteger("a"));
+        Assert.assertEquals(2.5, position.getDouble("b"), 0.0);
+
+    }
+
+}